@@ -0,0 +1,152 @@
+package org.zxinc.ip.bench;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.zxinc.ip.IpAddress;
+import org.zxinc.ip.IpAggregator;
+import org.zxinc.ip.IpRecord;
+import org.zxinc.ip.Ipdbv4;
+import org.zxinc.ip.Ipdbv6;
+import org.zxinc.ip.IpdbOptions;
+import org.zxinc.ip.PrefixCounter;
+
+/**
+ * 按地区统计地址个数，每次操作统计一个地址。query后以字符串为键放入HashMap是原来的做法。
+ *
+ * <pre>
+ * java -jar target/benchmarks.jar AggregateBenchmark -p distribution=zipf
+ * </pre>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class AggregateBenchmark {
+	static final int KEYS = 1 << 16;
+	// Space-Saving保留的前缀个数
+	static final int TOP_CAPACITY = 1024;
+
+	@Param({"uniform", "zipf"})
+	public String distribution;
+
+	@Param("")
+	public String db6;
+
+	@Param("")
+	public String db4;
+
+	private Ipdbv6 ipdb6;
+	private Ipdbv4 ipdb4;
+	private IpAggregator aggregator;
+	// IPv6和IPv4地址交替
+	private String[] strings;
+	private long[] his;
+	private long[] los;
+
+	/**
+	 * 每个线程各自的计数器。
+	 */
+	@State(Scope.Thread)
+	public static class Counters {
+		int i;
+		final Map<String, long[]> map = new HashMap<>();
+		IpAggregator.Counter counter;
+		final PrefixCounter prefixes = new PrefixCounter(48);
+		final PrefixCounter top = new PrefixCounter(48, TOP_CAPACITY);
+
+		@Setup(Level.Trial)
+		public void setup(AggregateBenchmark b) {
+			counter = b.aggregator.newCounter();
+		}
+
+		int next() {
+			return i = (i + 1) & (KEYS - 1);
+		}
+	}
+
+	@Setup(Level.Trial)
+	public void setup() throws IOException {
+		IpdbOptions options = BenchData.options("preload");
+		ipdb4 = new Ipdbv4(BenchData.v4File(db4), options);
+		ipdb6 = new Ipdbv6(BenchData.v6File(db6), ipdb4, options);
+		aggregator = ipdb6.aggregator(IpAggregator.Key.LOCATION);
+		long[] keys6 = BenchData.v6Keys(ipdb6, distribution, KEYS);
+		int[] keys4 = BenchData.v4Keys(ipdb4, distribution, KEYS);
+		Random r = new Random(BenchData.SEED);
+		strings = new String[KEYS];
+		his = new long[KEYS];
+		los = new long[KEYS];
+		long[] parsed = new long[2];
+		for (int i = 0; i < KEYS; i++) {
+			strings[i] = i % 2 == 0 ? BenchData.v6String(keys6[i], r) : BenchData.v4String(keys4[i]);
+			if (IpAddress.parse(strings[i], parsed) == 4) {
+				his[i] = 0;
+				los[i] = 0xFFFF00000000L | parsed[0];
+			} else {
+				his[i] = parsed[0];
+				los[i] = parsed[1];
+			}
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		ipdb6.close();
+		ipdb4.close();
+	}
+
+	@Benchmark
+	public long[] queryHashMap(Counters c) throws IOException {
+		IpRecord rec = ipdb6.query(strings[c.next()]);
+		long[] n = c.map.computeIfAbsent(rec.getDisplay(), k -> new long[1]);
+		n[0]++;
+		return n;
+	}
+
+	@Benchmark
+	public IpAggregator.Counter counterString(Counters c) throws IOException {
+		c.counter.add(strings[c.next()]);
+		return c.counter;
+	}
+
+	@Benchmark
+	public IpAggregator.Counter counterLongs(Counters c) throws IOException {
+		int i = c.next();
+		c.counter.add(his[i], los[i]);
+		return c.counter;
+	}
+
+	@Benchmark
+	public PrefixCounter prefixExact(Counters c) {
+		int i = c.next();
+		c.prefixes.add(his[i], los[i]);
+		return c.prefixes;
+	}
+
+	@Benchmark
+	public PrefixCounter prefixSpaceSaving(Counters c) {
+		int i = c.next();
+		c.top.add(his[i], los[i]);
+		return c.top;
+	}
+
+}
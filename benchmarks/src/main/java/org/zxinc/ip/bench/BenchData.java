@@ -0,0 +1,221 @@
+package org.zxinc.ip.bench;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.zxinc.ip.IpAddress;
+import org.zxinc.ip.Ipdbv4;
+import org.zxinc.ip.Ipdbv6;
+import org.zxinc.ip.IpdbOptions;
+
+/**
+ * 基准测试的数据：数据库文件和按分布生成的查询地址。
+ */
+final class BenchData {
+	// 在benchmarks目录或项目根目录运行时自带的IPv6数据库
+	private static final String[] V6_DEFAULTS = {"../src/main/resources/ipv6wry.db", "src/main/resources/ipv6wry.db"};
+	// 生成的IPv4数据库的索引条数，与纯真数据库相近
+	static final int V4_RANGES = 500000;
+	// Zipf分布的指数，少数前缀占大部分流量
+	static final double ZIPF_S = 1.1;
+	static final long SEED = 20210511;
+
+	private static Path syntheticV4;
+
+	private BenchData() {
+	}
+
+	static String v6File(String param) throws IOException {
+		if (!param.isEmpty()) {
+			return param;
+		}
+		for (String f : V6_DEFAULTS) {
+			if (Files.isReadable(Path.of(f))) {
+				return f;
+			}
+		}
+		throw new IOException("找不到ipv6wry.db，请用 -p db6=文件 指定");
+	}
+
+	/**
+	 * 未指定IPv4数据库时，生成一个结构与纯真数据库相同的临时文件，进程结束时删除。
+	 */
+	static synchronized String v4File(String param) throws IOException {
+		if (!param.isEmpty()) {
+			return param;
+		}
+		if (syntheticV4 == null) {
+			syntheticV4 = Files.createTempFile("zxipdb-bench", ".db");
+			syntheticV4.toFile().deleteOnExit();
+			writeV4(syntheticV4, V4_RANGES, SEED);
+		}
+		return syntheticV4.toString();
+	}
+
+	/**
+	 * 索引布局只在preload模式下使用，其他模式只能为SORTED。
+	 */
+	static IpdbOptions options(String mode, String layout) {
+		IpdbOptions.IndexLayout l = IpdbOptions.IndexLayout.valueOf(layout);
+		if (l == IpdbOptions.IndexLayout.SORTED) {
+			return options(mode);
+		}
+		if (!mode.equals("preload")) {
+			throw new IllegalArgumentException("索引布局" + layout + "只用于preload模式: " + mode);
+		}
+		return options(mode).setIndexLayout(l);
+	}
+
+	static IpdbOptions options(String mode) {
+		switch (mode) {
+			case "file":
+				return new IpdbOptions();
+			case "mapped":
+				return new IpdbOptions().setMapped(true);
+			case "preload":
+				return new IpdbOptions().setMapped(true).setPreload(true).setLocationCache(IpdbOptions.LocationCache.EAGER);
+			default:
+				throw new IllegalArgumentException("未知的模式: " + mode);
+		}
+	}
+
+	/*
+	 * IPDB格式：文件头24字节，然后是地址记录，最后是索引区（4字节开始IP、3字节记录偏移）
+	 */
+	private static void writeV4(Path path, int ranges, long seed) throws IOException {
+		Random r = new Random(seed);
+		long[] starts = new long[ranges];
+		for (int i = 1; i < ranges; i++) {
+			starts[i] = 1 + (r.nextLong() >>> 1) % 0xFFFFFFFFL;
+		}
+		Arrays.sort(starts);
+		int total = 0;
+		for (int i = 0; i < ranges; i++) {
+			if (i == 0 || starts[i] != starts[total - 1]) {
+				starts[total++] = starts[i];
+			}
+		}
+
+		String[] countries = {"中国", "美国", "日本", "德国", "英国", "韩国", "俄罗斯", "巴西"};
+		String[] locals = {"北京 联通", "上海 电信", "广东 移动", "浙江 电信", "江苏 联通", "四川 电信", "", "教育网"};
+		byte[][] records = new byte[countries.length * locals.length + 1][];
+		for (int c = 0; c < countries.length; c++) {
+			for (int l = 0; l < locals.length; l++) {
+				records[c * locals.length + l] = (countries[c] + "\0" + locals[l] + "\0").getBytes(StandardCharsets.UTF_8);
+			}
+		}
+		// 最后一条索引指向版本信息
+		records[records.length - 1] = "ZX基准测试\0生成的IPv4数据库\0".getBytes(StandardCharsets.UTF_8);
+		int[] offsets = new int[records.length];
+		int off = 24;
+		for (int i = 0; i < records.length; i++) {
+			offsets[i] = off;
+			off += records[i].length;
+		}
+
+		try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(path), 1 << 16)) {
+			out.write(new byte[] {'I', 'P', 'D', 'B', 1, 0, 3, 4});
+			writeLE(out, total, 8);
+			writeLE(out, off, 8);
+			for (byte[] rec : records) {
+				out.write(rec);
+			}
+			for (int i = 0; i < total; i++) {
+				int rec = i == total - 1 ? records.length - 1 : r.nextInt(records.length - 1);
+				writeLE(out, starts[i], 4);
+				writeLE(out, offsets[rec], 3);
+			}
+		}
+	}
+
+	private static void writeLE(OutputStream out, long v, int len) throws IOException {
+		for (int i = 0; i < len; i++) {
+			out.write((int)(v >>> (i * 8)));
+		}
+	}
+
+	/**
+	 * 生成n个0到domain-1之间的编号。zipf时编号按随机顺序排名，排名k的概率正比于 1/k^ZIPF_S。
+	 */
+	static int[] picks(String distribution, int n, int domain, Random r) {
+		int[] out = new int[n];
+		if (distribution.equals("uniform")) {
+			for (int i = 0; i < n; i++) {
+				out[i] = r.nextInt(domain);
+			}
+			return out;
+		}
+		if (!distribution.equals("zipf")) {
+			throw new IllegalArgumentException("未知的分布: " + distribution);
+		}
+		double[] cdf = new double[domain];
+		double sum = 0;
+		for (int k = 0; k < domain; k++) {
+			sum += 1 / Math.pow(k + 1, ZIPF_S);
+			cdf[k] = sum;
+		}
+		int[] rank = new int[domain];
+		for (int k = 0; k < domain; k++) {
+			rank[k] = k;
+		}
+		for (int k = domain - 1; k > 0; k--) {
+			int j = r.nextInt(k + 1);
+			int t = rank[k];
+			rank[k] = rank[j];
+			rank[j] = t;
+		}
+		for (int i = 0; i < n; i++) {
+			int k = Arrays.binarySearch(cdf, r.nextDouble() * sum);
+			out[i] = rank[Math.min(k < 0 ? -k - 1 : k, domain - 1)];
+		}
+		return out;
+	}
+
+	/*
+	 * 范围[start, end]内的随机地址，按无符号数处理
+	 */
+	private static long inRange(long start, long end, Random r) {
+		long width = end - start + 1;
+		return width == 0 ? r.nextLong() : start + Long.remainderUnsigned(r.nextLong(), width);
+	}
+
+	/**
+	 * 按分布选择索引条目，再在条目的范围内随机取地址，返回地址的高64位。
+	 */
+	static long[] v6Keys(Ipdbv6 db, String distribution, int n) throws IOException {
+		Random r = new Random(SEED);
+		int[] pos = picks(distribution, n, db.getTotal(), r);
+		long[] keys = new long[n];
+		for (int i = 0; i < n; i++) {
+			keys[i] = inRange(db.getRangeStart(pos[i]), db.getRangeEnd(pos[i]), r);
+		}
+		return keys;
+	}
+
+	static int[] v4Keys(Ipdbv4 db, String distribution, int n) throws IOException {
+		Random r = new Random(SEED + 4);
+		int[] pos = picks(distribution, n, db.getTotal(), r);
+		int[] keys = new int[n];
+		for (int i = 0; i < n; i++) {
+			long start = db.getRangeStart(pos[i]) & 0xFFFFFFFFL;
+			long end = db.getRangeEnd(pos[i]) & 0xFFFFFFFFL;
+			keys[i] = (int)inRange(start, end, r);
+		}
+		return keys;
+	}
+
+	static String v6String(long hi, Random r) {
+		return IpAddress.formatV6(hi, r.nextLong(), new StringBuilder()).toString();
+	}
+
+	static String v4String(int ip) {
+		return IpAddress.formatV4(ip, new StringBuilder()).toString();
+	}
+
+}
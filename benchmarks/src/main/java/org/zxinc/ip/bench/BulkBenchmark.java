@@ -0,0 +1,140 @@
+package org.zxinc.ip.bench;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.zxinc.ip.BulkEnricher;
+import org.zxinc.ip.IpRecord;
+import org.zxinc.ip.Ipdbv4;
+import org.zxinc.ip.Ipdbv6;
+
+/**
+ * BulkEnricher批量查询随核数的扩展。每次操作查询BATCH个地址（IPv6和IPv4各一半），结果为每微秒的地址数。
+ * 直接运行main按1、2、4……直到CPU数的核数依次测量：
+ *
+ * <pre>
+ * java -cp target/benchmarks.jar org.zxinc.ip.bench.BulkBenchmark [db6]
+ * </pre>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class BulkBenchmark {
+	static final int BATCH = 1 << 16;
+
+	@Param("1")
+	public int cores;
+
+	@Param({"uniform", "zipf"})
+	public String distribution;
+
+	@Param({"mapped", "preload"})
+	public String mode;
+
+	@Param("")
+	public String db6;
+
+	@Param("")
+	public String db4;
+
+	private Ipdbv6 ipdb6;
+	private Ipdbv4 ipdb4;
+	private BulkEnricher enricher;
+	private List<String> strings;
+	private ForkJoinPool pool;
+	private ExecutorService executor;
+
+	@Setup(Level.Trial)
+	public void setup() throws IOException {
+		ipdb4 = new Ipdbv4(BenchData.v4File(db4), BenchData.options(mode));
+		ipdb6 = new Ipdbv6(BenchData.v6File(db6), ipdb4, BenchData.options(mode));
+		enricher = new BulkEnricher(ipdb6);
+		long[] keys6 = BenchData.v6Keys(ipdb6, distribution, BATCH / 2);
+		int[] keys4 = BenchData.v4Keys(ipdb4, distribution, BATCH / 2);
+		Random r = new Random(BenchData.SEED);
+		String[] a = new String[BATCH];
+		for (int i = 0; i < BATCH / 2; i++) {
+			a[2 * i] = BenchData.v6String(keys6[i], r);
+			a[2 * i + 1] = BenchData.v4String(keys4[i]);
+		}
+		strings = Arrays.asList(a);
+		pool = new ForkJoinPool(cores);
+		executor = Executors.newFixedThreadPool(cores);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		pool.shutdown();
+		executor.shutdown();
+		ipdb6.close();
+		ipdb4.close();
+	}
+
+	/**
+	 * 并行流在只有cores个线程的ForkJoinPool中执行。
+	 */
+	@Benchmark
+	@OperationsPerInvocation(BATCH)
+	public List<IpRecord> parallelStream() throws InterruptedException, ExecutionException {
+		// count()在大小已知时不执行查询，所以收集为列表，与executor()相同
+		return pool.submit(() -> enricher.enrich(strings.stream().parallel()).toList()).get();
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(BATCH)
+	public List<IpRecord> executor() throws IOException {
+		return enricher.enrich(strings, executor);
+	}
+
+	public static void main(String[] args) throws RunnerException {
+		int cpus = Runtime.getRuntime().availableProcessors();
+		List<Integer> counts = new ArrayList<>();
+		for (int t = 1; t < cpus; t <<= 1) {
+			counts.add(t);
+		}
+		counts.add(cpus);
+		for (int n : counts) {
+			OptionsBuilder builder = new OptionsBuilder();
+			builder.include(BulkBenchmark.class.getName() + "\\.")
+				.param("cores", String.valueOf(n))
+				.resultFormat(ResultFormatType.CSV)
+				.result("bulk-" + n + ".csv");
+			if (args.length > 0) {
+				builder.param("db6", args[0]);
+			}
+			Options options = builder.build();
+			new Runner(options).run();
+		}
+	}
+
+}
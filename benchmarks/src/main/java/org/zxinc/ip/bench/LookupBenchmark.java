@@ -0,0 +1,160 @@
+package org.zxinc.ip.bench;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.zxinc.ip.IpAddress;
+import org.zxinc.ip.IpRecord;
+import org.zxinc.ip.Ipdbv4;
+import org.zxinc.ip.Ipdbv6;
+import org.zxinc.ip.IpdbOptions;
+
+/**
+ * 单个地址的查询延迟。地址预先解析好，只测量查找和生成结果。
+ *
+ * <pre>
+ * java -jar target/benchmarks.jar LookupBenchmark -p mode=preload -p distribution=zipf
+ * java -jar target/benchmarks.jar LookupBenchmark -p mode=preload -p layout=SORTED,EYTZINGER,BTREE
+ * java -jar target/benchmarks.jar LookupBenchmark -p db4=qqwry.db
+ * </pre>
+ * 未指定db4时使用生成的IPv4数据库。layout只用于preload模式，file、mapped模式下的其他布局会在setup时报错，比较布局时请指定 -p mode=preload。
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class LookupBenchmark {
+	// 每种输入的地址数，取模用
+	static final int KEYS = 1 << 16;
+
+	@Param({"uniform", "zipf"})
+	public String distribution;
+
+	@Param({"file", "mapped", "preload"})
+	public String mode;
+
+	@Param({"SORTED", "EYTZINGER", "BTREE"})
+	public String layout;
+
+	@Param("")
+	public String db6;
+
+	@Param("")
+	public String db4;
+
+	private Ipdbv6 ipdb6;
+	private Ipdbv4 ipdb4;
+	private long[] keys6;
+	private int[] keys4;
+	private IpAddress[] addrs6;
+	private IpAddress[] addrs4;
+	private IpAddress[] mapped;
+	// 网络字节序的16字节地址连续存放，IPv4地址为映射地址
+	private byte[] packed6;
+	private byte[] packedMapped;
+
+	/**
+	 * 每个线程各自轮流取地址。
+	 */
+	@State(Scope.Thread)
+	public static class Cursor {
+		int i;
+
+		int next() {
+			return i = (i + 1) & (KEYS - 1);
+		}
+	}
+
+	@Setup(Level.Trial)
+	public void setup() throws IOException {
+		IpdbOptions options = BenchData.options(mode, layout);
+		ipdb4 = new Ipdbv4(BenchData.v4File(db4), options);
+		ipdb6 = new Ipdbv6(BenchData.v6File(db6), ipdb4, options);
+		keys6 = BenchData.v6Keys(ipdb6, distribution, KEYS);
+		keys4 = BenchData.v4Keys(ipdb4, distribution, KEYS);
+		Random r = new Random(BenchData.SEED);
+		addrs6 = new IpAddress[KEYS];
+		addrs4 = new IpAddress[KEYS];
+		mapped = new IpAddress[KEYS];
+		packed6 = new byte[KEYS * 16];
+		packedMapped = new byte[KEYS * 16];
+		for (int i = 0; i < KEYS; i++) {
+			addrs6[i] = new IpAddress(BenchData.v6String(keys6[i], r));
+			addrs4[i] = new IpAddress(BenchData.v4String(keys4[i]));
+			mapped[i] = new IpAddress("::ffff:" + BenchData.v4String(keys4[i]));
+			System.arraycopy(addrs6[i].getBytes(), 0, packed6, i * 16, 16);
+			packedMapped[i * 16 + 10] = (byte)0xFF;
+			packedMapped[i * 16 + 11] = (byte)0xFF;
+			System.arraycopy(addrs4[i].getBytes(), 0, packedMapped, i * 16 + 12, 4);
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		ipdb6.close();
+		ipdb4.close();
+	}
+
+	@Benchmark
+	public IpRecord queryV6(Cursor c) throws IOException {
+		return ipdb6.query(addrs6[c.next()]);
+	}
+
+	@Benchmark
+	public IpRecord queryV4(Cursor c) throws IOException {
+		return ipdb4.query(addrs4[c.next()]);
+	}
+
+	/**
+	 * ::ffff:a.b.c.d 经过Ipdbv6转到IPv4数据库查询。
+	 */
+	@Benchmark
+	public IpRecord queryMappedV4(Cursor c) throws IOException {
+		return ipdb6.query(mapped[c.next()]);
+	}
+
+	@Benchmark
+	public int lookupV6(Cursor c) throws IOException {
+		return ipdb6.lookup(keys6[c.next()], 0);
+	}
+
+	@Benchmark
+	public int lookupV4(Cursor c) throws IOException {
+		return ipdb4.lookup(keys4[c.next()]);
+	}
+
+	/**
+	 * 从字节数组中直接读取地址，不经过字符串和IpAddress。
+	 */
+	@Benchmark
+	public IpRecord queryV6Bytes(Cursor c) throws IOException {
+		return ipdb6.query(packed6, c.next() * 16, 16);
+	}
+
+	@Benchmark
+	public IpRecord queryMappedV4Bytes(Cursor c) throws IOException {
+		return ipdb6.query(packedMapped, c.next() * 16, 16);
+	}
+
+	@Benchmark
+	public int lookupV6Bytes(Cursor c) throws IOException {
+		return ipdb6.lookup(packed6, c.next() * 16);
+	}
+
+}
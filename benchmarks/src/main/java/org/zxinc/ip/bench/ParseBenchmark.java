@@ -0,0 +1,117 @@
+package org.zxinc.ip.bench;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.zxinc.ip.IpAddress;
+import org.zxinc.ip.IpRange;
+
+/**
+ * 解析地址字符串和构造IpRange，不读取数据库。
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ParseBenchmark {
+	static final int KEYS = 1 << 12;
+
+	private String[] v4;
+	private String[] v6;
+	private String[] mapped;
+	private String[] cidr;
+	private IpAddress[] starts;
+	private IpAddress[] ends;
+	// 开始和结束地址都不对齐的范围
+	private IpRange[] ranges;
+
+	@State(Scope.Thread)
+	public static class Cursor {
+		int i;
+		final long[] out = new long[2];
+
+		int next() {
+			return i = (i + 1) & (KEYS - 1);
+		}
+	}
+
+	@Setup
+	public void setup() {
+		Random r = new Random(BenchData.SEED);
+		v4 = new String[KEYS];
+		v6 = new String[KEYS];
+		mapped = new String[KEYS];
+		cidr = new String[KEYS];
+		starts = new IpAddress[KEYS];
+		ends = new IpAddress[KEYS];
+		ranges = new IpRange[KEYS];
+		for (int i = 0; i < KEYS; i++) {
+			long hi = r.nextLong();
+			v4[i] = BenchData.v4String(r.nextInt());
+			v6[i] = BenchData.v6String(hi, r);
+			mapped[i] = "::ffff:" + v4[i];
+			cidr[i] = IpAddress.formatV6(hi, 0, new StringBuilder()).append('/').append(32 + r.nextInt(33)).toString();
+			starts[i] = new IpAddress(IpAddress.formatV6(hi, 0, new StringBuilder()).toString());
+			ends[i] = new IpAddress(IpAddress.formatV6(hi, -1L, new StringBuilder()).toString());
+			long lo = r.nextLong() >>> 8;
+			ranges[i] = i % 2 == 0 ? IpRange.ofV6(hi, lo, hi, lo + (r.nextLong() >>> 16)) : IpRange.ofV4(r.nextInt() >>> 1, (r.nextInt() >>> 1) | 0x40000000);
+		}
+	}
+
+	@Benchmark
+	public IpAddress parseV4(Cursor c) {
+		return new IpAddress(v4[c.next()]);
+	}
+
+	@Benchmark
+	public IpAddress parseV6(Cursor c) {
+		return new IpAddress(v6[c.next()]);
+	}
+
+	@Benchmark
+	public IpAddress parseMappedV4(Cursor c) {
+		return new IpAddress(mapped[c.next()]);
+	}
+
+	/**
+	 * 不产生对象的解析。
+	 */
+	@Benchmark
+	public long parseV6Primitive(Cursor c) {
+		IpAddress.parse(v6[c.next()], c.out);
+		return c.out[0] ^ c.out[1];
+	}
+
+	@Benchmark
+	public IpRange rangeFromAddresses(Cursor c) {
+		int i = c.next();
+		return new IpRange(starts[i], ends[i]);
+	}
+
+	@Benchmark
+	public IpRange rangeFromCidr(Cursor c) {
+		return new IpRange(cidr[c.next()]);
+	}
+
+	/**
+	 * 把任意范围拆分为CIDR块，导出防火墙规则时的用法。
+	 */
+	@Benchmark
+	public List<String> rangeToCidrs(Cursor c) {
+		return ranges[c.next()].toCidrs();
+	}
+
+}
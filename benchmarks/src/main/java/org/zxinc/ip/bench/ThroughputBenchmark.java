@@ -0,0 +1,130 @@
+package org.zxinc.ip.bench;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.zxinc.ip.IpAddress;
+import org.zxinc.ip.IpRecord;
+import org.zxinc.ip.Ipdbv6;
+
+/**
+ * 多个线程共用一个数据库实例时的吞吐量，preload模式下比较各种索引布局。直接运行main按1、2、4……直到CPU数的线程数依次测量：
+ *
+ * <pre>
+ * java -cp target/benchmarks.jar org.zxinc.ip.bench.ThroughputBenchmark [db6]
+ * </pre>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ThroughputBenchmark {
+	@Param({"uniform", "zipf"})
+	public String distribution;
+
+	@Param({"mapped", "preload"})
+	public String mode;
+
+	// 只用于preload模式
+	@Param({"SORTED", "EYTZINGER", "BTREE"})
+	public String layout;
+
+	@Param("")
+	public String db6;
+
+	private Ipdbv6 ipdb6;
+	private IpAddress[] addrs;
+	private String[] strings;
+
+	@State(Scope.Thread)
+	public static class Cursor {
+		int i;
+
+		int next() {
+			return i = (i + 1) & (LookupBenchmark.KEYS - 1);
+		}
+	}
+
+	@Setup(Level.Trial)
+	public void setup() throws IOException {
+		ipdb6 = new Ipdbv6(BenchData.v6File(db6), BenchData.options(mode, layout));
+		long[] keys = BenchData.v6Keys(ipdb6, distribution, LookupBenchmark.KEYS);
+		Random r = new Random(BenchData.SEED);
+		addrs = new IpAddress[keys.length];
+		strings = new String[keys.length];
+		for (int i = 0; i < keys.length; i++) {
+			strings[i] = BenchData.v6String(keys[i], r);
+			addrs[i] = new IpAddress(strings[i]);
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		ipdb6.close();
+	}
+
+	@Benchmark
+	public IpRecord query(Cursor c) throws IOException {
+		return ipdb6.query(addrs[c.next()]);
+	}
+
+	/**
+	 * 包括解析地址字符串，接近处理日志时的用法。
+	 */
+	@Benchmark
+	public IpRecord parseAndQuery(Cursor c) throws IOException {
+		return ipdb6.query(strings[c.next()]);
+	}
+
+	public static void main(String[] args) throws RunnerException {
+		int cpus = Runtime.getRuntime().availableProcessors();
+		List<Integer> counts = new ArrayList<>();
+		for (int t = 1; t < cpus; t <<= 1) {
+			counts.add(t);
+		}
+		counts.add(cpus);
+		for (int threads : counts) {
+			// mapped模式只有SORTED布局，preload模式比较全部布局
+			for (String mode : new String[] {"mapped", "preload"}) {
+				OptionsBuilder builder = new OptionsBuilder();
+				builder.include(ThroughputBenchmark.class.getName() + "\\.")
+					.threads(threads)
+					.param("mode", mode)
+					.resultFormat(ResultFormatType.CSV)
+					.result("throughput-" + mode + "-" + threads + ".csv");
+				if (mode.equals("mapped")) {
+					builder.param("layout", "SORTED");
+				}
+				if (args.length > 0) {
+					builder.param("db6", args[0]);
+				}
+				Options options = builder.build();
+				new Runner(options).run();
+			}
+		}
+	}
+
+}
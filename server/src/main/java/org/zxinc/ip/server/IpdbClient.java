@@ -0,0 +1,232 @@
+package org.zxinc.ip.server;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.zxinc.ip.IpAddress;
+
+/**
+ * {@link IpdbServer} 的二进制协议客户端。一个连接可以由多个线程共用，
+ * 请求发出后不等待响应（流水线），由读线程按请求编号完成对应的Future。
+ *
+ * <pre>
+ * try (IpdbClient client = IpdbClient.connect("unix:/run/ipdb.sock")) {
+ *     IpdbClient.Result r = client.query("2001:da8::1");
+ * }
+ * </pre>
+ */
+public class IpdbClient implements Closeable {
+
+	/**
+	 * 一个地址的查询结果。
+	 */
+	public static final class Result {
+		private final String country;
+		private final String local;
+		private final String error;
+
+		Result(String country, String local, String error) {
+			this.country = country;
+			this.local = local;
+			this.error = error;
+		}
+
+		public boolean isOk() {
+			return error == null;
+		}
+
+		public String getCountry() {
+			return country;
+		}
+
+		public String getLocal() {
+			return local;
+		}
+
+		/**
+		 * 查询失败的原因，成功时为null。
+		 */
+		public String getError() {
+			return error;
+		}
+
+		@Override
+		public String toString() {
+			return error == null ? country + "\t" + local : "ERR " + error;
+		}
+	}
+
+	private final SocketChannel ch;
+	private final Thread reader;
+	private final Map<Integer, CompletableFuture<Result[]>> pending = new ConcurrentHashMap<>();
+	private final AtomicInteger nextId = new AtomicInteger();
+	private volatile IOException failure;
+
+	private IpdbClient(SocketChannel ch) {
+		this.ch = ch;
+		reader = new Thread(this::readLoop, "ipdb-client-reader");
+		reader.setDaemon(true);
+	}
+
+	/**
+	 * @param endpoint 格式见 {@link IpdbServer#address(String)}
+	 */
+	public static IpdbClient connect(String endpoint) throws IOException {
+		return connect(IpdbServer.address(endpoint));
+	}
+
+	public static IpdbClient connect(SocketAddress address) throws IOException {
+		SocketChannel ch = SocketChannel.open(address);
+		if (!(address instanceof UnixDomainSocketAddress)) {
+			ch.socket().setTcpNoDelay(true);
+		}
+		IpdbClient client = new IpdbClient(ch);
+		client.write(ByteBuffer.wrap(IpdbServer.MAGIC));
+		client.reader.start();
+		return client;
+	}
+
+	/**
+	 * 发出一个请求，不等待响应。无法解析的地址在结果中为错误，不影响其他地址。
+	 */
+	public CompletableFuture<Result[]> queryAsync(String... ips) {
+		if (ips.length > IpdbServer.MAX_ADDRESSES) {
+			throw new IllegalArgumentException("一次最多查询" + IpdbServer.MAX_ADDRESSES + "个地址: " + ips.length);
+		}
+		int id = nextId.getAndIncrement();
+		ByteBuffer req = ByteBuffer.allocate(10 + ips.length * 17);
+		req.putInt(0).putInt(id).putShort((short)ips.length);
+		for (String ip : ips) {
+			byte[] b;
+			try {
+				b = new IpAddress(ip).getBytes();
+			} catch (RuntimeException e) {
+				b = new byte[0];
+			}
+			req.put((byte)b.length).put(b);
+		}
+		req.putInt(0, req.position() - 4).flip();
+		if (req.limit() - 4 > IpdbServer.MAX_FRAME) {
+			throw new IllegalArgumentException("请求过大: " + req.limit());
+		}
+		CompletableFuture<Result[]> future = new CompletableFuture<>();
+		pending.put(id, future);
+		try {
+			write(req);
+			if (failure != null) {
+				// 读线程可能已经在put之前结束
+				fail(failure);
+			}
+		} catch (IOException e) {
+			pending.remove(id);
+			future.completeExceptionally(e);
+		}
+		return future;
+	}
+
+	public Result[] query(String... ips) throws IOException {
+		try {
+			return queryAsync(ips).join();
+		} catch (CompletionException e) {
+			throw e.getCause() instanceof IOException ? (IOException)e.getCause() : new IOException(e.getCause());
+		}
+	}
+
+	public Result query(String ip) throws IOException {
+		return query(new String[] {ip})[0];
+	}
+
+	private synchronized void write(ByteBuffer buf) throws IOException {
+		if (failure != null) {
+			throw failure;
+		}
+		while (buf.hasRemaining()) {
+			ch.write(buf);
+		}
+	}
+
+	private void readLoop() {
+		ByteBuffer head = ByteBuffer.allocate(4);
+		try {
+			for (;;) {
+				head.clear();
+				readFully(head);
+				int len = head.getInt(0);
+				if (len < 6 || len > Integer.MAX_VALUE - 4) {
+					throw new IOException("响应长度错误: " + len);
+				}
+				ByteBuffer body = ByteBuffer.allocate(len);
+				readFully(body);
+				body.flip();
+				int id = body.getInt();
+				Result[] results = new Result[body.getShort() & 0xFFFF];
+				for (int i = 0; i < results.length; i++) {
+					if (body.get() == 0) {
+						String country = string(body);
+						results[i] = new Result(country, string(body), null);
+					} else {
+						results[i] = new Result(null, null, string(body));
+					}
+				}
+				CompletableFuture<Result[]> future = pending.remove(id);
+				if (future != null) {
+					future.complete(results);
+				}
+			}
+		} catch (IOException | RuntimeException e) {
+			fail(e instanceof IOException ? (IOException)e : new IOException(e));
+		}
+	}
+
+	private void readFully(ByteBuffer buf) throws IOException {
+		while (buf.hasRemaining()) {
+			if (ch.read(buf) < 0) {
+				throw new EOFException("连接已关闭");
+			}
+		}
+	}
+
+	private static String string(ByteBuffer buf) {
+		int len = buf.getShort() & 0xFFFF;
+		String s = new String(buf.array(), buf.position(), len, StandardCharsets.UTF_8);
+		buf.position(buf.position() + len);
+		return s;
+	}
+
+	private void fail(IOException e) {
+		if (failure == null) {
+			failure = e;
+		}
+		for (Integer id : pending.keySet()) {
+			CompletableFuture<Result[]> future = pending.remove(id);
+			if (future != null) {
+				future.completeExceptionally(failure);
+			}
+		}
+	}
+
+	/**
+	 * 关闭连接，未完成的请求以异常结束。
+	 */
+	@Override
+	public void close() throws IOException {
+		ch.close();
+		try {
+			reader.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+}
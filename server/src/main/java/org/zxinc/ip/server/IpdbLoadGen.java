@@ -0,0 +1,171 @@
+package org.zxinc.ip.server;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.zxinc.ip.IpAddress;
+
+/**
+ * {@link IpdbServer} 的压力测试，随机IPv4/IPv6地址，每个连接同时有depth个请求未完成。
+ * 结束时输出每秒查询的地址数和请求延迟的分位数。
+ *
+ * <pre>
+ * java org.zxinc.ip.server.IpdbLoadGen unix:/run/ipdb.sock [-c 连接数] [-d 深度] [-b 每个请求的地址数] [-s 秒数]
+ * </pre>
+ */
+public class IpdbLoadGen {
+	static final int KEYS = 1 << 16;
+	// 每个连接最多记录的延迟个数
+	static final int MAX_SAMPLES = 1 << 22;
+
+	private final String[] ips = new String[KEYS];
+	private final AtomicLong addresses = new AtomicLong();
+	private final AtomicLong errors = new AtomicLong();
+
+	IpdbLoadGen() {
+		Random r = new Random(1);
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < KEYS; i++) {
+			sb.setLength(0);
+			if (i % 2 == 0) {
+				int v = r.nextInt();
+				sb.append(v >>> 24).append('.').append(v >>> 16 & 0xFF).append('.').append(v >>> 8 & 0xFF).append('.').append(v & 0xFF);
+			} else {
+				// 2000::/4 内的地址，大多能查到
+				IpAddress.formatV6(0x2000000000000000L | r.nextLong() >>> 4, r.nextLong(), sb);
+			}
+			ips[i] = sb.toString();
+		}
+	}
+
+	private final class Conn extends Thread {
+		final IpdbClient client;
+		final int depth;
+		final int batch;
+		final long[] latencies = new long[MAX_SAMPLES];
+		// 回调可能在读线程中执行，也可能在本线程中执行（请求已经完成时），用原子计数分配位置
+		final AtomicInteger next = new AtomicInteger();
+		volatile boolean stop;
+
+		Conn(IpdbClient client, int depth, int batch, int n) {
+			super("ipdb-loadgen-" + n);
+			this.client = client;
+			this.depth = depth;
+			this.batch = batch;
+		}
+
+		@Override
+		public void run() {
+			Semaphore inflight = new Semaphore(depth);
+			Random r = new Random(getName().hashCode());
+			String[] req = new String[batch];
+			try {
+				while (!stop) {
+					inflight.acquire();
+					for (int i = 0; i < batch; i++) {
+						req[i] = ips[r.nextInt(KEYS)];
+					}
+					long start = System.nanoTime();
+					client.queryAsync(req).whenComplete((results, e) -> {
+						long t = System.nanoTime() - start;
+						if (e != null) {
+							errors.addAndGet(batch);
+						} else {
+							addresses.addAndGet(results.length);
+							int i = next.getAndIncrement();
+							if (i < MAX_SAMPLES) {
+								latencies[i] = t;
+							}
+						}
+						inflight.release();
+					});
+				}
+				inflight.acquire(depth);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		int samples() {
+			return Math.min(next.get(), MAX_SAMPLES);
+		}
+	}
+
+	private static void usage() {
+		System.err.println("用法: java org.zxinc.ip.server.IpdbLoadGen unix:路径|tcp:端口 [-c 连接数] [-d 深度] [-b 每个请求的地址数] [-s 秒数]");
+		System.exit(2);
+	}
+
+	public static void main(String[] args) throws IOException, InterruptedException {
+		if (args.length == 0 || args.length % 2 == 0) {
+			usage();
+		}
+		String endpoint = args[0];
+		int conns = 4, depth = 16, batch = 1, secs = 10;
+		for (int i = 1; i < args.length; i += 2) {
+			int v = Integer.parseInt(args[i + 1]);
+			switch (args[i]) {
+			case "-c": conns = v; break;
+			case "-d": depth = v; break;
+			case "-b": batch = v; break;
+			case "-s": secs = v; break;
+			default: usage();
+			}
+		}
+
+		IpdbLoadGen gen = new IpdbLoadGen();
+		Conn[] threads = new Conn[conns];
+		for (int i = 0; i < conns; i++) {
+			threads[i] = gen.new Conn(IpdbClient.connect(endpoint), depth, batch, i);
+		}
+		// 预热1秒，不计入结果
+		for (Conn t : threads) {
+			t.start();
+		}
+		Thread.sleep(1000);
+		gen.addresses.set(0);
+		gen.errors.set(0);
+		int[] skip = new int[conns];
+		for (int i = 0; i < conns; i++) {
+			skip[i] = threads[i].samples();
+		}
+		long start = System.nanoTime();
+		Thread.sleep(secs * 1000L);
+		long n = gen.addresses.get();
+		long elapsed = System.nanoTime() - start;
+		for (Conn t : threads) {
+			t.stop = true;
+		}
+		for (Conn t : threads) {
+			t.join();
+			t.client.close();
+		}
+
+		int total = 0;
+		for (int i = 0; i < conns; i++) {
+			total += threads[i].samples() - skip[i];
+		}
+		long[] all = new long[total];
+		int k = 0;
+		for (int i = 0; i < conns; i++) {
+			int len = threads[i].samples() - skip[i];
+			System.arraycopy(threads[i].latencies, skip[i], all, k, len);
+			k += len;
+		}
+		Arrays.sort(all);
+		System.out.printf("连接 %d，深度 %d，每个请求 %d 个地址，%d 秒%n", conns, depth, batch, secs);
+		System.out.printf("%.0f 地址/秒，%.0f 请求/秒，错误 %d%n",
+			n * 1e9 / elapsed, n * 1e9 / elapsed / batch, gen.errors.get());
+		System.out.printf("延迟 p50 %.1f us，p99 %.1f us，p999 %.1f us%n",
+			percentile(all, 0.5) / 1e3, percentile(all, 0.99) / 1e3, percentile(all, 0.999) / 1e3);
+	}
+
+	private static long percentile(long[] sorted, double p) {
+		return sorted.length == 0 ? 0 : sorted[Math.min(sorted.length - 1, (int)(sorted.length * p))];
+	}
+
+}
@@ -0,0 +1,449 @@
+package org.zxinc.ip.server;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import org.zxinc.ip.IpAddress;
+import org.zxinc.ip.IpRecord;
+import org.zxinc.ip.IpdbHandle;
+import org.zxinc.ip.IpdbOptions;
+import org.zxinc.ip.Ipdbv6;
+
+/**
+ * 本机共享一个数据库实例的查询服务，监听Unix域套接字或回环地址的TCP端口，只依赖JDK。
+ * 每个工作线程用一个Selector处理多个连接，查询在工作线程中直接进行，数据库应当在内存中（映射文件并预加载）。
+ * 同一个连接可以连续发送多个请求而不等待响应（流水线），响应按请求的顺序返回。
+ * 数据库文件被替换后自动重新加载，见 {@link IpdbHandle}。
+ *
+ * <p>连接的前4个字节为 "ZXI\1" 时使用二进制协议，否则为文本协议。
+ * <p>文本协议：每行一个地址，响应为一行 "国家\t地区"，出错时为 "ERR 原因"。可以直接用 nc -U 测试。
+ * <p>二进制协议，整数为网络字节序：
+ * <pre>
+ * 请求  int32 长度（不含这4字节）, int32 请求编号, uint16 地址数, 每个地址为 uint8 长度（4、16，0表示客户端无法解析）+ 地址
+ * 响应  int32 长度（不含这4字节）, int32 请求编号, uint16 地址数, 每个地址为
+ *       uint8 0 + uint16 长度 + UTF-8国家 + uint16 长度 + UTF-8地区，或者出错时 uint8 1 + uint16 长度 + UTF-8原因
+ * </pre>
+ *
+ * <pre>
+ * java org.zxinc.ip.server.IpdbServer [-4 qqwry.db] [-t 线程数] ipv6wry.db unix:/run/ipdb.sock|tcp:端口
+ * </pre>
+ */
+public class IpdbServer implements Closeable {
+	static final byte[] MAGIC = {'Z', 'X', 'I', 1};
+	// 二进制请求的最大长度，超过时断开连接
+	static final int MAX_FRAME = 1 << 20;
+	static final int MAX_ADDRESSES = 0xFFFF;
+	// 文本协议一行的最大长度
+	static final int MAX_LINE = 256;
+	// 待发送的响应超过这个大小时暂停读取，等客户端读走
+	static final int HIGH_WATER = 1 << 20;
+
+	private static final int MODE_UNKNOWN = 0;
+	private static final int MODE_TEXT = 1;
+	private static final int MODE_BINARY = 2;
+
+	private final IpdbHandle<Ipdbv6> handle;
+	private final ServerSocketChannel server;
+	private final Path socketFile;
+	private final Worker[] workers;
+	private final Thread acceptor;
+	private volatile boolean closed = false;
+
+	private static final class Conn {
+		final SocketChannel ch;
+		ByteBuffer in = ByteBuffer.allocate(1 << 12);
+		ByteBuffer out = ByteBuffer.allocate(1 << 12);
+		int mode = MODE_UNKNOWN;
+		final long[] parsed = new long[2];
+
+		Conn(SocketChannel ch) {
+			this.ch = ch;
+		}
+
+		void ensureOut(int n) {
+			if (out.remaining() < n) {
+				ByteBuffer b = ByteBuffer.allocate(Math.max(out.capacity() * 2, out.position() + n));
+				out.flip();
+				b.put(out);
+				out = b;
+			}
+		}
+
+		/*
+		 * 在处理请求时调用，此时in处于读模式：只复制未读的部分，新缓冲区同样保持读模式，之后照常compact
+		 */
+		void ensureIn(int n) {
+			if (in.capacity() < n) {
+				ByteBuffer b = ByteBuffer.allocate(Math.max(in.capacity() * 2, n));
+				b.put(in);
+				b.flip();
+				in = b;
+			}
+		}
+	}
+
+	/**
+	 * @param handle 查询的数据库，关闭服务时不关闭
+	 * @param address Unix域套接字或TCP地址，见 {@link #address(String)}
+	 * @param threads 工作线程数
+	 */
+	public IpdbServer(IpdbHandle<Ipdbv6> handle, SocketAddress address, int threads) throws IOException {
+		if (threads < 1) {
+			throw new IllegalArgumentException("线程数必须大于0: " + threads);
+		}
+		this.handle = handle;
+		if (address instanceof UnixDomainSocketAddress) {
+			socketFile = ((UnixDomainSocketAddress)address).getPath();
+			// 上次异常退出时留下的套接字文件
+			Files.deleteIfExists(socketFile);
+			server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+		} else {
+			socketFile = null;
+			server = ServerSocketChannel.open();
+		}
+		server.bind(address);
+		workers = new Worker[threads];
+		for (int i = 0; i < threads; i++) {
+			workers[i] = new Worker(Selector.open(), "ipdb-server-" + i);
+		}
+		acceptor = new Thread(this::acceptLoop, "ipdb-server-accept");
+	}
+
+	/**
+	 * "unix:路径"、"tcp:端口"（回环地址）或 "tcp:主机:端口"。
+	 */
+	public static SocketAddress address(String spec) {
+		if (spec.startsWith("unix:")) {
+			return UnixDomainSocketAddress.of(spec.substring(5));
+		} else if (spec.startsWith("tcp:")) {
+			String hp = spec.substring(4);
+			int colon = hp.lastIndexOf(':');
+			if (colon < 0) {
+				return new InetSocketAddress(InetAddress.getLoopbackAddress(), Integer.parseInt(hp));
+			}
+			return new InetSocketAddress(hp.substring(0, colon), Integer.parseInt(hp.substring(colon + 1)));
+		}
+		throw new IllegalArgumentException("地址格式为 unix:路径 或 tcp:端口: " + spec);
+	}
+
+	public void start() {
+		for (Worker w : workers) {
+			w.start();
+		}
+		acceptor.start();
+	}
+
+	/**
+	 * 实际监听的地址，TCP端口为0时可以由此得到分配的端口。
+	 */
+	public SocketAddress getAddress() throws IOException {
+		return server.getLocalAddress();
+	}
+
+	private void acceptLoop() {
+		int next = 0;
+		while (!closed) {
+			try {
+				SocketChannel ch = server.accept();
+				ch.configureBlocking(false);
+				workers[next].add(ch);
+				next = (next + 1) % workers.length;
+			} catch (IOException e) {
+				// 关闭时accept抛出异常
+			}
+		}
+	}
+
+	private final class Worker extends Thread {
+		private final Selector selector;
+		private final ConcurrentLinkedQueue<SocketChannel> added = new ConcurrentLinkedQueue<>();
+
+		Worker(Selector selector, String name) {
+			super(name);
+			this.selector = selector;
+			setDaemon(true);
+		}
+
+		void add(SocketChannel ch) {
+			added.add(ch);
+			selector.wakeup();
+		}
+
+		@Override
+		public void run() {
+			try {
+				while (!closed) {
+					selector.select();
+					for (SocketChannel ch; (ch = added.poll()) != null; ) {
+						ch.register(selector, SelectionKey.OP_READ, new Conn(ch));
+					}
+					Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+					while (it.hasNext()) {
+						SelectionKey key = it.next();
+						it.remove();
+						try {
+							ready(key);
+						} catch (IOException | RuntimeException e) {
+							close(key);
+						}
+					}
+				}
+			} catch (IOException | ClosedSelectorException e) {
+				// 服务已关闭
+			}
+		}
+
+		private void ready(SelectionKey key) throws IOException {
+			Conn c = (Conn)key.attachment();
+			if (key.isReadable()) {
+				if (c.ch.read(c.in) < 0) {
+					close(key);
+					return;
+				}
+				c.in.flip();
+				boolean ok = process(c);
+				c.in.compact();
+				if (!ok) {
+					flush(c);
+					close(key);
+					return;
+				}
+			}
+			flush(c);
+			int ops = c.out.position() > 0 ? SelectionKey.OP_WRITE : 0;
+			if (c.out.position() < HIGH_WATER) {
+				ops |= SelectionKey.OP_READ;
+			}
+			key.interestOps(ops);
+		}
+
+		private void flush(Conn c) throws IOException {
+			if (c.out.position() > 0) {
+				c.out.flip();
+				c.ch.write(c.out);
+				c.out.compact();
+			}
+		}
+
+		private void close(SelectionKey key) {
+			key.cancel();
+			try {
+				key.channel().close();
+			} catch (IOException e) {
+				// 忽略
+			}
+		}
+	}
+
+	/*
+	 * 处理in中所有完整的请求，返回false时断开连接
+	 */
+	private boolean process(Conn c) throws IOException {
+		if (c.mode == MODE_UNKNOWN) {
+			if (!c.in.hasRemaining()) {
+				return true;
+			}
+			if (c.in.get(c.in.position()) != MAGIC[0]) {
+				c.mode = MODE_TEXT;
+			} else if (c.in.remaining() < MAGIC.length) {
+				return true;
+			} else {
+				c.mode = MODE_BINARY;
+				for (int i = 0; i < MAGIC.length; i++) {
+					if (c.in.get() != MAGIC[i]) {
+						return false;
+					}
+				}
+			}
+		}
+		try (IpdbHandle.Lease<Ipdbv6> lease = handle.acquire()) {
+			return c.mode == MODE_TEXT ? processText(c, lease.get()) : processBinary(c, lease.get());
+		}
+	}
+
+	private boolean processText(Conn c, Ipdbv6 db) {
+		ByteBuffer in = c.in;
+		byte[] b = in.array();
+		int start = in.position(), limit = in.limit();
+		for (int i = start; i < limit; i++) {
+			if (b[i] != '\n') {
+				continue;
+			}
+			int end = i > start && b[i - 1] == '\r' ? i - 1 : i;
+			if (end > start) {
+				String country, local;
+				try {
+					IpRecord rec = query(db, b, start, end, c.parsed);
+					country = rec.getCountry();
+					local = rec.getLocal();
+				} catch (IOException | RuntimeException e) {
+					country = null;
+					local = String.valueOf(e.getMessage());
+				}
+				byte[] cb = country != null ? country.getBytes(StandardCharsets.UTF_8) : "ERR ".getBytes(StandardCharsets.US_ASCII);
+				byte[] lb = local.getBytes(StandardCharsets.UTF_8);
+				c.ensureOut(cb.length + lb.length + 2);
+				c.out.put(cb);
+				if (country != null) {
+					c.out.put((byte)'\t');
+				}
+				c.out.put(lb).put((byte)'\n');
+			}
+			start = i + 1;
+		}
+		in.position(start);
+		return in.remaining() <= MAX_LINE;
+	}
+
+	private static IpRecord query(Ipdbv6 db, byte[] b, int start, int end, long[] out) throws IOException {
+		int family = IpAddress.parse(b, start, end, out);
+		if (family == 4) {
+			return db.query((int)out[0]);
+		} else if (family == 6) {
+			return db.query(out[0], out[1]);
+		}
+		throw new IllegalArgumentException("非法IP地址");
+	}
+
+	private boolean processBinary(Conn c, Ipdbv6 db) {
+		ByteBuffer in = c.in;
+		while (in.remaining() >= 4) {
+			int len = in.getInt(in.position());
+			if (len < 6 || len > MAX_FRAME) {
+				return false;
+			}
+			if (in.remaining() < 4 + len) {
+				// 等待整个请求，缓冲区不够时扩大
+				c.ensureIn(4 + len);
+				return true;
+			}
+			int frameEnd = in.position() + 4 + len;
+			in.position(in.position() + 4);
+			int id = in.getInt();
+			int count = in.getShort() & 0xFFFF;
+			c.ensureOut(10);
+			int lenAt = c.out.position();
+			c.out.putInt(0).putInt(id).putShort((short)count);
+			for (int k = 0; k < count; k++) {
+				// 请求格式错误时丢弃已经写入的部分响应，不发出残缺的帧
+				if (in.position() >= frameEnd) {
+					c.out.position(lenAt);
+					return false;
+				}
+				int alen = in.get() & 0xFF;
+				if (in.position() + alen > frameEnd) {
+					c.out.position(lenAt);
+					return false;
+				}
+				String country, local;
+				try {
+					if (alen == 0) {
+						throw new IllegalArgumentException("非法IP地址");
+					}
+					IpRecord rec = db.query(in, in.position(), alen);
+					country = rec.getCountry();
+					local = rec.getLocal();
+				} catch (IOException | RuntimeException e) {
+					country = null;
+					local = String.valueOf(e.getMessage());
+				}
+				in.position(in.position() + alen);
+				if (country != null) {
+					byte[] cb = country.getBytes(StandardCharsets.UTF_8);
+					byte[] lb = local.getBytes(StandardCharsets.UTF_8);
+					c.ensureOut(5 + cb.length + lb.length);
+					c.out.put((byte)0).putShort((short)cb.length).put(cb).putShort((short)lb.length).put(lb);
+				} else {
+					byte[] eb = local.getBytes(StandardCharsets.UTF_8);
+					c.ensureOut(3 + eb.length);
+					c.out.put((byte)1).putShort((short)eb.length).put(eb);
+				}
+			}
+			c.out.putInt(lenAt, c.out.position() - lenAt - 4);
+			in.position(frameEnd);
+		}
+		return true;
+	}
+
+	/**
+	 * 停止接受连接并断开所有连接，不关闭数据库。
+	 */
+	@Override
+	public void close() throws IOException {
+		closed = true;
+		server.close();
+		for (Worker w : workers) {
+			w.selector.close();
+		}
+		if (socketFile != null) {
+			Files.deleteIfExists(socketFile);
+		}
+	}
+
+	private static void usage() {
+		System.err.println("用法: java org.zxinc.ip.server.IpdbServer [-4 IPv4数据库] [-t 线程数] IPv6数据库 unix:路径|tcp:端口");
+		System.exit(2);
+	}
+
+	public static void main(String[] args) throws IOException {
+		String db4file = null, db6file = null, listen = null;
+		int threads = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+		for (int i = 0; i < args.length; i++) {
+			String a = args[i];
+			if (a.equals("-4") || a.equals("-t")) {
+				if (i + 1 >= args.length) {
+					usage();
+				}
+				String v = args[++i];
+				if (a.equals("-4")) {
+					db4file = v;
+				} else {
+					threads = Integer.parseInt(v);
+				}
+			} else if (db6file == null) {
+				db6file = a;
+			} else if (listen == null) {
+				listen = a;
+			} else {
+				usage();
+			}
+		}
+		if (listen == null) {
+			usage();
+		}
+		IpdbOptions options = new IpdbOptions()
+			.setMapped(true)
+			.setPreload(true)
+			.setLocationCache(IpdbOptions.LocationCache.EAGER);
+		IpdbHandle<Ipdbv6> handle = IpdbHandle.ofV6(db6file, db4file, options);
+		handle.watch();
+		IpdbServer server = new IpdbServer(handle, address(listen), threads);
+		server.start();
+		System.err.printf("%s 监听 %s，%d 个线程%n", handle.getVersion(), server.getAddress(), threads);
+		Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+			try {
+				server.close();
+				handle.close();
+			} catch (IOException e) {
+				// 退出时忽略
+			}
+		}));
+	}
+
+}
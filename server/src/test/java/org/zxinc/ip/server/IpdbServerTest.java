@@ -0,0 +1,134 @@
+package org.zxinc.ip.server;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.zxinc.ip.IpAddress;
+import org.zxinc.ip.IpRecord;
+import org.zxinc.ip.IpdbHandle;
+import org.zxinc.ip.Ipdbv6;
+
+class IpdbServerTest {
+	static Ipdbv6 db;
+	static IpdbHandle<Ipdbv6> handle;
+	static IpdbServer server;
+
+	@BeforeAll
+	static void start() throws IOException {
+		handle = new IpdbHandle<>(() -> Ipdbv6.fromResource("ipv6wry.db"));
+		db = Ipdbv6.fromResource("ipv6wry.db");
+		server = new IpdbServer(handle, IpdbServer.address("tcp:0"), 2);
+		server.start();
+	}
+
+	@AfterAll
+	static void stop() throws IOException {
+		server.close();
+		handle.close();
+		db.close();
+	}
+
+	private static String[] addresses(Random r, int n) {
+		String[] ips = new String[n];
+		for (int i = 0; i < n; i++) {
+			switch (r.nextInt(10)) {
+			case 0:
+				ips[i] = IpAddress.formatV4(r.nextInt(), new StringBuilder()).toString();
+				break;
+			case 1:
+				ips[i] = "bad" + i;
+				break;
+			default:
+				ips[i] = IpAddress.formatV6(0x2000000000000000L | r.nextLong() >>> 4, r.nextLong(), new StringBuilder()).toString();
+			}
+		}
+		return ips;
+	}
+
+	private static void check(String[] ips, IpdbClient.Result[] results) throws IOException {
+		assertEquals(ips.length, results.length);
+		for (int i = 0; i < ips.length; i++) {
+			String expected;
+			try {
+				IpRecord rec = db.query(ips[i]);
+				expected = rec.getCountry() + "\t" + rec.getLocal();
+			} catch (IllegalArgumentException e) {
+				expected = "ERR";
+			}
+			String actual = results[i].isOk() ? results[i].toString() : "ERR";
+			assertEquals(expected, actual, ips[i]);
+		}
+	}
+
+	@Test
+	void largeFrame() throws IOException {
+		// 每个IPv6地址17字节，请求远大于4KiB的初始缓冲区
+		String[] ips = addresses(new Random(1), 2000);
+		try (IpdbClient client = IpdbClient.connect(server.getAddress())) {
+			check(ips, client.query(ips));
+			// 缓冲区扩大后继续使用
+			check(ips, client.query(ips));
+		}
+	}
+
+	@Test
+	void pipelinedMixedSizes() throws IOException {
+		Random r = new Random(2);
+		List<String[]> requests = new ArrayList<>();
+		List<CompletableFuture<IpdbClient.Result[]>> futures = new ArrayList<>();
+		try (IpdbClient client = IpdbClient.connect(server.getAddress())) {
+			for (int i = 0; i < 60; i++) {
+				String[] ips = addresses(r, i % 3 == 0 ? 300 + r.nextInt(3000) : 1 + r.nextInt(20));
+				requests.add(ips);
+				futures.add(client.queryAsync(ips));
+			}
+			for (int i = 0; i < requests.size(); i++) {
+				check(requests.get(i), futures.get(i).join());
+			}
+		}
+	}
+
+	@Test
+	void malformedFrameSendsNoPartialResponse() throws IOException {
+		byte[] ip = InetAddress.getByName("2001:db8::1").getAddress();
+		ByteBuffer req = ByteBuffer.allocate(64);
+		req.put(IpdbServer.MAGIC);
+		// 正常的请求
+		req.putInt(4 + 2 + 1 + 16).putInt(1).putShort((short)1).put((byte)16).put(ip);
+		// 声明两个地址，实际只有一个
+		req.putInt(4 + 2 + 1 + 16).putInt(2).putShort((short)2).put((byte)16).put(ip);
+		req.flip();
+		ByteArrayOutputStream received = new ByteArrayOutputStream();
+		try (SocketChannel ch = SocketChannel.open(server.getAddress())) {
+			while (req.hasRemaining()) {
+				ch.write(req);
+			}
+			ByteBuffer buf = ByteBuffer.allocate(4096);
+			while (ch.read(buf) >= 0) {
+				received.write(buf.array(), 0, buf.position());
+				buf.clear();
+			}
+		}
+		// 只有第一个请求的完整响应，之后连接被关闭
+		ByteBuffer resp = ByteBuffer.wrap(received.toByteArray());
+		assertTrue(resp.remaining() > 10);
+		assertEquals(resp.remaining() - 4, resp.getInt());
+		assertEquals(1, resp.getInt());
+		assertEquals(1, resp.getShort());
+		assertEquals(0, resp.get());
+	}
+
+}
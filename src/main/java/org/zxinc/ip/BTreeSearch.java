@@ -0,0 +1,66 @@
+package org.zxinc.ip;
+
+import java.util.Arrays;
+
+/**
+ * 静态B树布局：每个节点B个键，正好占一条64字节的缓存行，节点k的第i个子节点为 k*(B+1)+i+1。
+ * 节点内用无分支的计数代替比较，每层只访问一条缓存行，层数约为二分查找的1/3。
+ */
+final class BTreeSearch extends KeySearch {
+	private static final int B = 8;
+
+	// 节点k的键为keys[k*B .. k*B+B)，不足的位置填最大值
+	private final long[] keys;
+	// 每个键在有序数组中的位置，填充的位置为n
+	private final int[] pos;
+	private final int n;
+	private final int nblocks;
+	private int next;
+
+	BTreeSearch(long[] sorted) {
+		n = sorted.length;
+		nblocks = (n + B - 1) / B;
+		keys = new long[nblocks * B];
+		pos = new int[nblocks * B];
+		Arrays.fill(keys, Long.MAX_VALUE);
+		Arrays.fill(pos, n);
+		build(sorted, 0);
+	}
+
+	private static int child(int k, int i) {
+		return k * (B + 1) + i + 1;
+	}
+
+	private void build(long[] sorted, int k) {
+		if (k < nblocks) {
+			for (int i = 0; i < B; i++) {
+				build(sorted, child(k, i));
+				if (next < n) {
+					keys[k * B + i] = sorted[next];
+					pos[k * B + i] = next++;
+				}
+			}
+			build(sorted, child(k, B));
+		}
+	}
+
+	@Override
+	int find(long key) {
+		long[] t = keys;
+		int upper = n;
+		int k = 0;
+		while (k < nblocks) {
+			int base = k * B;
+			int i = 0;
+			for (int j = 0; j < B; j++) {
+				i += t[base + j] <= key ? 1 : 0;
+			}
+			if (i < B) {
+				upper = pos[base + i];
+			}
+			k = child(k, i);
+		}
+		return upper > 0 ? Math.min(upper, n) - 1 : 0;
+	}
+
+}
@@ -0,0 +1,89 @@
+package org.zxinc.ip;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * 基于ByteBuffer的读取，用于内存映射文件。
+ * 映射后的页面由操作系统的页缓存提供，同一台机器上的多个JVM共享同一份物理内存。
+ */
+class BufferStorage extends IpdbStorage {
+	private final ByteBuffer buf;
+
+	BufferStorage(ByteBuffer buf) {
+		this.buf = buf.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	static BufferStorage map(Path path) throws IOException {
+		try (FileChannel ch = FileChannel.open(path, StandardOpenOption.READ)) {
+			long size = ch.size();
+			if (size > Integer.MAX_VALUE) {
+				throw new IOException(path + " is too large to be mapped");
+			}
+			return new BufferStorage(ch.map(FileChannel.MapMode.READ_ONLY, 0, size));
+		}
+	}
+
+	@Override
+	long size() {
+		return buf.limit();
+	}
+
+	private int checkIndex(long offset, int size) throws IOException {
+		if (offset < 0 || offset + size > buf.limit()) {
+			throw new EOFException();
+		}
+		return (int)offset;
+	}
+
+	@Override
+	int read1(long offset) throws IOException {
+		return buf.get(checkIndex(offset, 1)) & 0xFF;
+	}
+
+	@Override
+	byte[] readRaw(byte[] b, long offset, int size) throws IOException {
+		buf.get(checkIndex(offset, size), b, 0, size);
+		return b;
+	}
+
+	@Override
+	long read8(long offset, int size) throws IOException {
+		int pos = checkIndex(offset, size);
+		if (size == 8) {
+			return buf.getLong(pos);
+		}
+		long v = 0;
+		for (int i = size - 1; i >= 0; i--) {
+			v = (v << 8) | (buf.get(pos + i) & 0xFF);
+		}
+		return v;
+	}
+
+	@Override
+	byte[] readStr(long offset) throws IOException {
+		int start = checkIndex(offset, 0);
+		int end = start;
+		int limit = buf.limit();
+		while (end < limit && buf.get(end) != 0) {
+			end++;
+		}
+		if (end == limit) {
+			throw new EOFException();
+		}
+		byte[] b = new byte[end - start];
+		buf.get(start, b, 0, b.length);
+		return b;
+	}
+
+	@Override
+	public void close() {
+		// 映射区域在缓冲区被回收时释放
+	}
+
+}
@@ -0,0 +1,223 @@
+package org.zxinc.ip;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * 批量查询大量IP地址，结果与逐个调用query相同。
+ * 地址按块处理，每块先解析再调用lookupBatch，块的大小使临时数组能放进缓存。
+ * 同一个数据库实例可以被多个线程同时使用，enrich返回的流可以并行执行。
+ */
+public class BulkEnricher {
+	// 每块的地址数，也是并行流拆分的最小粒度
+	static final int CHUNK = 1024;
+
+	private final Ipdbv6 db6;
+	private final Ipdbv4 db4;
+
+	/**
+	 * IPv4地址使用db6关联的IPv4数据库查询。
+	 */
+	public BulkEnricher(Ipdbv6 db6) {
+		this.db6 = db6;
+		this.db4 = db6.getDbv4();
+	}
+
+	public BulkEnricher(Ipdbv4 db4) {
+		this.db6 = null;
+		this.db4 = db4;
+	}
+
+	/**
+	 * 逐个查询ips中的地址，顺序与输入相同。输入为并行流时结果也是并行流。
+	 * 非法地址抛出IllegalArgumentException，读取数据库出错抛出UncheckedIOException。
+	 */
+	public Stream<IpRecord> enrich(Stream<? extends CharSequence> ips) {
+		ChunkSpliterator sp = new ChunkSpliterator(ips.spliterator());
+		return StreamSupport.stream(sp, ips.isParallel()).onClose(ips::close);
+	}
+
+	/**
+	 * 把ips按块提交给executor执行，返回与输入顺序相同的结果。
+	 * 适合查询与其他I/O混合、希望使用自己的线程池的场景。
+	 */
+	public List<IpRecord> enrich(List<? extends CharSequence> ips, ExecutorService executor) throws IOException {
+		int n = ips.size();
+		List<Future<IpRecord[]>> futures = new ArrayList<>((n + CHUNK - 1) / CHUNK);
+		for (int from = 0; from < n; from += CHUNK) {
+			List<? extends CharSequence> chunk = ips.subList(from, Math.min(from + CHUNK, n));
+			futures.add(executor.submit(() -> {
+				IpRecord[] out = new IpRecord[chunk.size()];
+				enrich(chunk.toArray(new CharSequence[0]), out, chunk.size());
+				return out;
+			}));
+		}
+		List<IpRecord> result = new ArrayList<>(n);
+		try {
+			for (Future<IpRecord[]> f : futures) {
+				result.addAll(Arrays.asList(f.get()));
+			}
+		} catch (InterruptedException e) {
+			futures.forEach(f -> f.cancel(true));
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException();
+		} catch (ExecutionException e) {
+			futures.forEach(f -> f.cancel(true));
+			Throwable cause = e.getCause();
+			if (cause instanceof IOException) {
+				throw (IOException)cause;
+			} else if (cause instanceof RuntimeException) {
+				throw (RuntimeException)cause;
+			} else if (cause instanceof Error) {
+				throw (Error)cause;
+			}
+			throw new IOException(cause);
+		}
+		return result;
+	}
+
+	/**
+	 * 查询ips[0..n)，结果写入out[0..n)。
+	 */
+	void enrich(CharSequence[] ips, IpRecord[] out, int n) throws IOException {
+		IpAddress[] addrs = new IpAddress[n];
+		long[] keys6 = new long[n];
+		int[] keys4 = new int[n];
+		int n6 = 0, n4 = 0;
+		for (int i = 0; i < n; i++) {
+			IpAddress ip = new IpAddress(ips[i]);
+			addrs[i] = ip;
+			if (ip.isIpv6() && db6 != null) {
+				keys6[n6++] = ip.highBits();
+			} else if (ip.isIpv4() && db4 != null) {
+				keys4[n4++] = ip.intValue();
+			}
+		}
+		int[] pos6 = new int[n6];
+		int[] pos4 = new int[n4];
+		if (n6 > 0) {
+			db6.lookupBatch(keys6, pos6, n6);
+		}
+		if (n4 > 0) {
+			db4.lookupBatch(keys4, pos4, n4);
+		}
+		for (int i = 0, k6 = 0, k4 = 0; i < n; i++) {
+			IpAddress ip = addrs[i];
+			if (ip.isIpv6() && db6 != null) {
+				out[i] = db6.record(ip, pos6[k6++]);
+			} else if (ip.isIpv4() && db4 != null) {
+				out[i] = db4.record(ip, pos4[k4++]);
+			} else {
+				// 非法地址或没有对应的数据库，与query的处理相同
+				out[i] = db6 != null ? db6.query(ip) : db4.query(ip);
+			}
+		}
+	}
+
+	/*
+	 * 每次从源中取出一块地址批量查询，拆分时不产生小于一块的任务。
+	 */
+	private final class ChunkSpliterator implements Spliterator<IpRecord> {
+		private final Spliterator<? extends CharSequence> source;
+		private final CharSequence[] ips = new CharSequence[CHUNK];
+		private final IpRecord[] records = new IpRecord[CHUNK];
+		private int count;
+		private int next;
+		private int filled;
+
+		ChunkSpliterator(Spliterator<? extends CharSequence> source) {
+			this.source = source;
+		}
+
+		private boolean fill() {
+			filled = 0;
+			while (filled < CHUNK && source.tryAdvance(this::add)) {
+				// 读取一块
+			}
+			if (filled == 0) {
+				return false;
+			}
+			try {
+				enrich(ips, records, filled);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+			Arrays.fill(ips, 0, filled, null);
+			count = filled;
+			next = 0;
+			return true;
+		}
+
+		private void add(CharSequence ip) {
+			ips[filled++] = ip;
+		}
+
+		@Override
+		public boolean tryAdvance(Consumer<? super IpRecord> action) {
+			if (next == count && !fill()) {
+				return false;
+			}
+			IpRecord rec = records[next];
+			records[next++] = null;
+			action.accept(rec);
+			return true;
+		}
+
+		@Override
+		public void forEachRemaining(Consumer<? super IpRecord> action) {
+			do {
+				while (next < count) {
+					IpRecord rec = records[next];
+					records[next++] = null;
+					action.accept(rec);
+				}
+			} while (fill());
+		}
+
+		@Override
+		public Spliterator<IpRecord> trySplit() {
+			if (next < count || source.estimateSize() <= CHUNK) {
+				return null;
+			}
+			Spliterator<? extends CharSequence> prefix = source.trySplit();
+			if (prefix == null) {
+				// 源不能拆分时，取出一块作为新的任务
+				filled = 0;
+				while (filled < CHUNK && source.tryAdvance(this::add)) {
+					// 读取一块
+				}
+				if (filled == 0) {
+					return null;
+				}
+				CharSequence[] chunk = Arrays.copyOf(ips, filled);
+				Arrays.fill(ips, 0, filled, null);
+				prefix = Spliterators.spliterator(chunk, Spliterator.ORDERED);
+			}
+			return new ChunkSpliterator(prefix);
+		}
+
+		@Override
+		public long estimateSize() {
+			long size = source.estimateSize();
+			return size == Long.MAX_VALUE ? size : size + (count - next);
+		}
+
+		@Override
+		public int characteristics() {
+			return source.characteristics() & (ORDERED | SIZED | SUBSIZED) | NONNULL;
+		}
+	}
+
+}
@@ -0,0 +1,74 @@
+package org.zxinc.ip;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 统计读取字节数的包装，只在启用统计时使用。
+ */
+final class CountingStorage extends IpdbStorage {
+	private final IpdbStorage storage;
+	private final LongAdder bytes;
+
+	CountingStorage(IpdbStorage storage, LongAdder bytes) {
+		this.storage = storage;
+		this.bytes = bytes;
+	}
+
+	@Override
+	long size() {
+		return storage.size();
+	}
+
+	@Override
+	boolean isResident() {
+		return storage.isResident();
+	}
+
+	@Override
+	int read1(long offset) throws IOException {
+		bytes.increment();
+		return storage.read1(offset);
+	}
+
+	@Override
+	byte[] readRaw(byte[] b, long offset, int size) throws IOException {
+		bytes.add(size);
+		return storage.readRaw(b, offset, size);
+	}
+
+	@Override
+	long read8(long offset, int size) throws IOException {
+		bytes.add(size);
+		return storage.read8(offset, size);
+	}
+
+	@Override
+	byte[] readStr(long offset) throws IOException {
+		byte[] b = storage.readStr(offset);
+		bytes.add(b.length + 1);
+		return b;
+	}
+
+	@Override
+	CompletableFuture<ByteBuffer> readAsync(long offset, int size) {
+		bytes.add(size);
+		return storage.readAsync(offset, size);
+	}
+
+	@Override
+	CompletableFuture<byte[]> readStrAsync(long offset) {
+		return storage.readStrAsync(offset).thenApply(b -> {
+			bytes.add(b.length + 1);
+			return b;
+		});
+	}
+
+	@Override
+	public void close() throws IOException {
+		storage.close();
+	}
+
+}
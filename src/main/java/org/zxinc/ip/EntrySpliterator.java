@@ -0,0 +1,70 @@
+package org.zxinc.ip;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+
+/**
+ * 按索引位置遍历[from, to)范围内的条目，每次只解码当前条目，可以对半拆分后并行处理。
+ */
+final class EntrySpliterator implements Spliterator<IpRecord> {
+	// 拆分后每段的最少条数
+	private static final int MIN_SPLIT = 1024;
+
+	private final Ipdb db;
+	private int pos;
+	private final int end;
+
+	EntrySpliterator(Ipdb db, int from, int to) {
+		this.db = db;
+		this.pos = from;
+		this.end = to;
+	}
+
+	@Override
+	public boolean tryAdvance(Consumer<? super IpRecord> action) {
+		if (pos >= end) {
+			return false;
+		}
+		action.accept(entry(pos++));
+		return true;
+	}
+
+	@Override
+	public void forEachRemaining(Consumer<? super IpRecord> action) {
+		while (pos < end) {
+			action.accept(entry(pos++));
+		}
+	}
+
+	private IpRecord entry(int p) {
+		try {
+			return db.entry(p);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	@Override
+	public Spliterator<IpRecord> trySplit() {
+		if (end - pos < MIN_SPLIT * 2) {
+			return null;
+		}
+		int mid = (pos + end) >>> 1;
+		Spliterator<IpRecord> prefix = new EntrySpliterator(db, pos, mid);
+		pos = mid;
+		return prefix;
+	}
+
+	@Override
+	public long estimateSize() {
+		return end - pos;
+	}
+
+	@Override
+	public int characteristics() {
+		return ORDERED | SIZED | SUBSIZED | NONNULL | IMMUTABLE;
+	}
+
+}
@@ -0,0 +1,43 @@
+package org.zxinc.ip;
+
+/**
+ * Eytzinger布局：把有序数组按二叉树的广度优先顺序存放，节点k的子节点为2k和2k+1。
+ * 前几层集中在数组开头，总是留在缓存中；每一步只由一次比较决定下标，没有分支。
+ */
+final class EytzingerSearch extends KeySearch {
+	// keys[1..n]为Eytzinger顺序的键，pos[k]为keys[k]在有序数组中的位置
+	private final long[] keys;
+	private final int[] pos;
+	private final int n;
+	private int next;
+
+	EytzingerSearch(long[] sorted) {
+		n = sorted.length;
+		keys = new long[n + 1];
+		pos = new int[n + 1];
+		build(sorted, 1);
+	}
+
+	private void build(long[] sorted, int k) {
+		if (k <= n) {
+			build(sorted, 2 * k);
+			keys[k] = sorted[next];
+			pos[k] = next++;
+			build(sorted, 2 * k + 1);
+		}
+	}
+
+	@Override
+	int find(long key) {
+		long[] t = keys;
+		int k = 1;
+		while (k <= n) {
+			k = 2 * k + (t[k] <= key ? 1 : 0);
+		}
+		// 去掉最后一串向右走的步骤，得到第一个大于key的节点
+		k >>>= Integer.numberOfTrailingZeros(~k) + 1;
+		int upper = k == 0 ? n : pos[k];
+		return upper > 0 ? upper - 1 : 0;
+	}
+
+}
@@ -0,0 +1,232 @@
+package org.zxinc.ip;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.CompletionHandler;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * 直接读取文件，每次读取都是一次系统调用。
+ * 使用带位置的读取，不修改文件指针，可以被多个线程同时使用。
+ * 异步读取使用另外打开的AsynchronousFileChannel，第一次异步读取时打开。
+ */
+class FileStorage extends IpdbStorage {
+	private static final int STR_CHUNK = 64;
+
+	private final Path path;
+	private volatile FileChannel channel;
+	private volatile AsynchronousFileChannel asyncChannel;
+	private volatile boolean closed = false;
+
+	FileStorage(Path path) throws IOException {
+		this.path = path;
+		channel = FileChannel.open(path, StandardOpenOption.READ);
+	}
+
+	@Override
+	long size() {
+		try {
+			return channel.size();
+		} catch (IOException e) {
+			return 0;
+		}
+	}
+
+	/**
+	 * 尽量填满dst，遇到文件末尾时提前返回，返回实际读取的字节数。
+	 */
+	private int readAt(ByteBuffer dst, long offset) throws IOException {
+		int start = dst.position();
+		while (dst.hasRemaining()) {
+			int n;
+			try {
+				n = channel.read(dst, offset + dst.position() - start);
+			} catch (ClosedChannelException e) {
+				// 其他线程被中断时通道会被关闭，重新打开后重试
+				if (e instanceof ClosedByInterruptException || closed) {
+					throw e;
+				}
+				reopen();
+				continue;
+			}
+			if (n < 0) {
+				break;
+			}
+		}
+		return dst.position() - start;
+	}
+
+	private synchronized void reopen() throws IOException {
+		if (!channel.isOpen() && !closed) {
+			channel = FileChannel.open(path, StandardOpenOption.READ);
+		}
+	}
+
+	@Override
+	boolean isResident() {
+		return false;
+	}
+
+	@Override
+	int read1(long offset) throws IOException {
+		byte[] b = new byte[1];
+		readRaw(b, offset, 1);
+		return b[0] & 0xFF;
+	}
+
+	@Override
+	byte[] readRaw(byte[] b, long offset, int size) throws IOException {
+		if (readAt(ByteBuffer.wrap(b, 0, size), offset) < size) {
+			throw new EOFException();
+		}
+		return b;
+	}
+
+	@Override
+	long read8(long offset, int size) throws IOException {
+		byte[] b = new byte[8];
+		readRaw(b, offset, size);
+		return ByteBuffer.wrap(b).order(ByteOrder.LITTLE_ENDIAN).getLong();
+	}
+
+	@Override
+	byte[] readStr(long offset) throws IOException {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		byte[] b = new byte[STR_CHUNK];
+		while (true) {
+			int n = readAt(ByteBuffer.wrap(b), offset);
+			for (int i = 0; i < n; i++) {
+				if (b[i] == 0) {
+					baos.write(b, 0, i);
+					return baos.toByteArray();
+				}
+			}
+			if (n < STR_CHUNK) {
+				throw new EOFException();
+			}
+			baos.write(b, 0, n);
+			offset += n;
+		}
+	}
+
+	private AsynchronousFileChannel asyncChannel() throws IOException {
+		AsynchronousFileChannel ch = asyncChannel;
+		if (ch == null) {
+			synchronized (this) {
+				ch = asyncChannel;
+				if (ch == null) {
+					if (closed) {
+						throw new ClosedChannelException();
+					}
+					ch = AsynchronousFileChannel.open(path, StandardOpenOption.READ);
+					asyncChannel = ch;
+				}
+			}
+		}
+		return ch;
+	}
+
+	/*
+	 * 读满dst或到文件末尾后结束，exact时不足size字节为EOFException
+	 */
+	private final class AsyncRead implements CompletionHandler<Integer, Void> {
+		final AsynchronousFileChannel ch;
+		final ByteBuffer dst;
+		final long offset;
+		final boolean exact;
+		final CompletableFuture<ByteBuffer> future = new CompletableFuture<>();
+
+		AsyncRead(AsynchronousFileChannel ch, int size, long offset, boolean exact) {
+			this.ch = ch;
+			this.dst = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+			this.offset = offset;
+			this.exact = exact;
+		}
+
+		void start() {
+			try {
+				ch.read(dst, offset + dst.position(), null, this);
+			} catch (RuntimeException e) {
+				future.completeExceptionally(e);
+			}
+		}
+
+		@Override
+		public void completed(Integer n, Void attachment) {
+			if (n >= 0 && dst.hasRemaining()) {
+				start();
+			} else if (exact && dst.hasRemaining()) {
+				future.completeExceptionally(new EOFException());
+			} else {
+				future.complete(dst.flip());
+			}
+		}
+
+		@Override
+		public void failed(Throwable e, Void attachment) {
+			future.completeExceptionally(e);
+		}
+	}
+
+	private CompletableFuture<ByteBuffer> readAsync(long offset, int size, boolean exact) {
+		AsyncRead read;
+		try {
+			read = new AsyncRead(asyncChannel(), size, offset, exact);
+		} catch (IOException e) {
+			return CompletableFuture.failedFuture(e);
+		}
+		read.start();
+		return read.future;
+	}
+
+	@Override
+	CompletableFuture<ByteBuffer> readAsync(long offset, int size) {
+		return readAsync(offset, size, true);
+	}
+
+	@Override
+	CompletableFuture<byte[]> readStrAsync(long offset) {
+		return readStrAsync(offset, new ByteArrayOutputStream());
+	}
+
+	private CompletableFuture<byte[]> readStrAsync(long offset, ByteArrayOutputStream baos) {
+		return readAsync(offset, STR_CHUNK, false).thenCompose(b -> {
+			int n = b.remaining();
+			for (int i = 0; i < n; i++) {
+				if (b.get(i) == 0) {
+					baos.write(b.array(), 0, i);
+					return CompletableFuture.completedFuture(baos.toByteArray());
+				}
+			}
+			if (n < STR_CHUNK) {
+				return CompletableFuture.failedFuture(new EOFException());
+			}
+			baos.write(b.array(), 0, n);
+			return readStrAsync(offset + n, baos);
+		});
+	}
+
+	@Override
+	public void close() throws IOException {
+		closed = true;
+		try {
+			channel.close();
+		} finally {
+			synchronized (this) {
+				if (asyncChannel != null) {
+					asyncChannel.close();
+				}
+			}
+		}
+	}
+
+}
@@ -1,6 +1,8 @@
 package org.zxinc.ip;
 
 import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.util.Arrays;
 
 public class IpAddress {
@@ -16,10 +18,20 @@ public class IpAddress {
 	}
 
 	public IpAddress(String ip) {
-		m_ip = textToNumericFormatV6(ip);
-		if (m_ip == null) m_ip = textToNumericFormatV4(ip);
-		if (m_ip == null)
+		this((CharSequence)ip);
+	}
+
+	public IpAddress(CharSequence ip) {
+		long[] v = new long[2];
+		int family = parse(ip, v);
+		if (family == 4) {
+			m_ip = fromInt((int)v[0]).m_ip;
+		} else if (family == 6) {
+			m_ip = fromLongs(v[0], v[1]).m_ip;
+			convertFromIPv4MappedAddress();
+		} else {
 			throw new IllegalArgumentException("非法IP地址");
+		}
 	}
 
 	public static IpAddress fromBytes(byte[] bytes) {
@@ -78,6 +90,82 @@ public class IpAddress {
 		return fromBytesV6(be);
 	}
 
+	static IpAddress fromInt(int v) {
+		IpAddress ip = new IpAddress();
+		ip.m_ip = new byte[] {(byte)(v >>> 24), (byte)(v >>> 16), (byte)(v >>> 8), (byte)v};
+		return ip;
+	}
+
+	static IpAddress fromLongs(long hi, long lo) {
+		IpAddress ip = new IpAddress();
+		ip.m_ip = new byte[INADDR16SZ];
+		for (int i = 0; i < 8; i++) {
+			ip.m_ip[i] = (byte)(hi >>> (56 - i * 8));
+			ip.m_ip[i + 8] = (byte)(lo >>> (56 - i * 8));
+		}
+		return ip;
+	}
+
+	/*
+	 * IPv4地址的32位整数值
+	 */
+	int intValue() {
+		return ((m_ip[0] & 0xFF) << 24) | ((m_ip[1] & 0xFF) << 16) | ((m_ip[2] & 0xFF) << 8) | (m_ip[3] & 0xFF);
+	}
+
+	/*
+	 * IPv6地址的高64位，IPv6数据库只按高64位索引
+	 */
+	long highBits() {
+		long v = 0;
+		for (int i = 0; i < 8; i++) {
+			v = (v << 8) | (m_ip[i] & 0xFF);
+		}
+		return v;
+	}
+
+	long lowBits() {
+		long v = 0;
+		for (int i = 8; i < 16; i++) {
+			v = (v << 8) | (m_ip[i] & 0xFF);
+		}
+		return v;
+	}
+
+	/*
+	 * IPv4映射地址（::ffff:0:0/96）转换后的IPv4地址
+	 */
+	static IpAddress fromMapped(int v) {
+		IpAddress ip = fromInt(v);
+		ip.m_mapped = true;
+		return ip;
+	}
+
+	static boolean isMapped(long hi, long lo) {
+		return hi == 0 && (lo >>> 32) == 0xFFFFL;
+	}
+
+	/*
+	 * 以下从网络字节序的数组或缓冲区中直接读取地址，不复制，不改变缓冲区的position
+	 */
+	static int readInt(byte[] b, int off) {
+		return ((b[off] & 0xFF) << 24) | ((b[off + 1] & 0xFF) << 16) | ((b[off + 2] & 0xFF) << 8) | (b[off + 3] & 0xFF);
+	}
+
+	static long readLong(byte[] b, int off) {
+		return ((long)readInt(b, off) << 32) | (readInt(b, off + 4) & 0xFFFFFFFFL);
+	}
+
+	static int readInt(ByteBuffer buf, int index) {
+		int v = buf.getInt(index);
+		return buf.order() == ByteOrder.BIG_ENDIAN ? v : Integer.reverseBytes(v);
+	}
+
+	static long readLong(ByteBuffer buf, int index) {
+		long v = buf.getLong(index);
+		return buf.order() == ByteOrder.BIG_ENDIAN ? v : Long.reverseBytes(v);
+	}
+
 	public byte[] getBytes() {
 		return m_ip;
 	}
@@ -120,9 +208,9 @@ public class IpAddress {
 		if (m_ip == null)
 			return "";
 		else if (m_ip.length == INADDR4SZ)
-			return numericToTextFormatV4(m_ip);
+			return formatV4(intValue(), new StringBuilder(15)).toString();
 		else if (m_ip.length == INADDR16SZ)
-			return numericToTextFormatV6(m_ip);
+			return formatV6(highBits(), lowBits(), new StringBuilder(39)).toString();
 		else
 			throw new RuntimeException("INTERNAL ERROR");
 	}
@@ -145,22 +233,14 @@ public class IpAddress {
 		return rev;
 	}
 
+	/**
+	 * 地址减1，0减1得到全1。
+	 */
 	public void subOne() {
-		BigInteger bi = getBigInt();
-		bi = bi.subtract(BigInteger.ONE);
-		byte[] b = bi.toByteArray();
-
-		if (b.length >= m_ip.length) {
-			System.arraycopy(b, 0, m_ip, 0, m_ip.length);
-		} else {
-			boolean minus = ((b[0] & 0x80) != 0);
-			b[0] &= 0x7F;
-			if (minus) {
-				Arrays.fill(m_ip, (byte)0xFF);
-			} else {
-				Arrays.fill(m_ip, (byte)0);
+		for (int i = m_ip.length - 1; i >= 0; i--) {
+			if (m_ip[i]-- != 0) {
+				break;
 			}
-			System.arraycopy(b, 0, m_ip, m_ip.length - b.length, b.length);
 		}
 	}
 
@@ -172,83 +252,132 @@ public class IpAddress {
 	private static final int INADDR16SZ = 16;
 	private static final int INT16SZ = 2;
 
+	/**
+	 * 解析IP地址文本，结果直接写入out，不产生临时对象。
+	 * 根据开头的字符判断地址类型：开头的十进制数字之后是'.'或者结束的为IPv4，否则为IPv6。
+	 * 数字按Character.digit判断，ASCII以外的Unicode数字（比如全角数字）也可以解析。
+	 *
+	 * @param src IP地址文本
+	 * @param start 开始位置
+	 * @param end 结束位置（不含）
+	 * @param out 长度至少为2。IPv4时out[0]为32位地址（无符号）；IPv6时out[0]、out[1]为高、低64位
+	 * @return 4表示IPv4，6表示IPv6，0表示非法地址。IPv4映射地址按IPv6返回
+	 */
+	public static int parse(CharSequence src, int start, int end, long[] out) {
+		return parse(src, null, start, end, out);
+	}
+
+	public static int parse(CharSequence src, long[] out) {
+		return parse(src, null, 0, src.length(), out);
+	}
+
+	/**
+	 * 解析ASCII编码的IP地址文本，比如日志缓冲区中的一段，参数和返回值同 parse(CharSequence, int, int, long[])。
+	 */
+	public static int parse(byte[] src, int start, int end, long[] out) {
+		return parse(null, src, start, end, out);
+	}
+
+	private static int parse(CharSequence cs, byte[] b, int start, int end, long[] out) {
+		int i = start;
+		while (i < end && digit(charAt(cs, b, i)) >= 0) {
+			i++;
+		}
+		if (i == end || charAt(cs, b, i) == '.') {
+			long v4 = textToNumericFormatV4(cs, b, start, end);
+			if (v4 < 0) {
+				return 0;
+			}
+			out[0] = v4;
+			return 4;
+		}
+		return textToNumericFormatV6(cs, b, start, end, out) ? 6 : 0;
+	}
+
+	private static int charAt(CharSequence cs, byte[] b, int i) {
+		return b != null ? b[i] & 0xFF : cs.charAt(i);
+	}
+
+	/*
+	 * ASCII以外的字符按Character.digit处理（比如全角数字），与原来的解析器相同
+	 */
+	private static int digit(int c) {
+		if (c >= '0' && c <= '9') {
+			return c - '0';
+		}
+		return c < 0x80 ? -1 : Character.digit(c, 10);
+	}
+
+	private static int hexDigit(int c) {
+		if (c >= '0' && c <= '9') {
+			return c - '0';
+		} else if (c >= 'a' && c <= 'f') {
+			return c - 'a' + 10;
+		} else if (c >= 'A' && c <= 'F') {
+			return c - 'A' + 10;
+		}
+		return c < 0x80 ? -1 : Character.digit(c, 16);
+	}
+
 	/*
 	 * Converts IPv4 address in its textual presentation form
 	 * into its numeric binary form.
 	 *
-	 * @param src a String representing an IPv4 address in standard format
-	 * @return a byte array representing the IPv4 numeric address
+	 * When only one part is given, the value is stored directly in
+	 * the network address without any byte rearrangement.
+	 *
+	 * When a two part address is supplied, the last part is
+	 * interpreted as a 24-bit quantity and placed in the right
+	 * most three bytes of the network address. This makes the
+	 * two part address format convenient for specifying Class A
+	 * network addresses as net.host.
+	 *
+	 * When a three part address is specified, the last part is
+	 * interpreted as a 16-bit quantity and placed in the right
+	 * most two bytes of the network address. This makes the
+	 * three part address format convenient for specifying
+	 * Class B net- work addresses as 128.net.host.
+	 *
+	 * When four parts are specified, each is interpreted as a
+	 * byte of data and assigned, from left to right, to the
+	 * four bytes of an IPv4 address.
+	 *
+	 * @return the address as an unsigned 32-bit value, or -1 if invalid
 	 */
-	private static byte[] textToNumericFormatV4(String src)
-	{
-		byte[] res = new byte[INADDR4SZ];
-
+	private static long textToNumericFormatV4(CharSequence cs, byte[] b, int start, int end) {
+		long res = 0;
 		long tmpValue = 0;
 		int currByte = 0;
 		boolean newOctet = true;
 
-		int len = src.length();
+		int len = end - start;
 		if (len == 0 || len > 15) {
-			return null;
+			return -1;
 		}
-		/*
-		 * When only one part is given, the value is stored directly in
-		 * the network address without any byte rearrangement.
-		 *
-		 * When a two part address is supplied, the last part is
-		 * interpreted as a 24-bit quantity and placed in the right
-		 * most three bytes of the network address. This makes the
-		 * two part address format convenient for specifying Class A
-		 * network addresses as net.host.
-		 *
-		 * When a three part address is specified, the last part is
-		 * interpreted as a 16-bit quantity and placed in the right
-		 * most two bytes of the network address. This makes the
-		 * three part address format convenient for specifying
-		 * Class B net- work addresses as 128.net.host.
-		 *
-		 * When four parts are specified, each is interpreted as a
-		 * byte of data and assigned, from left to right, to the
-		 * four bytes of an IPv4 address.
-		 *
-		 * We determine and parse the leading parts, if any, as single
-		 * byte values in one pass directly into the resulting byte[],
-		 * then the remainder is treated as a 8-to-32-bit entity and
-		 * translated into the remaining bytes in the array.
-		 */
-		for (int i = 0; i < len; i++) {
-			char c = src.charAt(i);
+		for (int i = start; i < end; i++) {
+			int c = charAt(cs, b, i);
 			if (c == '.') {
-				if (newOctet || tmpValue < 0 || tmpValue > 0xff || currByte == 3) {
-					return null;
+				if (newOctet || tmpValue > 0xff || currByte == 3) {
+					return -1;
 				}
-				res[currByte++] = (byte) (tmpValue & 0xff);
+				res = (res << 8) | tmpValue;
+				currByte++;
 				tmpValue = 0;
 				newOctet = true;
 			} else {
-				int digit = Character.digit(c, 10);
-				if (digit < 0) {
-					return null;
+				int d = digit(c);
+				if (d < 0) {
+					return -1;
 				}
-				tmpValue *= 10;
-				tmpValue += digit;
+				tmpValue = tmpValue * 10 + d;
 				newOctet = false;
 			}
 		}
-		if (newOctet || tmpValue < 0 || tmpValue >= (1L << ((4 - currByte) * 8))) {
-			return null;
+		int shift = (4 - currByte) * 8;
+		if (newOctet || tmpValue >= (1L << shift)) {
+			return -1;
 		}
-		switch (currByte) {
-			case 0:
-				res[0] = (byte) ((tmpValue >> 24) & 0xff);
-			case 1:
-				res[1] = (byte) ((tmpValue >> 16) & 0xff);
-			case 2:
-				res[2] = (byte) ((tmpValue >>  8) & 0xff);
-			case 3:
-				res[3] = (byte) ((tmpValue >>  0) & 0xff);
-		}
-		return res;
+		return (res << shift) | tmpValue;
 	}
 
 	/*
@@ -258,133 +387,125 @@ public class IpAddress {
 	 *
 	 * Any component of the string following a per-cent % is ignored.
 	 *
-	 * @param src a String representing an IPv6 address in textual format
-	 * @return a byte array representing the IPv6 numeric address
+	 * The address is written to out[0] (high 64 bits) and out[1] (low 64 bits).
 	 */
-	private byte[] textToNumericFormatV6(String src) {
+	private static boolean textToNumericFormatV6(CharSequence cs, byte[] b, int start, int end, long[] out) {
 		// Shortest valid string is "::", hence at least 2 chars
-		if (src.length() < 2) {
-			return null;
-		}
-
-		int colonp;
-		char ch;
-		boolean saw_xdigit;
-		int val;
-		char[] srcb = src.toCharArray();
-		byte[] dst = new byte[INADDR16SZ];
-
-		int srcb_length = srcb.length;
-		int pc = src.indexOf ('%');
-		if (pc == srcb_length -1) {
-			return null;
+		if (end - start < 2) {
+			return false;
 		}
-
-		if (pc != -1) {
-			srcb_length = pc;
+		int srcb_length = end;
+		for (int k = start; k < end; k++) {
+			if (charAt(cs, b, k) == '%') {
+				if (k == end - 1) {
+					return false;
+				}
+				srcb_length = k;
+				break;
+			}
 		}
 
-		colonp = -1;
-		int i = 0, j = 0;
+		out[0] = 0;
+		out[1] = 0;
+		int colonp = -1;
+		int i = start, j = 0;
 		/* Leading :: requires some special handling. */
-		if (srcb[i] == ':')
-			if (srcb[++i] != ':')
-				return null;
+		if (charAt(cs, b, i) == ':') {
+			if (charAt(cs, b, ++i) != ':') {
+				return false;
+			}
+		}
 		int curtok = i;
-		saw_xdigit = false;
-		val = 0;
+		boolean saw_xdigit = false;
+		int val = 0;
 		while (i < srcb_length) {
-			ch = srcb[i++];
-			int chval = Character.digit(ch, 16);
+			int ch = charAt(cs, b, i++);
+			int chval = hexDigit(ch);
 			if (chval != -1) {
 				val <<= 4;
 				val |= chval;
-				if (val > 0xffff)
-					return null;
+				if (val > 0xffff) {
+					return false;
+				}
 				saw_xdigit = true;
 				continue;
 			}
 			if (ch == ':') {
 				curtok = i;
 				if (!saw_xdigit) {
-					if (colonp != -1)
-						return null;
+					if (colonp != -1) {
+						return false;
+					}
 					colonp = j;
 					continue;
 				} else if (i == srcb_length) {
-					return null;
+					return false;
 				}
-				if (j + INT16SZ > INADDR16SZ)
-					return null;
-				dst[j++] = (byte) ((val >> 8) & 0xff);
-				dst[j++] = (byte) (val & 0xff);
+				if (j + INT16SZ > INADDR16SZ) {
+					return false;
+				}
+				setGroup(out, j / INT16SZ, val);
+				j += INT16SZ;
 				saw_xdigit = false;
 				val = 0;
 				continue;
 			}
 			if (ch == '.' && ((j + INADDR4SZ) <= INADDR16SZ)) {
-				String ia4 = src.substring(curtok, srcb_length);
 				/* check this IPv4 address has 3 dots, ie. A.B.C.D */
-				int dot_count = 0, index=0;
-				while ((index = ia4.indexOf ('.', index)) != -1) {
-					dot_count ++;
-					index ++;
+				int dot_count = 0;
+				for (int k = curtok; k < srcb_length; k++) {
+					if (charAt(cs, b, k) == '.') {
+						dot_count++;
+					}
 				}
 				if (dot_count != 3) {
-					return null;
-				}
-				byte[] v4addr = textToNumericFormatV4(ia4);
-				if (v4addr == null) {
-					return null;
+					return false;
 				}
-				for (int k = 0; k < INADDR4SZ; k++) {
-					dst[j++] = v4addr[k];
+				long v4addr = textToNumericFormatV4(cs, b, curtok, srcb_length);
+				if (v4addr < 0) {
+					return false;
 				}
+				setGroup(out, j / INT16SZ, (int)(v4addr >>> 16));
+				setGroup(out, j / INT16SZ + 1, (int)(v4addr & 0xffff));
+				j += INADDR4SZ;
 				saw_xdigit = false;
 				break;  /* '\0' was seen by inet_pton4(). */
 			}
-			return null;
+			return false;
 		}
 		if (saw_xdigit) {
-			if (j + INT16SZ > INADDR16SZ)
-				return null;
-			dst[j++] = (byte) ((val >> 8) & 0xff);
-			dst[j++] = (byte) (val & 0xff);
+			if (j + INT16SZ > INADDR16SZ) {
+				return false;
+			}
+			setGroup(out, j / INT16SZ, val);
+			j += INT16SZ;
 		}
 
 		if (colonp != -1) {
-			int n = j - colonp;
+			int n = (j - colonp) / INT16SZ;
+			int g = colonp / INT16SZ;
 
-			if (j == INADDR16SZ)
-				return null;
-			for (i = 1; i <= n; i++) {
-				dst[INADDR16SZ - i] = dst[colonp + n - i];
-				dst[colonp + n - i] = 0;
+			if (j == INADDR16SZ) {
+				return false;
+			}
+			for (int k = 1; k <= n; k++) {
+				setGroup(out, 8 - k, getGroup(out[0], out[1], g + n - k));
+				setGroup(out, g + n - k, 0);
 			}
 			j = INADDR16SZ;
 		}
-		if (j != INADDR16SZ)
-			return null;
-		m_ip = dst;
-		convertFromIPv4MappedAddress();
-		return m_ip;
+		return j == INADDR16SZ;
 	}
 
-	///**
-	// * @param src a String representing an IPv4 address in textual format
-	// * @return a boolean indicating whether src is an IPv4 literal address
-	// */
-	//private static boolean isIPv4LiteralAddress(String src) {
-	//	return textToNumericFormatV4(src) != null;
-	//}
+	private static int getGroup(long hi, long lo, int g) {
+		return (int)((g < 4 ? hi >>> (48 - g * 16) : lo >>> (112 - g * 16)) & 0xffff);
+	}
 
-	///**
-	// * @param src a String representing an IPv6 address in textual format
-	// * @return a boolean indicating whether src is an IPv6 literal address
-	// */
-	//private boolean isIPv6LiteralAddress(String src) {
-	//	return textToNumericFormatV6(src) != null;
-	//}
+	private static void setGroup(long[] a, int g, int val) {
+		int k = g < 4 ? 0 : 1;
+		int shift = 48 - (g & 3) * 16;
+		a[k] = (a[k] & ~(0xffffL << shift)) | ((long)val << shift);
+	}
 
 	/*
 	 * Convert IPv4-Mapped address to IPv4 address. Both input and
@@ -432,14 +553,46 @@ public class IpAddress {
 	////////////////////////////////////////////////////////////////////////////
 
 	/**
-	 * Converts IPv4 binary address into a string suitable for presentation.
+	 * 把IPv4地址以点分十进制格式追加到sb。
+	 */
+	public static StringBuilder formatV4(int ip, StringBuilder sb) {
+		format4(ip, sb, null, 0);
+		return sb;
+	}
+
+	/**
+	 * 把IPv4地址以点分十进制格式的ASCII写入dst，最多15个字节。
 	 *
-	 * @param src a byte array representing an IPv4 numeric address
-	 * @return a String representing the IPv4 address in
-	 *		 textual representation format
+	 * @return 写入后的位置
 	 */
-	private static String numericToTextFormatV4(byte[] src)	{
-		return (src[0] & 0xff) + "." + (src[1] & 0xff) + "." + (src[2] & 0xff) + "." + (src[3] & 0xff);
+	public static int formatV4(int ip, byte[] dst, int off) {
+		return format4(ip, null, dst, off);
+	}
+
+	private static int format4(int ip, StringBuilder sb, byte[] dst, int off) {
+		for (int i = 24; i >= 0; i -= 8) {
+			int v = (ip >>> i) & 0xff;
+			if (v >= 100) {
+				off = put(sb, dst, off, '0' + v / 100);
+			}
+			if (v >= 10) {
+				off = put(sb, dst, off, '0' + v / 10 % 10);
+			}
+			off = put(sb, dst, off, '0' + v % 10);
+			if (i > 0) {
+				off = put(sb, dst, off, '.');
+			}
+		}
+		return off;
+	}
+
+	private static int put(StringBuilder sb, byte[] dst, int off, int c) {
+		if (dst != null) {
+			dst[off] = (byte)c;
+		} else {
+			sb.append((char)c);
+		}
+		return off + 1;
 	}
 
 	////////////////////////////////////////////////////////////////////////////
@@ -447,21 +600,86 @@ public class IpAddress {
 	////////////////////////////////////////////////////////////////////////////
 
 	/**
-	 * Convert IPv6 binary address into presentation (printable) format.
+	 * 把IPv6地址以RFC 5952推荐的压缩格式追加到sb，比如 2001:db8::1、::ffff:1.2.3.4。
+	 */
+	public static StringBuilder formatV6(long hi, long lo, StringBuilder sb) {
+		format6(hi, lo, sb, null, 0);
+		return sb;
+	}
+
+	/**
+	 * 把IPv6地址以RFC 5952推荐的压缩格式的ASCII写入dst，最多39个字节。
 	 *
-	 * @param src a byte array representing the IPv6 numeric address
-	 * @return a String representing an IPv6 address in
-	 *		 textual representation format
+	 * @return 写入后的位置
 	 */
-	private static String numericToTextFormatV6(byte[] src) {
-		StringBuilder sb = new StringBuilder(39);
-		for (int i = 0; i < (INADDR16SZ / INT16SZ); i++) {
-			sb.append(Integer.toHexString(((src[i<<1]<<8) & 0xff00) | (src[(i<<1)+1] & 0xff)));
-			if (i < (INADDR16SZ / INT16SZ) -1 ) {
-			   sb.append(":");
+	public static int formatV6(long hi, long lo, byte[] dst, int off) {
+		return format6(hi, lo, null, dst, off);
+	}
+
+	private static int format6(long hi, long lo, StringBuilder sb, byte[] dst, int off) {
+		// ::ffff:0:0/96 使用IPv4混合格式
+		if (hi == 0 && (lo >>> 32) == 0xffffL) {
+			for (int k = 0; k < 7; k++) {
+				off = put(sb, dst, off, "::ffff:".charAt(k));
+			}
+			return format4((int)lo, sb, dst, off);
+		}
+		// 找出最长的连续全0组，长度至少为2，长度相同时取第一个
+		int best = -1, bestLen = 1;
+		for (int g = 0; g < 8; ) {
+			if (getGroup(hi, lo, g) != 0) {
+				g++;
+				continue;
 			}
+			int e = g;
+			while (e < 8 && getGroup(hi, lo, e) == 0) {
+				e++;
+			}
+			if (e - g > bestLen) {
+				best = g;
+				bestLen = e - g;
+			}
+			g = e;
+		}
+		for (int g = 0; g < 8; g++) {
+			if (g == best) {
+				off = put(sb, dst, off, ':');
+				if (g == 0) {
+					off = put(sb, dst, off, ':');
+				}
+				g += bestLen - 1;
+				if (g == 7) {
+					break;
+				}
+				continue;
+			}
+			int v = getGroup(hi, lo, g);
+			boolean lead = true;
+			for (int shift = 12; shift >= 0; shift -= 4) {
+				int d = (v >>> shift) & 0xf;
+				if (lead && d == 0 && shift > 0) {
+					continue;
+				}
+				lead = false;
+				off = put(sb, dst, off, d < 10 ? '0' + d : 'a' + d - 10);
+			}
+			if (g < 7) {
+				off = put(sb, dst, off, ':');
+			}
+		}
+		return off;
+	}
+
+	/**
+	 * 把地址追加到sb，格式同 toString()。
+	 */
+	public StringBuilder appendTo(StringBuilder sb) {
+		if (m_ip == null) {
+			return sb;
+		} else if (m_ip.length == INADDR4SZ) {
+			return formatV4(intValue(), sb);
 		}
-		return sb.toString();
+		return formatV6(highBits(), lowBits(), sb);
 	}
 
 }
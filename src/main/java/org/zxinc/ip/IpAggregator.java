@@ -0,0 +1,372 @@
+package org.zxinc.ip;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/**
+ * 按地址记录统计地址的个数，比如按国家和地区统计访问日志中的请求数。
+ * 构造时把每条索引对应到一个分组编号，之后每个地址只做一次lookup和一次数组计数，不产生IpRecord和字符串，
+ * 只在生成报告时才用到字符串。本对象不可变，可以在线程之间共享；计数用的 {@link Counter} 每个线程各自一个，最后合并。
+ *
+ * <pre>
+ * IpAggregator agg = db6.aggregator(IpAggregator.Key.COUNTRY);
+ * IpAggregator.Counter counter = agg.newCounter();
+ * while (...) counter.add(buf, start, end);
+ * for (IpAggregator.Group g : counter.top(20)) ...
+ * </pre>
+ */
+public final class IpAggregator {
+	static final int CHUNK = 1024;
+
+	/**
+	 * 分组方式。
+	 */
+	public enum Key {
+		/** 国家和地区都相同的为一组 */
+		LOCATION,
+		/** 国家相同的为一组 */
+		COUNTRY
+	}
+
+	/**
+	 * 报告中的一个分组。
+	 */
+	public static final class Group {
+		private final String country;
+		private final String local;
+		private final long count;
+
+		Group(String country, String local, long count) {
+			this.country = country;
+			this.local = local;
+			this.count = count;
+		}
+
+		public String getCountry() {
+			return country;
+		}
+
+		/**
+		 * 按国家分组时为空字符串。
+		 */
+		public String getLocal() {
+			return local;
+		}
+
+		public long getCount() {
+			return count;
+		}
+
+		@Override
+		public String toString() {
+			return local.isEmpty() ? country + "\t" + count : country + "\t" + local + "\t" + count;
+		}
+	}
+
+	private final Ipdbv6 db6;
+	private final Ipdbv4 db4;
+	private final Key key;
+	// 索引位置对应的分组编号，IPv4和IPv6数据库中相同的地址记录属于同一组
+	private final int[] ids6;
+	private final int[] ids4;
+	private final String[] countries;
+	private final String[] locals;
+
+	IpAggregator(Ipdbv6 db6, Ipdbv4 db4, Key key) throws IOException {
+		this.db6 = db6;
+		this.db4 = db4;
+		this.key = key;
+		Map<String, Integer> groups = new HashMap<>();
+		List<Location> names = new ArrayList<>();
+		ids6 = db6 != null ? groupIds(db6, groups, names) : null;
+		ids4 = db4 != null ? groupIds(db4, groups, names) : null;
+		countries = new String[names.size()];
+		locals = new String[names.size()];
+		for (int i = 0; i < countries.length; i++) {
+			countries[i] = names.get(i).country;
+			locals[i] = key == Key.COUNTRY ? "" : names.get(i).local;
+		}
+	}
+
+	private int[] groupIds(Ipdb db, Map<String, Integer> groups, List<Location> names) throws IOException {
+		int[] ids = new int[db.total];
+		Location[] locs = db.allLocations(ids);
+		int[] group = new int[locs.length];
+		for (int id = 0; id < locs.length; id++) {
+			Location loc = locs[id];
+			String name = key == Key.COUNTRY ? loc.country : loc.country + '\t' + loc.local;
+			Integer g = groups.get(name);
+			if (g == null) {
+				g = names.size();
+				groups.put(name, g);
+				names.add(loc);
+			}
+			group[id] = g;
+		}
+		for (int i = 0; i < ids.length; i++) {
+			ids[i] = group[ids[i]];
+		}
+		return ids;
+	}
+
+	public Key getKey() {
+		return key;
+	}
+
+	/**
+	 * 分组的个数，分组编号在0到getGroupCount()-1之间。
+	 */
+	public int getGroupCount() {
+		return countries.length;
+	}
+
+	public String getCountry(int group) {
+		return countries[group];
+	}
+
+	public String getLocal(int group) {
+		return locals[group];
+	}
+
+	/**
+	 * 一个线程使用的计数器。
+	 */
+	public Counter newCounter() {
+		return new Counter();
+	}
+
+	/**
+	 * 统计流中的地址，并行流在各线程中分别计数后合并。读取出错时抛出UncheckedIOException。
+	 */
+	public Counter count(Stream<? extends CharSequence> ips) {
+		return ips.collect(this::newCounter, (c, ip) -> {
+			try {
+				c.add(ip);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}, Counter::merge);
+	}
+
+	/**
+	 * 按分组计数，不是线程安全的。非法地址、没有对应数据库的地址（比如只有IPv6数据库时的IPv4地址）计入getUnknown()。
+	 */
+	public final class Counter {
+		private final long[] counts = new long[countries.length];
+		private long unknown;
+		private final long[] parsed = new long[2];
+		private int[] keys4;
+		private long[] keys6;
+		private int[] pos;
+
+		Counter() {
+		}
+
+		public IpAggregator getAggregator() {
+			return IpAggregator.this;
+		}
+
+		/**
+		 * @param ip IPv4地址，按无符号数处理
+		 */
+		public void add(int ip) throws IOException {
+			if (ids4 != null) {
+				counts[ids4[db4.lookup(ip)]]++;
+			} else {
+				unknown++;
+			}
+		}
+
+		/**
+		 * IPv4映射地址按IPv4地址统计。
+		 */
+		public void add(long hi, long lo) throws IOException {
+			if (IpAddress.isMapped(hi, lo)) {
+				add((int)lo);
+			} else if (ids6 != null) {
+				counts[ids6[db6.lookup(hi, lo)]]++;
+			} else {
+				unknown++;
+			}
+		}
+
+		public void add(CharSequence ip) throws IOException {
+			addParsed(IpAddress.parse(ip, parsed));
+		}
+
+		/**
+		 * 统计ASCII编码的地址文本，比如日志缓冲区中的一段。
+		 */
+		public void add(byte[] b, int start, int end) throws IOException {
+			addParsed(IpAddress.parse(b, start, end, parsed));
+		}
+
+		private void addParsed(int family) throws IOException {
+			if (family == 4) {
+				add((int)parsed[0]);
+			} else if (family == 6) {
+				add(parsed[0], parsed[1]);
+			} else {
+				unknown++;
+			}
+		}
+
+		/**
+		 * 批量统计IPv4地址，见 {@link Ipdbv4#lookupBatch(int[], int[], int)}。
+		 */
+		public void addAll(int[] ips, int n) throws IOException {
+			if (ids4 == null) {
+				unknown += n;
+				return;
+			}
+			if (keys4 == null) {
+				keys4 = new int[CHUNK];
+				pos = pos != null ? pos : new int[CHUNK];
+			}
+			for (int off = 0; off < n; off += CHUNK) {
+				int m = Math.min(CHUNK, n - off);
+				System.arraycopy(ips, off, keys4, 0, m);
+				db4.lookupBatch(keys4, pos, m);
+				for (int i = 0; i < m; i++) {
+					counts[ids4[pos[i]]]++;
+				}
+			}
+		}
+
+		/**
+		 * 批量统计IPv6地址，IPv4映射地址逐个按IPv4地址统计，其余见 {@link Ipdbv6#lookupBatch(long[], int[], int)}。
+		 */
+		public void addAll(long[] his, long[] los, int n) throws IOException {
+			if (keys6 == null) {
+				keys6 = new long[CHUNK];
+				pos = pos != null ? pos : new int[CHUNK];
+			}
+			int m = 0;
+			for (int i = 0; i < n; i++) {
+				if (IpAddress.isMapped(his[i], los[i])) {
+					add((int)los[i]);
+				} else if (ids6 == null) {
+					unknown++;
+				} else {
+					keys6[m++] = his[i];
+					if (m == CHUNK) {
+						count6(m);
+						m = 0;
+					}
+				}
+			}
+			count6(m);
+		}
+
+		private void count6(int m) throws IOException {
+			if (m > 0) {
+				db6.lookupBatch(keys6, pos, m);
+				for (int i = 0; i < m; i++) {
+					counts[ids6[pos[i]]]++;
+				}
+			}
+		}
+
+		/**
+		 * 把另一个计数器的结果加到这个计数器，两者必须来自同一个IpAggregator。
+		 *
+		 * @return this
+		 */
+		public Counter merge(Counter other) {
+			if (other.getAggregator() != IpAggregator.this) {
+				throw new IllegalArgumentException("只能合并同一个IpAggregator的计数器");
+			}
+			for (int i = 0; i < counts.length; i++) {
+				counts[i] += other.counts[i];
+			}
+			unknown += other.unknown;
+			return this;
+		}
+
+		public long getCount(int group) {
+			return counts[group];
+		}
+
+		/**
+		 * 无法统计的地址个数。
+		 */
+		public long getUnknown() {
+			return unknown;
+		}
+
+		/**
+		 * 统计的地址总数，包括getUnknown()。
+		 */
+		public long getTotal() {
+			long sum = unknown;
+			for (long c : counts) {
+				sum += c;
+			}
+			return sum;
+		}
+
+		/**
+		 * 所有计数不为0的分组，按计数从大到小排列。
+		 */
+		public List<Group> report() {
+			return top(Integer.MAX_VALUE);
+		}
+
+		/**
+		 * 计数最大的n个分组，计数相同时按分组编号排列。
+		 */
+		public List<Group> top(int n) {
+			int m = 0;
+			for (long c : counts) {
+				if (c != 0) {
+					m++;
+				}
+			}
+			// 计数和分组编号合在一起排序，计数不超过2^40时不会溢出，超过时退回到比较器排序
+			long[] order = new long[m];
+			int k = 0;
+			long max = 0;
+			for (int g = 0; g < counts.length; g++) {
+				if (counts[g] != 0) {
+					order[k++] = g;
+					max = Math.max(max, counts[g]);
+				}
+			}
+			if (max < 1L << 40 && counts.length < 1 << 23) {
+				for (int i = 0; i < m; i++) {
+					int g = (int)order[i];
+					order[i] = ~counts[g] << 23 | g;
+				}
+				Arrays.sort(order);
+				for (int i = 0; i < m; i++) {
+					order[i] &= (1 << 23) - 1;
+				}
+			} else {
+				Long[] boxed = new Long[m];
+				for (int i = 0; i < m; i++) {
+					boxed[i] = order[i];
+				}
+				Arrays.sort(boxed, (a, b) -> {
+					int c = Long.compare(counts[(int)(long)b], counts[(int)(long)a]);
+					return c != 0 ? c : Long.compare(a, b);
+				});
+				for (int i = 0; i < m; i++) {
+					order[i] = boxed[i];
+				}
+			}
+			List<Group> list = new ArrayList<>(Math.min(n, m));
+			for (int i = 0; i < m && i < n; i++) {
+				int g = (int)order[i];
+				list.add(new Group(countries[g], locals[g], counts[g]));
+			}
+			return list;
+		}
+	}
+
+}
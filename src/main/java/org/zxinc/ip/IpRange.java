@@ -4,75 +4,178 @@ import java.math.BigInteger;
 import java.util.ArrayList;
 import java.util.List;
 
+/**
+ * IP地址范围，开始和结束地址按128位无符号整数保存，IPv4地址只用低32位。
+ * contains、sizeExact和CIDR拆分不产生临时对象。
+ */
 public class IpRange {
+	final boolean v4;
+	final long startHi;
+	final long startLo;
+	final long endHi;
+	final long endLo;
+	// 构造时传入或第一次读取时生成
 	private IpAddress ipStart;
 	private IpAddress ipEnd;
 
+	/**
+	 * 按CIDR拆分时得到的每一段。
+	 */
+	public interface CidrConsumer {
+		/**
+		 * @param hi 网络地址的高64位，IPv4时为0
+		 * @param lo 网络地址的低64位，IPv4时为32位地址（无符号）
+		 * @param prefix 前缀长度，IPv4为0到32，IPv6为0到128
+		 */
+		void accept(long hi, long lo, int prefix);
+	}
+
 	public IpRange(String ip) {
 		int slash = ip.indexOf('/');
 		if (slash != -1) {
 			String ipstart = ip.substring(0, slash).strip();
-			int prefixSize = Integer.parseInt(ip.substring(slash + 1));
-			ipStart = new IpAddress(ipstart);
-			if (ipStart.wasIPv4MappedAddress()) {
+			int prefixSize = Integer.parseInt(ip.substring(slash + 1).strip());
+			IpAddress net = new IpAddress(ipstart);
+			if (net.wasIPv4MappedAddress()) {
 				prefixSize -= 96;
 				if (prefixSize < 0) prefixSize = 0;
 			}
-			int maxPrefixSize = ipStart.getBytes().length * 8;
-			BigInteger b_ipstart = new BigInteger(1, ipStart.getBytes());
-			BigInteger b_hostmask = BigInteger.ONE.shiftLeft(maxPrefixSize).subtract(BigInteger.ONE)
-				.shiftRight(prefixSize);
-			b_ipstart = b_ipstart.andNot(b_hostmask);
-			BigInteger b_ipend = b_ipstart.add(b_hostmask);
-			byte[] bb_ipstart = toBytes(b_ipstart.toByteArray(), maxPrefixSize / 8);
-			byte[] bb_ipend = toBytes(b_ipend.toByteArray(), maxPrefixSize / 8);
-			ipStart = IpAddress.fromBytes(bb_ipstart);
-			ipEnd = IpAddress.fromBytes(bb_ipend);
+			v4 = net.isIpv4();
+			int maxPrefixSize = v4 ? 32 : 128;
+			if (prefixSize < 0 || prefixSize > maxPrefixSize)
+				throw new IllegalArgumentException("输入前缀长度非法");
+			long hi = v4 ? 0 : net.highBits();
+			long lo = v4 ? net.intValue() & 0xFFFFFFFFL : net.lowBits();
+			long maskHi = hostMaskHi(prefixSize, maxPrefixSize);
+			long maskLo = hostMaskLo(prefixSize, maxPrefixSize);
+			startHi = hi & ~maskHi;
+			startLo = lo & ~maskLo;
+			endHi = startHi | maskHi;
+			endLo = startLo | maskLo;
 		} else {
 			int dash = ip.indexOf('-');
+			IpAddress start, end;
 			if (dash != -1) {
 				String ipstart = ip.substring(0, dash).strip();
 				String ipend = ip.substring(dash + 1).strip();
-				ipStart = new IpAddress(ipstart);
-				ipEnd = new IpAddress(ipend);
+				start = new IpAddress(ipstart);
+				end = new IpAddress(ipend);
 			} else {
-				ipStart = ipEnd = new IpAddress(ip);
+				start = end = new IpAddress(ip);
 			}
+			checkValid(start, end);
+			ipStart = start;
+			ipEnd = end;
+			v4 = start.isIpv4();
+			startHi = hiOf(start);
+			startLo = loOf(start);
+			endHi = hiOf(end);
+			endLo = loOf(end);
 		}
-		checkValid();
 	}
 
 	public IpRange(String strStart, String strEnd) {
-		ipStart = new IpAddress(strStart);
-		ipEnd = new IpAddress(strEnd);
-		checkValid();
+		this(new IpAddress(strStart), new IpAddress(strEnd));
 	}
 
 	public IpRange(IpAddress start, IpAddress end) {
+		checkValid(start, end);
 		ipStart = start;
 		ipEnd = end;
-		checkValid();
+		v4 = start.isIpv4();
+		startHi = hiOf(start);
+		startLo = loOf(start);
+		endHi = hiOf(end);
+		endLo = loOf(end);
+	}
+
+	private IpRange(boolean v4, long startHi, long startLo, long endHi, long endLo) {
+		this.v4 = v4;
+		this.startHi = startHi;
+		this.startLo = startLo;
+		this.endHi = endHi;
+		this.endLo = endLo;
+	}
+
+	/**
+	 * @param start 开始地址，按无符号数处理
+	 * @param end 结束地址（包含）
+	 */
+	public static IpRange ofV4(int start, int end) {
+		return new IpRange(true, 0, start & 0xFFFFFFFFL, 0, end & 0xFFFFFFFFL);
+	}
+
+	public static IpRange ofV6(long startHi, long startLo, long endHi, long endLo) {
+		return new IpRange(false, startHi, startLo, endHi, endLo);
 	}
 
-	private void checkValid() {
-		if (ipStart.isValid() && ipEnd.isValid() && ipStart.isSameFamily(ipEnd)) {
+	private static void checkValid(IpAddress start, IpAddress end) {
+		if (start.isValid() && end.isValid() && start.isSameFamily(end)) {
 			//OK
 		} else {
 			throw new IllegalArgumentException("输入IP范围非法");
 		}
 	}
 
+	private static long hiOf(IpAddress ip) {
+		return ip.isIpv4() ? 0 : ip.highBits();
+	}
+
+	private static long loOf(IpAddress ip) {
+		return ip.isIpv4() ? ip.intValue() & 0xFFFFFFFFL : ip.lowBits();
+	}
+
+	/*
+	 * 前缀长度为prefix时主机部分的掩码
+	 */
+	private static long hostMaskHi(int prefix, int maxPrefixSize) {
+		int bits = maxPrefixSize - prefix;
+		return bits <= 64 ? 0 : -1L >>> (128 - bits);
+	}
+
+	private static long hostMaskLo(int prefix, int maxPrefixSize) {
+		int bits = maxPrefixSize - prefix;
+		return bits >= 64 ? -1L : (1L << bits) - 1;
+	}
+
+	private static int compare(long hi1, long lo1, long hi2, long lo2) {
+		int c = Long.compareUnsigned(hi1, hi2);
+		return c != 0 ? c : Long.compareUnsigned(lo1, lo2);
+	}
+
+	public boolean isIpv4() {
+		return v4;
+	}
+
+	public boolean isIpv6() {
+		return !v4;
+	}
+
 	public boolean contains(String ip) {
 		return contains(new IpAddress(ip));
 	}
 
 	public boolean contains(IpAddress ip) {
 		if (!ip.isValid()) return false;
-		if (!ip.isSameFamily(ipStart)) return false;
-		if (ip.compareTo(ipStart) * ip.compareTo(ipEnd) <= 0)
-			return true;
-		else
-			return false;
+		if (ip.isIpv4() != v4) return false;
+		return contains(hiOf(ip), loOf(ip));
+	}
+
+	/**
+	 * IPv4范围是否包含ip，IPv6范围总是返回false。
+	 */
+	public boolean contains(int ip) {
+		return v4 && contains(0, ip & 0xFFFFFFFFL);
+	}
+
+	/**
+	 * IPv6范围是否包含地址hi:lo。IPv4范围时lo为32位地址（无符号），hi为0。
+	 */
+	public boolean contains(long hi, long lo) {
+		int c1 = compare(hi, lo, startHi, startLo);
+		int c2 = compare(hi, lo, endHi, endLo);
+		// 开始地址大于结束地址时同样按两者之间判断
+		return c1 == 0 || c2 == 0 || (c1 < 0) != (c2 < 0);
 	}
 
 	public BigInteger size() {
@@ -80,46 +183,185 @@ public class IpRange {
 	}
 
 	public BigInteger size(int prefixSize) {
-		int maxPrefixSize = ipStart.getBytes().length * 8;
+		int maxPrefixSize = v4 ? 32 : 128;
 		if (prefixSize < 0) prefixSize = maxPrefixSize;
 		if (prefixSize > maxPrefixSize)
 			throw new IllegalArgumentException("输入前缀长度非法");
-		BigInteger bistart = new BigInteger(1, ipStart.getBytes());
-		BigInteger biend = new BigInteger(1, ipEnd.getBytes());
-		BigInteger nums = biend.subtract(bistart).add(BigInteger.ONE);
+		BigInteger nums = toBigInteger(endHi, endLo).subtract(toBigInteger(startHi, startLo)).add(BigInteger.ONE);
 		nums = nums.divide(BigInteger.TWO.pow((maxPrefixSize - prefixSize)));
 		return nums;
 	}
 
-	@Override
-	public String toString() {
-		return ipStart + " - " + ipEnd;
+	public long sizeExact() {
+		return sizeExact(-1);
 	}
 
-	private byte[] toBytes(byte[] array, int targetSize) {
-		int counter = 0;
-		List<Byte> newArr = new ArrayList<>();
-		while (counter < targetSize && (array.length - 1 - counter >= 0)) {
-			newArr.add(0, array[array.length - 1 - counter]);
-			counter++;
+	/**
+	 * 与size(prefixSize)相同，但不产生BigInteger，结果超出long时抛出ArithmeticException。
+	 */
+	public long sizeExact(int prefixSize) {
+		int maxPrefixSize = v4 ? 32 : 128;
+		if (prefixSize < 0) prefixSize = maxPrefixSize;
+		if (prefixSize > maxPrefixSize)
+			throw new IllegalArgumentException("输入前缀长度非法");
+		if (compare(startHi, startLo, endHi, endLo) > 0)
+			return size(prefixSize).longValueExact();
+		// end - start + 1，整个IPv6地址空间时进位到第129位
+		long lo = endLo - startLo;
+		long hi = endHi - startHi - (Long.compareUnsigned(endLo, startLo) < 0 ? 1 : 0);
+		lo++;
+		boolean carry = false;
+		if (lo == 0) {
+			hi++;
+			carry = hi == 0;
 		}
-		int size = newArr.size();
-		for (int i = 0; i < (targetSize - size); i++) {
-			newArr.add(0, (byte) 0);
+		int shift = maxPrefixSize - prefixSize;
+		if (shift == 128) {
+			lo = carry ? 1 : 0;
+			hi = 0;
+			carry = false;
+		} else if (shift > 64) {
+			lo = (hi >>> (shift - 64)) | (carry ? 1L << (128 - shift) : 0);
+			hi = 0;
+			carry = false;
+		} else if (shift == 64) {
+			lo = hi;
+			hi = carry ? 1 : 0;
+			carry = false;
+		} else if (shift > 0) {
+			lo = (lo >>> shift) | (hi << (64 - shift));
+			hi = (hi >>> shift) | (carry ? 1L << (64 - shift) : 0);
+			carry = false;
 		}
-		byte[] ret = new byte[newArr.size()];
-		for (int i = 0; i < newArr.size(); i++) {
-			ret[i] = newArr.get(i);
+		if (carry || hi != 0 || lo < 0) {
+			throw new ArithmeticException("范围大小超出long");
 		}
-		return ret;
+		return lo;
+	}
+
+	private static BigInteger toBigInteger(long hi, long lo) {
+		byte[] b = new byte[17];
+		for (int i = 0; i < 8; i++) {
+			b[1 + i] = (byte)(hi >>> (56 - i * 8));
+			b[9 + i] = (byte)(lo >>> (56 - i * 8));
+		}
+		return new BigInteger(b);
+	}
+
+	/**
+	 * 范围正好是一个CIDR块时返回前缀长度，否则返回-1。
+	 */
+	public int prefixLength() {
+		int width = v4 ? 32 : 128;
+		boolean reversed = compare(startHi, startLo, endHi, endLo) > 0;
+		long hi = reversed ? endHi : startHi, lo = reversed ? endLo : startLo;
+		long lastHi = reversed ? startHi : endHi, lastLo = reversed ? startLo : endLo;
+		int bits = blockBits(hi, lo, lastHi, lastLo, width);
+		if (bits == 128 || (blockEndHi(hi, bits) == lastHi && blockEndLo(lo, bits) == lastLo)) {
+			return width - bits;
+		}
+		return -1;
+	}
+
+	/*
+	 * 从cur开始、不超过last的最大CIDR块的主机位数：受cur末尾0的个数和剩余地址数限制
+	 */
+	private static int blockBits(long hi, long lo, long lastHi, long lastLo, int width) {
+		int align = lo != 0 ? Long.numberOfTrailingZeros(lo) : hi != 0 ? 64 + Long.numberOfTrailingZeros(hi) : 128;
+		// 剩余地址数 last - cur + 1，全部地址空间时为2^128
+		long remLo = lastLo - lo;
+		long remHi = lastHi - hi - (Long.compareUnsigned(lastLo, lo) < 0 ? 1 : 0);
+		remLo++;
+		if (remLo == 0) {
+			remHi++;
+		}
+		int fit = remLo == 0 && remHi == 0 ? 128 : remHi != 0 ? 127 - Long.numberOfLeadingZeros(remHi) : 63 - Long.numberOfLeadingZeros(remLo);
+		return Math.min(Math.min(align, fit), width);
+	}
+
+	/*
+	 * 块的最后一个地址，cur已经按bits对齐，bits小于128
+	 */
+	private static long blockEndHi(long hi, int bits) {
+		return bits < 64 ? hi : hi + (1L << (bits - 64)) - 1;
+	}
+
+	private static long blockEndLo(long lo, int bits) {
+		return bits < 64 ? lo + (1L << bits) - 1 : -1L;
+	}
+
+	/**
+	 * 把范围拆分为最少的CIDR块，按地址从小到大依次传给consumer。
+	 * 每一块取当前地址对齐允许的、且不超过剩余大小的最大块，IPv4最多62块，IPv6最多254块。
+	 */
+	public void forEachCidr(CidrConsumer consumer) {
+		int width = v4 ? 32 : 128;
+		boolean reversed = compare(startHi, startLo, endHi, endLo) > 0;
+		long hi = reversed ? endHi : startHi, lo = reversed ? endLo : startLo;
+		long lastHi = reversed ? startHi : endHi, lastLo = reversed ? startLo : endLo;
+		while (true) {
+			int bits = blockBits(hi, lo, lastHi, lastLo, width);
+			consumer.accept(hi, lo, width - bits);
+			if (bits == 128) {
+				return;
+			}
+			long endHi = blockEndHi(hi, bits);
+			long endLo = blockEndLo(lo, bits);
+			if (endHi == lastHi && endLo == lastLo) {
+				return;
+			}
+			lo = endLo + 1;
+			hi = endHi + (lo == 0 ? 1 : 0);
+		}
+	}
+
+	/**
+	 * 拆分为最少的CIDR块，格式如 1.2.3.0/24、2001:db8::/32。
+	 */
+	public List<String> toCidrs() {
+		List<String> list = new ArrayList<>();
+		StringBuilder sb = new StringBuilder(43);
+		forEachCidr((hi, lo, prefix) -> {
+			sb.setLength(0);
+			if (v4) {
+				IpAddress.formatV4((int)lo, sb);
+			} else {
+				IpAddress.formatV6(hi, lo, sb);
+			}
+			list.add(sb.append('/').append(prefix).toString());
+		});
+		return list;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder(v4 ? 31 : 81);
+		if (v4) {
+			IpAddress.formatV4((int)startLo, sb).append(" - ");
+			IpAddress.formatV4((int)endLo, sb);
+		} else {
+			IpAddress.formatV6(startHi, startLo, sb).append(" - ");
+			IpAddress.formatV6(endHi, endLo, sb);
+		}
+		return sb.toString();
 	}
 
 	public IpAddress getIpStart() {
-		return ipStart;
+		IpAddress ip = ipStart;
+		if (ip == null) {
+			ip = v4 ? IpAddress.fromInt((int)startLo) : IpAddress.fromLongs(startHi, startLo);
+			ipStart = ip;
+		}
+		return ip;
 	}
 
 	public IpAddress getIpEnd() {
-		return ipEnd;
+		IpAddress ip = ipEnd;
+		if (ip == null) {
+			ip = v4 ? IpAddress.fromInt((int)endLo) : IpAddress.fromLongs(endHi, endLo);
+			ipEnd = ip;
+		}
+		return ip;
 	}
 
 }
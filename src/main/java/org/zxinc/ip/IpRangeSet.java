@@ -0,0 +1,469 @@
+package org.zxinc.ip;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 不可变的IP地址范围集合，用于判断地址是否属于任何一个范围。
+ * 构造时排序并合并重叠和相邻的范围，IPv4和IPv6各自保存为有序的基本类型数组，
+ * 判断一次只做一次二分查找，不产生临时对象。并、交、差都是对两个有序数组的一次归并。
+ *
+ * <pre>
+ * IpRangeSet cn = db6.findRangeSet("中国");
+ * IpRangeSet allow = IpRangeSet.builder().add("10.0.0.0/8").add("2001:db8::/32").build();
+ * IpRangeSet set = cn.union(allow);
+ * set.contains("2001:db8::1");
+ * </pre>
+ */
+public final class IpRangeSet {
+	public static final IpRangeSet EMPTY = new IpRangeSet(Part.EMPTY, Part.EMPTY);
+
+	// 地址按128位无符号整数处理，各部分符号位取反后存储，可以直接用有符号数比较
+	private static final long V4_MAX = 0xFFFFFFFFL ^ Long.MIN_VALUE;
+	private static final long V4_HI = Long.MIN_VALUE;
+
+	private final Part v4;
+	private final Part v6;
+
+	/*
+	 * 一种地址的有序、不相交、不相邻的范围。IPv4时hi数组为null，高64位总是0
+	 */
+	private static final class Part {
+		static final Part EMPTY = new Part(null, new long[0], null, new long[0], 0);
+
+		final long[] startHi;
+		final long[] startLo;
+		final long[] endHi;
+		final long[] endLo;
+		final int n;
+
+		Part(long[] startHi, long[] startLo, long[] endHi, long[] endLo, int n) {
+			this.startHi = startHi;
+			this.startLo = startLo;
+			this.endHi = endHi;
+			this.endLo = endLo;
+			this.n = n;
+		}
+
+		long sh(int i) {
+			return startHi != null ? startHi[i] : V4_HI;
+		}
+
+		long eh(int i) {
+			return endHi != null ? endHi[i] : V4_HI;
+		}
+
+		/*
+		 * 开始地址不大于hi:lo的最后一个范围，没有时返回-1
+		 */
+		int floor(long hi, long lo) {
+			int L = -1, R = n;
+			if (startHi == null) {
+				long[] s = startLo;
+				while (R - L > 1) {
+					int M = (L + R) >>> 1;
+					if (s[M] <= lo) {
+						L = M;
+					} else {
+						R = M;
+					}
+				}
+			} else {
+				long[] sh = startHi, sl = startLo;
+				while (R - L > 1) {
+					int M = (L + R) >>> 1;
+					if (sh[M] < hi || (sh[M] == hi && sl[M] <= lo)) {
+						L = M;
+					} else {
+						R = M;
+					}
+				}
+			}
+			return L;
+		}
+
+		boolean contains(long hi, long lo) {
+			int i = floor(hi, lo);
+			return i >= 0 && compare(hi, lo, eh(i), endLo[i]) <= 0;
+		}
+	}
+
+	/*
+	 * 按顺序追加范围，与上一个重叠或相邻时合并
+	 */
+	private static final class PartBuilder {
+		private final boolean v4;
+		private long[] sh, sl, eh, el;
+		private int n;
+
+		PartBuilder(boolean v4, int capacity) {
+			this.v4 = v4;
+			capacity = Math.max(capacity, 4);
+			sl = new long[capacity];
+			el = new long[capacity];
+			if (!v4) {
+				sh = new long[capacity];
+				eh = new long[capacity];
+			}
+		}
+
+		void append(long shi, long slo, long ehi, long elo) {
+			if (n > 0) {
+				long ph = v4 ? V4_HI : eh[n - 1], pl = el[n - 1];
+				// 开始地址不大于上一个结束地址加一时合并，上一个已经到最大地址时一定被包含
+				if (isMax(ph, pl, v4) || compare(shi, slo, pl == Long.MAX_VALUE ? ph + 1 : ph, pl + 1) <= 0) {
+					if (compare(ehi, elo, ph, pl) > 0) {
+						if (!v4) {
+							eh[n - 1] = ehi;
+						}
+						el[n - 1] = elo;
+					}
+					return;
+				}
+			}
+			if (n == sl.length) {
+				int cap = n * 2;
+				sl = Arrays.copyOf(sl, cap);
+				el = Arrays.copyOf(el, cap);
+				if (!v4) {
+					sh = Arrays.copyOf(sh, cap);
+					eh = Arrays.copyOf(eh, cap);
+				}
+			}
+			if (!v4) {
+				sh[n] = shi;
+				eh[n] = ehi;
+			}
+			sl[n] = slo;
+			el[n] = elo;
+			n++;
+		}
+
+		Part build() {
+			if (n == 0) {
+				return Part.EMPTY;
+			}
+			return new Part(v4 ? null : Arrays.copyOf(sh, n), Arrays.copyOf(sl, n), v4 ? null : Arrays.copyOf(eh, n), Arrays.copyOf(el, n), n);
+		}
+	}
+
+	/**
+	 * 收集范围，build时排序合并。同一个Builder不能被多个线程同时使用。
+	 */
+	public static final class Builder {
+		// IPv4范围打包为 (开始地址 ^ 0x80000000) << 32 | 结束地址，按开始地址排序
+		private long[] v4 = new long[16];
+		private int n4;
+		private long[] v6 = new long[64];
+		private int n6;
+
+		private Builder() {
+		}
+
+		public Builder add(IpRange range) {
+			if (range.v4) {
+				return addV4((int)range.startLo, (int)range.endLo);
+			}
+			return addV6(range.startHi, range.startLo, range.endHi, range.endLo);
+		}
+
+		/**
+		 * 添加CIDR、"开始-结束"或单个地址，格式同 {@link IpRange#IpRange(String)}。
+		 */
+		public Builder add(String range) {
+			return add(new IpRange(range));
+		}
+
+		public Builder add(IpRecord record) {
+			return add(record.getIpRange());
+		}
+
+		public Builder addAll(Iterable<IpRange> ranges) {
+			for (IpRange range : ranges) {
+				add(range);
+			}
+			return this;
+		}
+
+		/**
+		 * @param start 开始地址，按无符号数处理，大于end时交换
+		 */
+		public Builder addV4(int start, int end) {
+			if (Integer.compareUnsigned(start, end) > 0) {
+				int t = start;
+				start = end;
+				end = t;
+			}
+			if (n4 == v4.length) {
+				v4 = Arrays.copyOf(v4, n4 * 2);
+			}
+			v4[n4++] = ((long)(start ^ Integer.MIN_VALUE) << 32) | (end & 0xFFFFFFFFL);
+			return this;
+		}
+
+		public Builder addV6(long startHi, long startLo, long endHi, long endLo) {
+			if (compare(startHi ^ Long.MIN_VALUE, startLo ^ Long.MIN_VALUE, endHi ^ Long.MIN_VALUE, endLo ^ Long.MIN_VALUE) > 0) {
+				return addV6(endHi, endLo, startHi, startLo);
+			}
+			if (n6 * 4 == v6.length) {
+				v6 = Arrays.copyOf(v6, n6 * 8);
+			}
+			int p = n6++ * 4;
+			v6[p] = startHi ^ Long.MIN_VALUE;
+			v6[p + 1] = startLo ^ Long.MIN_VALUE;
+			v6[p + 2] = endHi ^ Long.MIN_VALUE;
+			v6[p + 3] = endLo ^ Long.MIN_VALUE;
+			return this;
+		}
+
+		public IpRangeSet build() {
+			return new IpRangeSet(buildV4(), buildV6());
+		}
+
+		private Part buildV4() {
+			long[] packed = Arrays.copyOf(v4, n4);
+			Arrays.sort(packed);
+			PartBuilder b = new PartBuilder(true, n4);
+			for (long p : packed) {
+				long start = ((p >>> 32) ^ 0x80000000L) ^ Long.MIN_VALUE;
+				long end = (p & 0xFFFFFFFFL) ^ Long.MIN_VALUE;
+				b.append(V4_HI, start, V4_HI, end);
+			}
+			return b.build();
+		}
+
+		/*
+		 * 两趟稳定的基数排序：先按开始地址的低64位，再按高64位
+		 */
+		private Part buildV6() {
+			int n = n6;
+			long[] keys = new long[n];
+			int[] idx = new int[n];
+			for (int i = 0; i < n; i++) {
+				keys[i] = v6[i * 4 + 1];
+				idx[i] = i;
+			}
+			RadixSort.sort(keys, idx, n);
+			for (int i = 0; i < n; i++) {
+				keys[i] = v6[idx[i] * 4];
+			}
+			RadixSort.sort(keys, idx, n);
+			PartBuilder b = new PartBuilder(false, n);
+			for (int i = 0; i < n; i++) {
+				int p = idx[i] * 4;
+				b.append(v6[p], v6[p + 1], v6[p + 2], v6[p + 3]);
+			}
+			return b.build();
+		}
+	}
+
+	private IpRangeSet(Part v4, Part v6) {
+		this.v4 = v4;
+		this.v6 = v6;
+	}
+
+	public static Builder builder() {
+		return new Builder();
+	}
+
+	public static IpRangeSet of(Iterable<IpRange> ranges) {
+		return builder().addAll(ranges).build();
+	}
+
+	public static IpRangeSet of(IpRange... ranges) {
+		return of(Arrays.asList(ranges));
+	}
+
+	private static int compare(long hi1, long lo1, long hi2, long lo2) {
+		int c = Long.compare(hi1, hi2);
+		return c != 0 ? c : Long.compare(lo1, lo2);
+	}
+
+	private static boolean isMax(long hi, long lo, boolean v4) {
+		return v4 ? lo == V4_MAX : hi == Long.MAX_VALUE && lo == Long.MAX_VALUE;
+	}
+
+	public boolean contains(String ip) {
+		return contains(new IpAddress(ip));
+	}
+
+	/**
+	 * IPv4映射地址按IPv4地址判断。
+	 */
+	public boolean contains(IpAddress ip) {
+		if (ip.isIpv4()) {
+			return contains(ip.intValue());
+		} else if (ip.isIpv6()) {
+			return contains(ip.highBits(), ip.lowBits());
+		}
+		return false;
+	}
+
+	/**
+	 * @param ip IPv4地址，按无符号数处理
+	 */
+	public boolean contains(int ip) {
+		return v4.contains(V4_HI, (ip & 0xFFFFFFFFL) ^ Long.MIN_VALUE);
+	}
+
+	/**
+	 * @param hi IPv6地址的高64位
+	 * @param lo IPv6地址的低64位
+	 */
+	public boolean contains(long hi, long lo) {
+		return v6.contains(hi ^ Long.MIN_VALUE, lo ^ Long.MIN_VALUE);
+	}
+
+	public IpRangeSet union(IpRangeSet other) {
+		return new IpRangeSet(union(v4, other.v4, true), union(v6, other.v6, false));
+	}
+
+	public IpRangeSet intersect(IpRangeSet other) {
+		return new IpRangeSet(intersect(v4, other.v4, true), intersect(v6, other.v6, false));
+	}
+
+	/**
+	 * 属于这个集合、但不属于other的地址。
+	 */
+	public IpRangeSet difference(IpRangeSet other) {
+		return new IpRangeSet(difference(v4, other.v4, true), difference(v6, other.v6, false));
+	}
+
+	private static Part union(Part a, Part b, boolean v4) {
+		if (b.n == 0) {
+			return a;
+		} else if (a.n == 0) {
+			return b;
+		}
+		PartBuilder out = new PartBuilder(v4, a.n + b.n);
+		int i = 0, j = 0;
+		while (i < a.n || j < b.n) {
+			if (j == b.n || (i < a.n && compare(a.sh(i), a.startLo[i], b.sh(j), b.startLo[j]) <= 0)) {
+				out.append(a.sh(i), a.startLo[i], a.eh(i), a.endLo[i]);
+				i++;
+			} else {
+				out.append(b.sh(j), b.startLo[j], b.eh(j), b.endLo[j]);
+				j++;
+			}
+		}
+		return out.build();
+	}
+
+	private static Part intersect(Part a, Part b, boolean v4) {
+		PartBuilder out = new PartBuilder(v4, Math.max(a.n, b.n));
+		int i = 0, j = 0;
+		while (i < a.n && j < b.n) {
+			boolean as = compare(a.sh(i), a.startLo[i], b.sh(j), b.startLo[j]) >= 0;
+			long sh = as ? a.sh(i) : b.sh(j), sl = as ? a.startLo[i] : b.startLo[j];
+			boolean ae = compare(a.eh(i), a.endLo[i], b.eh(j), b.endLo[j]) <= 0;
+			long eh = ae ? a.eh(i) : b.eh(j), el = ae ? a.endLo[i] : b.endLo[j];
+			if (compare(sh, sl, eh, el) <= 0) {
+				out.append(sh, sl, eh, el);
+			}
+			if (ae) {
+				i++;
+			} else {
+				j++;
+			}
+		}
+		return out.build();
+	}
+
+	private static Part difference(Part a, Part b, boolean v4) {
+		if (a.n == 0 || b.n == 0) {
+			return a;
+		}
+		PartBuilder out = new PartBuilder(v4, a.n + b.n);
+		int j = 0;
+		for (int i = 0; i < a.n; i++) {
+			long ch = a.sh(i), cl = a.startLo[i];
+			long eh = a.eh(i), el = a.endLo[i];
+			// 跳过在当前范围之前结束的
+			while (j < b.n && compare(b.eh(j), b.endLo[j], ch, cl) < 0) {
+				j++;
+			}
+			boolean done = false;
+			while (j < b.n && compare(b.sh(j), b.startLo[j], eh, el) <= 0) {
+				if (compare(b.sh(j), b.startLo[j], ch, cl) > 0) {
+					// 输出 [cur, b.start - 1]
+					long pl = b.startLo[j] - 1;
+					long ph = pl == Long.MAX_VALUE ? b.sh(j) - 1 : b.sh(j);
+					out.append(ch, cl, ph, pl);
+				}
+				if (compare(b.eh(j), b.endLo[j], eh, el) >= 0) {
+					// b覆盖到当前范围的末尾，b可能还与下一个范围重叠，不前进j
+					done = true;
+					break;
+				}
+				// cur = b.end + 1
+				cl = b.endLo[j] + 1;
+				ch = cl == Long.MIN_VALUE ? b.eh(j) + 1 : b.eh(j);
+				j++;
+			}
+			if (!done) {
+				out.append(ch, cl, eh, el);
+			}
+		}
+		return out.build();
+	}
+
+	public boolean isEmpty() {
+		return v4.n == 0 && v6.n == 0;
+	}
+
+	/**
+	 * 合并后的范围数。
+	 */
+	public int rangeCount() {
+		return v4.n + v6.n;
+	}
+
+	/**
+	 * 合并后的全部范围，IPv4在前，各自按地址升序排列。
+	 */
+	public List<IpRange> ranges() {
+		List<IpRange> list = new ArrayList<>(rangeCount());
+		for (int i = 0; i < v4.n; i++) {
+			list.add(IpRange.ofV4((int)(v4.startLo[i] ^ Long.MIN_VALUE), (int)(v4.endLo[i] ^ Long.MIN_VALUE)));
+		}
+		for (int i = 0; i < v6.n; i++) {
+			list.add(IpRange.ofV6(v6.startHi[i] ^ Long.MIN_VALUE, v6.startLo[i] ^ Long.MIN_VALUE, v6.endHi[i] ^ Long.MIN_VALUE, v6.endLo[i] ^ Long.MIN_VALUE));
+		}
+		return list;
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (this == o) {
+			return true;
+		}
+		if (!(o instanceof IpRangeSet)) {
+			return false;
+		}
+		IpRangeSet s = (IpRangeSet)o;
+		return equals(v4, s.v4) && equals(v6, s.v6);
+	}
+
+	private static boolean equals(Part a, Part b) {
+		return a.n == b.n && Arrays.equals(a.startLo, 0, a.n, b.startLo, 0, b.n) && Arrays.equals(a.endLo, 0, a.n, b.endLo, 0, b.n)
+			&& (a.startHi == null || b.startHi == null || (Arrays.equals(a.startHi, 0, a.n, b.startHi, 0, b.n) && Arrays.equals(a.endHi, 0, a.n, b.endHi, 0, b.n)));
+	}
+
+	@Override
+	public int hashCode() {
+		int h = 1;
+		for (Part p : new Part[] {v4, v6}) {
+			for (int i = 0; i < p.n; i++) {
+				h = 31 * h + Long.hashCode(p.sh(i) ^ p.startLo[i] ^ Long.rotateLeft(p.eh(i) ^ p.endLo[i], 17));
+			}
+		}
+		return h;
+	}
+
+	@Override
+	public String toString() {
+		return "IpRangeSet[" + v4.n + " IPv4, " + v6.n + " IPv6]";
+	}
+
+}
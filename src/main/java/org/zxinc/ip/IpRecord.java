@@ -16,6 +16,26 @@ public class IpRecord {
 	String org;
 	String desc;
 */
+	public IpAddress getIpAddress() {
+		return ipAddress;
+	}
+
+	public IpRange getIpRange() {
+		return ipRange;
+	}
+
+	public String getCountry() {
+		return country;
+	}
+
+	public String getLocal() {
+		return local;
+	}
+
+	public String getDisplay() {
+		return display;
+	}
+
 	@Override
 	public String toString() {
 		return "Addr: " + ipAddress + ", Range: " + ipRange + ", Display: " + display;
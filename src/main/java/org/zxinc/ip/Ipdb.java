@@ -0,0 +1,774 @@
+package org.zxinc.ip;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Spliterators;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Ipdbv4 与 Ipdbv6 共用的文件头解析和记录区读取。
+ */
+abstract class Ipdb implements Closeable {
+	// 索引未预加载时，批量查询的地址数不少于这个数量、且不少于索引条数的1/BATCH_SCAN_DENSITY时，排序后顺序扫描索引区
+	static final int BATCH_SCAN_THRESHOLD = 1024;
+	static final int BATCH_SCAN_DENSITY = 64;
+	// 顺序扫描索引区时每次读取的条数
+	static final int SCAN_CHUNK = 4096;
+	// 跳转表中包含不少于这么多条索引的前缀才建立第二级子表
+	static final int JUMP_SUB_MIN = 64;
+
+	final IpdbStorage storage;
+	final int total;
+	final long index_start_offset;
+	//final long index_end_offset;
+	final int offlen;
+	final int iplen;
+	// 预加载的记录偏移，偏移长度不超过4时使用int[]
+	int[] index_offs;
+	long[] index_offs_long;
+	// 按开始IP的高jump_bits位建立的跳转表，jump[b]为前缀b的第一个地址所在的索引位置，最后一项为total-1
+	int[] jump;
+	int jump_bits;
+	// 第二级子表，前缀b的子表从jump_sub[jump_sub_index[b]]开始，没有子表时为-1
+	int[] jump_sub_index;
+	int[] jump_sub;
+	int jump_sub_bits;
+	// 建立跳转表时统计的查找比较次数
+	double jump_avg_probes;
+	int jump_max_probes;
+	// 预加载索引的另一种布局，单个地址查找时代替二分查找
+	KeySearch layout;
+	// 单个地址查找的结果缓存
+	PrefixCache cache;
+	// 地址记录缓存，预加载时index_locs保存每条索引的记录编号
+	LocationTable locations;
+	int[] index_locs;
+	// 地址记录到索引位置的倒排索引，第一次按地址查找范围时建立
+	private volatile LocationIndex locationIndex;
+	// 查询统计，未启用时为null
+	final IpdbMetrics metrics;
+	// 从快照打开时不为null，地址记录从快照的字符串表读取，记录偏移即为地址记录编号
+	final IpdbSnapshot snapshot;
+
+	Ipdb(IpdbStorage file, IpdbOptions options) throws IOException {
+		metrics = options.isMetrics() ? new IpdbMetrics(this, options) : null;
+		storage = metrics != null ? new CountingStorage(file, metrics.bytesRead) : file;
+		index_start_offset = storage.read8(16);
+		offlen = storage.read1(6);
+		iplen = storage.read1(7);
+		total = (int)storage.read8(8);
+		//index_end_offset = index_start_offset + (iplen + offlen) * total;
+		snapshot = null;
+	}
+
+	static IpdbStorage open(String dbfile, IpdbOptions options) throws IOException {
+		Path path = Path.of(dbfile);
+		if (Files.notExists(path)) {
+			throw new IOException(dbfile + " does not exist, or is not readable");
+		}
+		return options.isMapped() ? BufferStorage.map(path) : new FileStorage(path);
+	}
+
+	/**
+	 * 类路径中的资源一次读入内存，name为相对于类路径根的路径，比如 "ipv6wry.db"。
+	 */
+	static IpdbStorage openResource(String name) throws IOException {
+		String path = name.startsWith("/") ? name.substring(1) : name;
+		ClassLoader loader = Thread.currentThread().getContextClassLoader();
+		InputStream in = loader != null ? loader.getResourceAsStream(path) : null;
+		if (in == null) {
+			in = Ipdb.class.getClassLoader().getResourceAsStream(path);
+		}
+		if (in == null) {
+			throw new IOException(name + " does not exist in classpath");
+		}
+		try (InputStream is = in) {
+			return new BufferStorage(ByteBuffer.wrap(is.readAllBytes()));
+		}
+	}
+
+	static IpdbStorage openStream(InputStream in) throws IOException {
+		return new BufferStorage(ByteBuffer.wrap(in.readAllBytes()));
+	}
+
+	/*
+	 * 从position到limit之间的内容为数据库文件
+	 */
+	static IpdbStorage openBuffer(ByteBuffer buf) {
+		return new BufferStorage(buf.slice());
+	}
+
+	/**
+	 * 从快照打开，索引和地址记录编号直接复制，地址记录在第一次用到时从字符串表读取。
+	 */
+	Ipdb(IpdbSnapshot snapshot) throws IOException {
+		this.snapshot = snapshot;
+		storage = snapshot.storage;
+		metrics = null;
+		index_start_offset = 0;
+		offlen = 0;
+		iplen = snapshot.iplen;
+		total = snapshot.total;
+		locations = LocationTable.identity(snapshot.locationCount);
+		index_locs = snapshot.readLocationIds();
+	}
+
+	long indexOffset(int pos) {
+		return index_start_offset + (long)pos * (iplen + offlen);
+	}
+
+	ByteBuffer readIndex() throws IOException {
+		if ((long)total * (iplen + offlen) > Integer.MAX_VALUE) {
+			throw new IOException("索引区过大，无法预加载");
+		}
+		return readIndex(0, total);
+	}
+
+	/**
+	 * 读取索引区中从from开始的count条索引。
+	 */
+	ByteBuffer readIndex(int from, int count) throws IOException {
+		ByteBuffer index = ByteBuffer.wrap(storage.readRaw(indexOffset(from), count * (iplen + offlen)));
+		index.order(ByteOrder.LITTLE_ENDIAN);
+		return index;
+	}
+
+	private long offsetAt(ByteBuffer index, int pos) {
+		int p = pos * (iplen + offlen) + iplen;
+		long off = 0;
+		for (int k = offlen - 1; k >= 0; k--) {
+			off = (off << 8) | (index.get(p + k) & 0xFF);
+		}
+		return off;
+	}
+
+	/**
+	 * 一次读入整个索引区并解码记录偏移，返回的缓冲区供子类解码开始IP。
+	 */
+	ByteBuffer preloadIndex() throws IOException {
+		ByteBuffer index = readIndex();
+		if (offlen <= 4) {
+			index_offs = new int[total];
+			for (int i = 0; i < total; i++) {
+				index_offs[i] = (int)offsetAt(index, i);
+			}
+		} else {
+			index_offs_long = new long[total];
+			for (int i = 0; i < total; i++) {
+				index_offs_long[i] = offsetAt(index, i);
+			}
+		}
+		return index;
+	}
+
+	/**
+	 * 按选项建立另一种索引布局，keys为预加载的有序键。
+	 */
+	void initLayout(IpdbOptions options, long[] keys) {
+		if (options.getIndexLayout() == IpdbOptions.IndexLayout.SORTED) {
+			return;
+		}
+		if (keys == null) {
+			throw new IllegalArgumentException("索引布局需要预加载索引");
+		}
+		if (options.getJumpTableBits() != 0) {
+			throw new IllegalArgumentException("跳转表只能用于有序数组");
+		}
+		layout = KeySearch.of(options.getIndexLayout(), keys);
+	}
+
+	void initCache(IpdbOptions options) {
+		int size = options.getQueryCacheSize();
+		if (size < 0 || size > 1 << 26) {
+			throw new IllegalArgumentException("查询缓存大小超出范围: " + size);
+		}
+		if (size > 0) {
+			cache = new PrefixCache(size);
+		}
+	}
+
+	/**
+	 * 注册JMX，需要在子类构造完成前最后调用，避免构造失败时留下注册。
+	 */
+	void initMetrics(IpdbOptions options, String db) {
+		if (metrics != null && options.getJmxName() != null) {
+			metrics.register(options.getJmxName(), db);
+		}
+	}
+
+	/**
+	 * 建立地址记录缓存，需要在子类完成索引预加载之后调用。
+	 */
+	void initLocations(IpdbOptions options) throws IOException {
+		if (options.getLocationCache() == IpdbOptions.LocationCache.NONE) {
+			return;
+		}
+		long[] offs = recordOffsets();
+		LocationTable table = LocationTable.of(offs);
+		// 预加载时用记录编号代替记录偏移
+		if (index_offs != null || index_offs_long != null) {
+			index_locs = new int[total];
+			for (int i = 0; i < total; i++) {
+				index_locs[i] = table.idOf(offs[i]);
+			}
+			index_offs = null;
+			index_offs_long = null;
+		}
+		if (options.getLocationCache() == IpdbOptions.LocationCache.EAGER) {
+			for (int id = 0; id < table.size(); id++) {
+				table.set(id, decodeLocation(table.offset(id)));
+			}
+		}
+		locations = table;
+	}
+
+	/**
+	 * 全部索引的记录偏移，未预加载时一次读入整个索引区。
+	 */
+	long[] recordOffsets() throws IOException {
+		long[] offs = new long[total];
+		if (index_offs != null || index_offs_long != null) {
+			for (int i = 0; i < total; i++) {
+				offs[i] = recordOffset(i);
+			}
+		} else {
+			ByteBuffer index = readIndex();
+			for (int i = 0; i < total; i++) {
+				offs[i] = offsetAt(index, i);
+			}
+		}
+		return offs;
+	}
+
+	long recordOffset(int pos) throws IOException {
+		if (index_locs != null) {
+			return locations.offset(index_locs[pos]);
+		} else if (index_offs != null) {
+			return index_offs[pos] & 0xFFFFFFFFL;
+		} else if (index_offs_long != null) {
+			return index_offs_long[pos];
+		}
+		return storage.read8(indexOffset(pos) + iplen, offlen);
+	}
+
+	/**
+	 * 索引条数，lookup返回的索引位置在0到getTotal()-1之间。
+	 */
+	public int getTotal() {
+		return total;
+	}
+
+	/**
+	 * 查找索引中的开始IP时平均需要比较的次数，按索引条目平均。使用跳转表时为查表后在剩余范围内二分查找的次数。
+	 */
+	public double getAverageProbes() {
+		return jump != null ? jump_avg_probes : probes(total);
+	}
+
+	/**
+	 * 最坏情况下一次查找需要比较开始IP的次数。
+	 */
+	public int getMaxProbes() {
+		return jump != null ? jump_max_probes : probes(total);
+	}
+
+	/**
+	 * 查询统计，未启用时返回null。
+	 */
+	public IpdbMetrics getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * 查询缓存命中的次数，未启用查询缓存时为0。
+	 */
+	public long getCacheHits() {
+		return cache != null ? cache.hits.sum() : 0;
+	}
+
+	/**
+	 * 查询缓存未命中的次数，未启用查询缓存时为0。
+	 */
+	public long getCacheMisses() {
+		return cache != null ? cache.misses.sum() : 0;
+	}
+
+	/**
+	 * 统计跳转表中每一段的比较次数，ranges[i]为第i条索引所在的一段，格式同jumpRange。
+	 */
+	void jumpStats(long[] ranges) {
+		long sum = 0;
+		int max = 0;
+		for (long lr : ranges) {
+			int p = probes((int)lr - (int)(lr >>> 32));
+			sum += p;
+			max = Math.max(max, p);
+		}
+		int n = 1 << jump_bits;
+		for (int b = 0; b < n; b++) {
+			if (jump_sub_index != null && jump_sub_index[b] >= 0) {
+				int s = jump_sub_index[b];
+				for (int c = 0; c < 1 << jump_sub_bits; c++) {
+					max = Math.max(max, probes(jump_sub[s + c + 1] + 1 - jump_sub[s + c]));
+				}
+			} else {
+				max = Math.max(max, probes(jump[b + 1] + 1 - jump[b]));
+			}
+		}
+		jump_avg_probes = ranges.length > 0 ? (double)sum / ranges.length : 0;
+		jump_max_probes = max;
+	}
+
+	/*
+	 * 在n条索引中二分查找的比较次数
+	 */
+	static int probes(int n) {
+		return n <= 1 ? 0 : 32 - Integer.numberOfLeadingZeros(n - 1);
+	}
+
+	/**
+	 * 不同地址记录的个数，地址记录编号在0到getLocationCount()-1之间。未启用地址记录缓存时返回-1。
+	 */
+	public int getLocationCount() {
+		return locations != null ? locations.size() : -1;
+	}
+
+	/**
+	 * 索引位置对应的地址记录编号，需要启用地址记录缓存。
+	 */
+	public int getLocationId(int pos) throws IOException {
+		int id = locationId(pos);
+		if (id < 0) {
+			throw new IllegalStateException("未启用地址记录缓存");
+		}
+		return id;
+	}
+
+	public String getCountry(int pos) throws IOException {
+		return locationAt(pos).country;
+	}
+
+	public String getLocal(int pos) throws IOException {
+		return locationAt(pos).local;
+	}
+
+	public String getDisplay(int pos) throws IOException {
+		return locationAt(pos).display;
+	}
+
+	/**
+	 * 按开始IP的顺序遍历全部索引条目，每条结果的ipAddress为该段的开始IP。
+	 * 条目在遍历时逐个生成，不会一次解码整个索引区；启用地址记录缓存时共享缓存中的字符串。
+	 */
+	public Iterator<IpRecord> iterator() {
+		return Spliterators.iterator(new EntrySpliterator(this, 0, total));
+	}
+
+	/**
+	 * 与iterator()相同，返回的流可以并行执行。读取出错时抛出UncheckedIOException。
+	 */
+	public Stream<IpRecord> entries() {
+		return StreamSupport.stream(new EntrySpliterator(this, 0, total), false);
+	}
+
+	/**
+	 * 导出全部索引条目，见 {@link IpdbExporter}。
+	 *
+	 * @return 导出的条数
+	 */
+	public long export(OutputStream out, IpdbExporter.Format format) throws IOException {
+		return new IpdbExporter(this, format).export(out);
+	}
+
+	/**
+	 * 查找国家或地区包含query中所有词的IP段，比如 "北京 联通"。
+	 * 词以空白分隔，不区分大小写，只要是数据库中某个词的一部分即可匹配。
+	 * 相邻的IP段合并后返回，按开始IP排列。第一次调用时需要读取全部索引和地址记录建立倒排索引。
+	 */
+	public List<IpRange> findRanges(String query) throws IOException {
+		BitSet match = locationIndex().match(query);
+		List<IpRange> ranges = new ArrayList<>();
+		for (int from = match.nextSetBit(0); from >= 0; ) {
+			int to = match.nextClearBit(from);
+			ranges.add(range(from, to - 1));
+			from = match.nextSetBit(to);
+		}
+		return ranges;
+	}
+
+	/**
+	 * 与findRanges相同，结果合并为IpRangeSet，用于大量地址的归属判断。
+	 */
+	public IpRangeSet findRangeSet(String query) throws IOException {
+		return IpRangeSet.of(findRanges(query));
+	}
+
+	/**
+	 * 与findRanges相同，返回匹配的索引位置，按升序排列，不合并。
+	 */
+	public int[] findPositions(String query) throws IOException {
+		return locationIndex().match(query).stream().toArray();
+	}
+
+	/**
+	 * 地址记录编号对应的全部索引位置，按升序排列，需要启用地址记录缓存。
+	 */
+	public int[] getPositions(int locationId) throws IOException {
+		if (locations == null) {
+			throw new IllegalStateException("未启用地址记录缓存");
+		}
+		return locationIndex().positionsOf(locationId);
+	}
+
+	LocationIndex locationIndex() throws IOException {
+		LocationIndex index = locationIndex;
+		if (index == null) {
+			synchronized (this) {
+				index = locationIndex;
+				if (index == null) {
+					index = buildLocationIndex();
+					locationIndex = index;
+				}
+			}
+		}
+		return index;
+	}
+
+	/*
+	 * 启用地址记录缓存时使用缓存中的记录编号，否则临时建立一个记录表
+	 */
+	private LocationIndex buildLocationIndex() throws IOException {
+		int[] ids = new int[total];
+		Location[] locs = allLocations(ids);
+		return new LocationIndex(ids, locs);
+	}
+
+	/**
+	 * 解析全部地址记录，ids中填入每个索引位置的地址记录编号。
+	 * 启用地址记录缓存时使用缓存中的编号，否则临时建立一个记录表。
+	 */
+	Location[] allLocations(int[] ids) throws IOException {
+		long[] offs = recordOffsets();
+		LocationTable table = locations != null ? locations : LocationTable.of(offs);
+		for (int i = 0; i < total; i++) {
+			ids[i] = index_locs != null ? index_locs[i] : table.idOf(offs[i]);
+		}
+		Location[] locs = new Location[table.size()];
+		for (int id = 0; id < locs.length; id++) {
+			locs[id] = locations != null ? locationById(id) : decodeLocation(table.offset(id));
+		}
+		return locs;
+	}
+
+	/**
+	 * 编译为快照文件，见 {@link IpdbSnapshot}。
+	 */
+	public void writeSnapshot(String file) throws IOException {
+		IpdbSnapshot.write(this, Path.of(file));
+	}
+
+	public abstract IpRecord query(String strIp) throws IOException;
+
+	public abstract IpRecord query(IpAddress ip) throws IOException;
+
+	/**
+	 * 异步查询，不阻塞调用线程。数据库在内存中（映射文件或快照）时直接在当前线程查询，返回已完成的future；
+	 * 直接读取文件时，未预加载的索引和未缓存的地址记录通过AsynchronousFileChannel读取，之后的步骤在I/O完成的线程中执行。
+	 * 地址格式错误等异常不会抛出，而是使返回的future异常结束。未预加载索引时异步查询不使用查询缓存。
+	 */
+	public CompletableFuture<IpRecord> queryAsync(String strIp) {
+		IpAddress ip;
+		try {
+			ip = new IpAddress(strIp);
+		} catch (RuntimeException e) {
+			return CompletableFuture.failedFuture(e);
+		}
+		return queryAsync(ip);
+	}
+
+	public abstract CompletableFuture<IpRecord> queryAsync(IpAddress ip);
+
+	/**
+	 * 对地址流做批量异步查询的Flow.Processor，见 {@link IpdbProcessor}。
+	 *
+	 * @param batchSize 每批查询的地址数
+	 */
+	public IpdbProcessor processor(int batchSize) {
+		return new IpdbProcessor(this, batchSize);
+	}
+
+	public abstract String getVersion() throws IOException;
+
+	/**
+	 * 关闭数据库文件。关闭后不能再查询，调用者需要保证没有正在进行的查询，见 {@link IpdbHandle}。
+	 */
+	@Override
+	public void close() throws IOException {
+		if (metrics != null) {
+			metrics.unregister();
+		}
+		storage.close();
+	}
+
+	abstract IpRecord entry(int pos) throws IOException;
+
+	static IpRecord record(IpAddress ip, IpRange range, Location loc) {
+		IpRecord rec = new IpRecord();
+		rec.ipAddress = ip;
+		rec.ipRange = range;
+		rec.country = loc.country;
+		rec.local = loc.local;
+		rec.display = loc.display;
+		return rec;
+	}
+
+	/**
+	 * 索引位置from到to（包含）的IP段。
+	 */
+	abstract IpRange range(int from, int to) throws IOException;
+
+	/**
+	 * 索引位置对应的地址记录编号，未启用缓存时返回-1。
+	 */
+	int locationId(int pos) throws IOException {
+		if (index_locs != null) {
+			return index_locs[pos];
+		} else if (locations != null) {
+			return locations.idOf(recordOffset(pos));
+		}
+		return -1;
+	}
+
+	Location locationAt(int pos) throws IOException {
+		if (locations == null) {
+			return decodeLocation(recordOffset(pos));
+		}
+		return locationById(locationId(pos));
+	}
+
+	Location locationById(int id) throws IOException {
+		Location loc = locations.get(id);
+		if (loc == null) {
+			loc = decodeLocation(locations.offset(id));
+			locations.set(id, loc);
+		}
+		return loc;
+	}
+
+	private Location decodeLocation(long offset) throws IOException {
+		if (snapshot != null) {
+			return snapshot.location((int)offset);
+		}
+		if (metrics != null) {
+			metrics.recordReads.increment();
+		}
+		String[] record = readRecord(offset);
+		return new Location(record[0], record[1]);
+	}
+
+	String[] readRecord(long offset) throws IOException {
+		String[] record = new String[2];
+		byte[] rec0, rec1;
+		int flag = storage.read1(offset);
+		if (flag == 1) {
+			if (metrics != null) {
+				metrics.redirects.increment();
+			}
+			long location_offset = storage.read8(offset + 1, offlen);
+			return readRecord(location_offset);
+		} else {
+			rec0 = readLocation(offset);
+			if (flag == 2) {
+				rec1 = readLocation(offset + offlen + 1);
+			} else {
+				rec1 = readLocation(offset + rec0.length + 1);
+			}
+		}
+		record[0] = new String(rec0, StandardCharsets.UTF_8);
+		record[1] = new String(rec1, StandardCharsets.UTF_8);
+		return record;
+	}
+
+	byte[] readLocation(long offset) throws IOException {
+		if (offset == 0) {
+			return new byte[0];
+		}
+		int flag = storage.read1(offset);
+		// 出错
+		if (flag == 0) {
+			return new byte[0];
+		}
+		// 仍然为重定向
+		if (flag == 2) {
+			if (metrics != null) {
+				metrics.redirects.increment();
+			}
+			offset = storage.read8(offset + 1, offlen);
+			return readLocation(offset);
+		}
+		byte[] location = storage.readStr(offset);
+		return location;
+	}
+
+	/*
+	 * 以下为异步查询的各个步骤，与同步的查找、地址记录解析一一对应
+	 */
+
+	CompletableFuture<IpRecord> queryInline(IpAddress ip) {
+		try {
+			return CompletableFuture.completedFuture(query(ip));
+		} catch (IOException | RuntimeException e) {
+			return CompletableFuture.failedFuture(e);
+		}
+	}
+
+	/**
+	 * 索引位置确定后同时读取IP段和地址记录。启用统计时记录从开始查找到读完记录的时间。
+	 */
+	CompletableFuture<IpRecord> recordAsync(IpAddress ip, CompletableFuture<Integer> find, long start) {
+		return find.thenCompose(pos -> rangeAsync(pos).thenCombine(locationAsync(pos), (range, loc) -> {
+			IpRecord rec = record(ip, range, loc);
+			if (metrics != null) {
+				long nanos = System.nanoTime() - start;
+				if (metrics.lookup(nanos)) {
+					metrics.slowLookup(ip, pos, nanos);
+				}
+			}
+			return rec;
+		}));
+	}
+
+	abstract CompletableFuture<IpRange> rangeAsync(int pos);
+
+	private static long uint(ByteBuffer b, int p, int len) {
+		long v = 0;
+		for (int k = len - 1; k >= 0; k--) {
+			v = (v << 8) | (b.get(p + k) & 0xFF);
+		}
+		return v;
+	}
+
+	/**
+	 * 在索引区的[L, R)中二分查找，读出的开始IP左移shift位后与key按无符号数比较。
+	 */
+	CompletableFuture<Integer> searchAsync(long key, int shift, int L, int R) {
+		if (L + 1 >= R) {
+			return CompletableFuture.completedFuture(L);
+		}
+		int M = (L + R) >>> 1;
+		return storage.readAsync(indexOffset(M), iplen).thenCompose(b -> {
+			if (Long.compareUnsigned(key, uint(b, 0, iplen) << shift) < 0) {
+				return searchAsync(key, shift, L, M);
+			}
+			return searchAsync(key, shift, M, R);
+		});
+	}
+
+	/**
+	 * 读取pos和pos+1两条索引的开始IP（未移位），pos为最后一条时只有一个元素。
+	 */
+	CompletableFuture<long[]> readKeysAsync(int pos) {
+		int entlen = iplen + offlen;
+		boolean next = pos + 1 < total;
+		return storage.readAsync(indexOffset(pos), next ? entlen + iplen : iplen).thenApply(b -> {
+			if (next) {
+				return new long[] {uint(b, 0, iplen), uint(b, entlen, iplen)};
+			}
+			return new long[] {uint(b, 0, iplen)};
+		});
+	}
+
+	private CompletableFuture<Long> recordOffsetAsync(int pos) {
+		if (index_offs != null) {
+			return CompletableFuture.completedFuture(index_offs[pos] & 0xFFFFFFFFL);
+		} else if (index_offs_long != null) {
+			return CompletableFuture.completedFuture(index_offs_long[pos]);
+		}
+		return storage.readAsync(indexOffset(pos) + iplen, offlen).thenApply(b -> uint(b, 0, offlen));
+	}
+
+	private CompletableFuture<Location> locationAsync(int pos) {
+		if (index_locs != null) {
+			return locationByIdAsync(index_locs[pos]);
+		}
+		return recordOffsetAsync(pos).thenCompose(off -> {
+			if (locations != null) {
+				return locationByIdAsync(locations.idOf(off));
+			}
+			return decodeLocationAsync(off);
+		});
+	}
+
+	private CompletableFuture<Location> locationByIdAsync(int id) {
+		Location loc = locations.get(id);
+		if (loc != null) {
+			return CompletableFuture.completedFuture(loc);
+		}
+		return decodeLocationAsync(locations.offset(id)).thenApply(l -> {
+			locations.set(id, l);
+			return l;
+		});
+	}
+
+	private CompletableFuture<Location> decodeLocationAsync(long offset) {
+		if (snapshot != null) {
+			return CompletableFuture.completedFuture(snapshot.location((int)offset));
+		}
+		if (metrics != null) {
+			metrics.recordReads.increment();
+		}
+		return readRecordAsync(offset).thenApply(record -> new Location(record[0], record[1]));
+	}
+
+	private CompletableFuture<String[]> readRecordAsync(long offset) {
+		return storage.readAsync(offset, 1).thenCompose(b -> {
+			int flag = b.get(0) & 0xFF;
+			if (flag == 1) {
+				if (metrics != null) {
+					metrics.redirects.increment();
+				}
+				return storage.readAsync(offset + 1, offlen).thenCompose(o -> readRecordAsync(uint(o, 0, offlen)));
+			}
+			return readLocationAsync(offset).thenCompose(rec0 -> {
+				long next = flag == 2 ? offset + offlen + 1 : offset + rec0.length + 1;
+				return readLocationAsync(next).thenApply(rec1 ->
+					new String[] {new String(rec0, StandardCharsets.UTF_8), new String(rec1, StandardCharsets.UTF_8)});
+			});
+		});
+	}
+
+	private CompletableFuture<byte[]> readLocationAsync(long offset) {
+		if (offset == 0) {
+			return CompletableFuture.completedFuture(new byte[0]);
+		}
+		return storage.readAsync(offset, 1).thenCompose(b -> {
+			int flag = b.get(0) & 0xFF;
+			// 出错
+			if (flag == 0) {
+				return CompletableFuture.completedFuture(new byte[0]);
+			}
+			// 仍然为重定向
+			if (flag == 2) {
+				if (metrics != null) {
+					metrics.redirects.increment();
+				}
+				return storage.readAsync(offset + 1, offlen).thenCompose(o -> readLocationAsync(uint(o, 0, offlen)));
+			}
+			return storage.readStrAsync(offset);
+		});
+	}
+
+}
@@ -0,0 +1,267 @@
+package org.zxinc.ip;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * 把数据库的全部索引条目导出为文本，每行一条：开始IP、结束IP、国家、地区。
+ * 索引按块分给公共ForkJoin线程池并行格式化，再按顺序写出，同时在格式化的块数有上限。
+ *
+ * <pre>
+ * java org.zxinc.ip.IpdbExporter [-4] [-f txt|csv|jsonl] [-o 输出文件] 数据库文件
+ * </pre>
+ * 默认为IPv6数据库、txt格式、输出到标准输出。
+ */
+public class IpdbExporter {
+	/**
+	 * 导出格式，均为UTF-8编码，每行以\n结尾。
+	 */
+	public enum Format {
+		/** 以制表符分隔 */
+		TXT,
+		/** RFC 4180 CSV，必要时用双引号括起 */
+		CSV,
+		/** 每行一个JSON对象：start、end、country、local */
+		JSONL
+	}
+
+	// 每个并行任务格式化的条数
+	static final int CHUNK = 8192;
+
+	private final Ipdb db;
+	private final Format format;
+	private final byte[] head;
+	private final byte sep;
+	private final byte[] tail;
+	// 地址记录编号对应的已经转义的国家和地区，未启用地址记录缓存时为null
+	private final byte[][] fields;
+
+	IpdbExporter(Ipdb db, Format format) throws IOException {
+		this.db = db;
+		this.format = format;
+		switch (format) {
+			case TXT:
+				head = new byte[0];
+				sep = '\t';
+				tail = new byte[] {'\n'};
+				break;
+			case CSV:
+				head = new byte[0];
+				sep = ',';
+				tail = new byte[] {'\n'};
+				break;
+			default:
+				head = "{\"start\":\"".getBytes(StandardCharsets.US_ASCII);
+				sep = ',';
+				tail = new byte[] {'}', '\n'};
+				break;
+		}
+		if (db.locations != null) {
+			fields = new byte[db.locations.size()][];
+			for (int id = 0; id < fields.length; id++) {
+				fields[id] = encode(db.locationById(id));
+			}
+		} else {
+			fields = null;
+		}
+	}
+
+	/**
+	 * 导出全部条目，返回条数。不关闭out。
+	 */
+	long export(OutputStream out) throws IOException {
+		int total = db.getTotal();
+		int window = Math.max(2, ForkJoinPool.getCommonPoolParallelism() * 2);
+		ArrayDeque<ForkJoinTask<byte[]>> pending = new ArrayDeque<>();
+		try {
+			for (int from = 0; from < total; from += CHUNK) {
+				int f = from, t = Math.min(from + CHUNK, total);
+				pending.add(ForkJoinPool.commonPool().submit(() -> format(f, t)));
+				if (pending.size() >= window) {
+					out.write(pending.poll().get());
+				}
+			}
+			while (!pending.isEmpty()) {
+				out.write(pending.poll().get());
+			}
+		} catch (InterruptedException e) {
+			pending.forEach(task -> task.cancel(true));
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException();
+		} catch (ExecutionException e) {
+			pending.forEach(task -> task.cancel(true));
+			Throwable cause = e.getCause();
+			if (cause instanceof IOException) {
+				throw (IOException)cause;
+			} else if (cause instanceof RuntimeException) {
+				throw (RuntimeException)cause;
+			} else if (cause instanceof Error) {
+				throw (Error)cause;
+			}
+			throw new IOException(cause);
+		}
+		out.flush();
+		return total;
+	}
+
+	private long startKey(int pos) throws IOException {
+		if (db instanceof Ipdbv4) {
+			return ((Ipdbv4)db).getRangeStart(pos);
+		}
+		return ((Ipdbv6)db).getRangeStart(pos);
+	}
+
+	private int formatKey(long key, boolean end, byte[] b, int off) {
+		if (db instanceof Ipdbv4) {
+			return IpAddress.formatV4((int)key, b, off);
+		}
+		return IpAddress.formatV6(key, end ? -1L : 0, b, off);
+	}
+
+	/*
+	 * 格式化[from, to)范围内的条目。结束IP取下一条的开始IP减1，每条只读取一次开始IP。
+	 */
+	private byte[] format(int from, int to) throws IOException {
+		int total = db.getTotal();
+		byte[] b = new byte[(to - from) * 96];
+		int off = 0;
+		long start = startKey(from);
+		for (int pos = from; pos < to; pos++) {
+			long next = pos + 1 < total ? startKey(pos + 1) : 0;
+			long end = pos + 1 < total ? next - 1 : -1L;
+			byte[] field = fields != null ? fields[db.locationId(pos)] : encode(db.locationAt(pos));
+			int need = off + head.length + 39 * 2 + 16 + field.length + tail.length;
+			if (need > b.length) {
+				b = Arrays.copyOf(b, Math.max(need, b.length * 2));
+			}
+			System.arraycopy(head, 0, b, off, head.length);
+			off += head.length;
+			off = formatKey(start, false, b, off);
+			off = putSep(b, off, "\",\"end\":\"");
+			off = formatKey(end, true, b, off);
+			off = putSep(b, off, "\",");
+			System.arraycopy(field, 0, b, off, field.length);
+			off += field.length;
+			System.arraycopy(tail, 0, b, off, tail.length);
+			off += tail.length;
+			start = next;
+		}
+		return Arrays.copyOf(b, off);
+	}
+
+	/*
+	 * 写出开始IP与结束IP之间、结束IP与国家之间的分隔，JSON格式时为json
+	 */
+	private int putSep(byte[] b, int off, String json) {
+		if (format != Format.JSONL) {
+			b[off++] = sep;
+			return off;
+		}
+		for (int i = 0; i < json.length(); i++) {
+			b[off++] = (byte)json.charAt(i);
+		}
+		return off;
+	}
+
+	private byte[] encode(Location loc) {
+		StringBuilder sb = new StringBuilder();
+		switch (format) {
+			case TXT:
+				sb.append(loc.country).append('\t').append(loc.local);
+				break;
+			case CSV:
+				csv(sb, loc.country).append(',');
+				csv(sb, loc.local);
+				break;
+			default:
+				json(sb.append("\"country\":"), loc.country).append(',');
+				json(sb.append("\"local\":"), loc.local);
+				break;
+		}
+		return sb.toString().getBytes(StandardCharsets.UTF_8);
+	}
+
+	private static StringBuilder csv(StringBuilder sb, String s) {
+		if (s.indexOf(',') < 0 && s.indexOf('"') < 0 && s.indexOf('\n') < 0 && s.indexOf('\r') < 0) {
+			return sb.append(s);
+		}
+		return sb.append('"').append(s.replace("\"", "\"\"")).append('"');
+	}
+
+	private static StringBuilder json(StringBuilder sb, String s) {
+		sb.append('"');
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			if (c == '"' || c == '\\') {
+				sb.append('\\').append(c);
+			} else if (c < 0x20) {
+				sb.append(String.format("\\u%04x", (int)c));
+			} else {
+				sb.append(c);
+			}
+		}
+		return sb.append('"');
+	}
+
+	private static void usage() {
+		System.err.println("用法: java org.zxinc.ip.IpdbExporter [-4] [-f txt|csv|jsonl] [-o 输出文件] 数据库文件");
+		System.exit(2);
+	}
+
+	public static void main(String[] args) throws IOException {
+		boolean v4 = false;
+		Format format = Format.TXT;
+		String output = null, dbfile = null;
+		for (int i = 0; i < args.length; i++) {
+			String a = args[i];
+			if (a.equals("-4")) {
+				v4 = true;
+			} else if (a.equals("-f") || a.equals("-o")) {
+				if (i + 1 >= args.length) {
+					usage();
+				}
+				String v = args[++i];
+				if (a.equals("-o")) {
+					output = v;
+				} else {
+					try {
+						format = Format.valueOf(v.toUpperCase());
+					} catch (IllegalArgumentException e) {
+						usage();
+					}
+				}
+			} else if (dbfile == null) {
+				dbfile = a;
+			} else {
+				usage();
+			}
+		}
+		if (dbfile == null) {
+			usage();
+		}
+
+		IpdbOptions options = new IpdbOptions()
+			.setMapped(true)
+			.setPreload(true)
+			.setLocationCache(IpdbOptions.LocationCache.EAGER);
+		long start = System.nanoTime();
+		Ipdb db = v4 ? new Ipdbv4(dbfile, options) : new Ipdbv6(dbfile, options);
+		OutputStream os = output == null || output.equals("-") ? System.out : Files.newOutputStream(Path.of(output));
+		long count;
+		try (OutputStream out = new BufferedOutputStream(os, 1 << 16)) {
+			count = db.export(out, format);
+		}
+		System.err.printf("%d 条, %.3f 秒%n", count, (System.nanoTime() - start) / 1e9);
+	}
+
+}
@@ -0,0 +1,398 @@
+package org.zxinc.ip;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * 可以在不停止查询的情况下替换为新数据库文件的句柄。
+ * 新文件在调用reload的线程或后台线程中打开并检查，成功后原子地切换，之后的查询使用新数据库。
+ * 每个数据库实例有引用计数，正在进行的查询结束后才关闭旧文件。查询只做一次CAS，不会因为切换而阻塞。
+ *
+ * <pre>
+ * IpdbHandle&lt;Ipdbv6&gt; handle = IpdbHandle.ofV6("ipv6wry.db", "qqwry.db", options);
+ * handle.watch();
+ * handle.query("2001:db8::1");
+ * try (IpdbHandle.Lease&lt;Ipdbv6&gt; lease = handle.acquire()) {
+ *     Ipdbv6 db = lease.get();
+ *     int pos = db.lookup(hi, lo);   // 索引位置只在同一个实例中有效
+ *     String country = db.getCountry(pos);
+ * }
+ * </pre>
+ */
+public class IpdbHandle<T extends Ipdb> implements Closeable {
+	// 文件改变后等待这么长时间没有新的改变才重新加载，避免读到写了一半的文件
+	static final long WATCH_QUIET_MILLIS = 500;
+
+	/**
+	 * 打开并返回一个新的数据库实例。
+	 */
+	public interface Loader<T> {
+		T load() throws IOException;
+	}
+
+	private static final class Ref<T extends Ipdb> {
+		final T db;
+		// 句柄本身持有一个引用，切换或关闭句柄时释放
+		final AtomicInteger refs = new AtomicInteger(1);
+
+		Ref(T db) {
+			this.db = db;
+		}
+
+		boolean retain() {
+			for (;;) {
+				int n = refs.get();
+				if (n == 0) {
+					return false;
+				}
+				if (refs.compareAndSet(n, n + 1)) {
+					return true;
+				}
+			}
+		}
+
+		void release() throws IOException {
+			if (refs.decrementAndGet() == 0) {
+				db.close();
+			}
+		}
+	}
+
+	/**
+	 * 一次借用的数据库实例，关闭时归还。同一个Lease内多次查询使用的是同一个实例。
+	 */
+	public static final class Lease<T extends Ipdb> implements Closeable {
+		private final Ref<T> ref;
+		private boolean released;
+
+		private Lease(Ref<T> ref) {
+			this.ref = ref;
+		}
+
+		public T get() {
+			return ref.db;
+		}
+
+		@Override
+		public void close() throws IOException {
+			if (!released) {
+				released = true;
+				ref.release();
+			}
+		}
+	}
+
+	/**
+	 * 在借用的数据库实例上执行的操作。
+	 */
+	public interface Query<T, R> {
+		R apply(T db) throws IOException;
+	}
+
+	private final Loader<T> loader;
+	private final AtomicReference<Ref<T>> current = new AtomicReference<>();
+	private final Object reloadLock = new Object();
+	private volatile ExecutorService reloader;
+	private volatile WatchService watcher;
+	private volatile Throwable lastFailure;
+	private volatile boolean closed = false;
+	// ofV4/ofV6 创建时记录的文件，watch()不带参数时监视这些文件
+	private Path[] watchFiles;
+
+	/**
+	 * 立即加载一次，加载失败时抛出异常。
+	 */
+	public IpdbHandle(Loader<T> loader) throws IOException {
+		this.loader = loader;
+		current.set(new Ref<>(validate(loader.load())));
+	}
+
+	public static IpdbHandle<Ipdbv4> ofV4(String dbfile, IpdbOptions options) throws IOException {
+		IpdbOptions opts = new IpdbOptions(options);
+		IpdbHandle<Ipdbv4> handle = new IpdbHandle<>(() -> new Ipdbv4(dbfile, opts));
+		handle.watchFiles = new Path[] {Path.of(dbfile)};
+		return handle;
+	}
+
+	/**
+	 * @param db4file IPv4数据库，可以为null；重新加载时与IPv6数据库一起打开和关闭
+	 */
+	public static IpdbHandle<Ipdbv6> ofV6(String dbfile, String db4file, IpdbOptions options) throws IOException {
+		IpdbOptions opts = new IpdbOptions(options);
+		IpdbHandle<Ipdbv6> handle = new IpdbHandle<>(() -> {
+			Ipdbv4 db4 = db4file != null ? new Ipdbv4(db4file, opts) : null;
+			try {
+				Ipdbv6 db6 = new Ipdbv6(dbfile, db4, opts);
+				db6.closeDbv4 = true;
+				return db6;
+			} catch (IOException | RuntimeException e) {
+				if (db4 != null) {
+					db4.close();
+				}
+				throw e;
+			}
+		});
+		handle.watchFiles = db4file != null ? new Path[] {Path.of(dbfile), Path.of(db4file)} : new Path[] {Path.of(dbfile)};
+		return handle;
+	}
+
+	/*
+	 * 打开后先做一次查询，确认文件完整可用
+	 */
+	private T validate(T db) throws IOException {
+		try {
+			if (db.getTotal() <= 0) {
+				throw new IOException("数据库为空");
+			}
+			db.getVersion();
+			return db;
+		} catch (IOException | RuntimeException e) {
+			db.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * 借用当前的数据库实例，用完后必须关闭返回的Lease。
+	 */
+	public Lease<T> acquire() {
+		for (;;) {
+			Ref<T> ref = current.get();
+			if (ref == null) {
+				throw new IllegalStateException("句柄已关闭");
+			}
+			if (ref.retain()) {
+				return new Lease<>(ref);
+			}
+			// 旧实例已经释放，重新读取current
+		}
+	}
+
+	public <R> R apply(Query<T, R> query) throws IOException {
+		try (Lease<T> lease = acquire()) {
+			return query.apply(lease.get());
+		}
+	}
+
+	public IpRecord query(String ip) throws IOException {
+		return apply(db -> db.query(ip));
+	}
+
+	public IpRecord query(IpAddress ip) throws IOException {
+		return apply(db -> db.query(ip));
+	}
+
+	/**
+	 * 异步查询，见 {@link Ipdb#queryAsync(String)}。查询结束后才归还借用的数据库实例。
+	 */
+	public CompletableFuture<IpRecord> queryAsync(String ip) {
+		Lease<T> lease;
+		try {
+			lease = acquire();
+		} catch (IllegalStateException e) {
+			return CompletableFuture.failedFuture(e);
+		}
+		return lease.get().queryAsync(ip).whenComplete((rec, e) -> {
+			try {
+				lease.close();
+			} catch (IOException x) {
+				throw new UncheckedIOException(x);
+			}
+		});
+	}
+
+	public String getVersion() throws IOException {
+		return apply(Ipdb::getVersion);
+	}
+
+	/**
+	 * 在当前线程加载新数据库并切换。加载或检查失败时保留原来的数据库并抛出异常。
+	 */
+	public void reload() throws IOException {
+		synchronized (reloadLock) {
+			if (closed) {
+				throw new IllegalStateException("句柄已关闭");
+			}
+			Ref<T> ref;
+			try {
+				ref = new Ref<>(validate(loader.load()));
+			} catch (IOException | RuntimeException e) {
+				lastFailure = e;
+				throw e;
+			}
+			lastFailure = null;
+			Ref<T> old = current.getAndSet(ref);
+			old.release();
+		}
+	}
+
+	/**
+	 * 在后台线程加载新数据库并切换，返回的future在切换完成或失败时结束。句柄已关闭时返回失败的future。
+	 */
+	public CompletableFuture<Void> reloadAsync() {
+		ExecutorService ex = reloader();
+		if (ex == null) {
+			return CompletableFuture.failedFuture(new IllegalStateException("句柄已关闭"));
+		}
+		CompletableFuture<Void> future = new CompletableFuture<>();
+		try {
+			ex.execute(() -> {
+				try {
+					reload();
+					future.complete(null);
+				} catch (Throwable e) {
+					future.completeExceptionally(e);
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			// 检查之后句柄被关闭
+			return CompletableFuture.failedFuture(new IllegalStateException("句柄已关闭", e));
+		}
+		return future;
+	}
+
+	/**
+	 * 最近一次重新加载失败的原因，成功后清除。
+	 */
+	public Throwable getLastFailure() {
+		return lastFailure;
+	}
+
+	/*
+	 * 句柄已关闭时返回null。不使用reloadLock，以免在另一次加载进行时阻塞；
+	 * close()先设置closed再在同一个锁内读取reloader，所以关闭后不会再创建线程池
+	 */
+	private ExecutorService reloader() {
+		ExecutorService ex = reloader;
+		if (ex == null) {
+			synchronized (this) {
+				ex = reloader;
+				if (ex == null) {
+					if (closed) {
+						return null;
+					}
+					ex = Executors.newSingleThreadExecutor(r -> {
+						Thread t = new Thread(r, "ipdb-reload");
+						t.setDaemon(true);
+						return t;
+					});
+					reloader = ex;
+				}
+			}
+		}
+		return ex;
+	}
+
+	/**
+	 * 监视ofV4/ofV6打开的文件，文件被替换或修改后自动在后台重新加载。
+	 */
+	public void watch() throws IOException {
+		if (watchFiles == null) {
+			throw new IllegalStateException("请指定要监视的文件");
+		}
+		watch(watchFiles);
+	}
+
+	/**
+	 * 监视指定的文件，任何一个被替换或修改后自动在后台重新加载，失败原因见getLastFailure()。
+	 */
+	public synchronized void watch(Path... files) throws IOException {
+		if (watcher != null) {
+			throw new IllegalStateException("已经在监视文件");
+		}
+		WatchService ws = FileSystems.getDefault().newWatchService();
+		Set<Path> names = new HashSet<>();
+		Set<Path> dirs = new HashSet<>();
+		for (Path file : files) {
+			Path abs = file.toAbsolutePath();
+			names.add(abs);
+			if (dirs.add(abs.getParent())) {
+				abs.getParent().register(ws, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+			}
+		}
+		watcher = ws;
+		Thread t = new Thread(() -> watchLoop(ws, names), "ipdb-watch");
+		t.setDaemon(true);
+		t.start();
+	}
+
+	private void watchLoop(WatchService ws, Set<Path> names) {
+		try {
+			for (;;) {
+				WatchKey key = ws.take();
+				boolean changed = poll(key, names);
+				// 等到文件不再变化
+				while (true) {
+					key = ws.poll(WATCH_QUIET_MILLIS, TimeUnit.MILLISECONDS);
+					if (key == null) {
+						break;
+					}
+					changed |= poll(key, names);
+				}
+				if (changed && !closed) {
+					reloadAsync();
+				}
+			}
+		} catch (InterruptedException | ClosedWatchServiceException e) {
+			// 句柄已关闭
+		}
+	}
+
+	private static boolean poll(WatchKey key, Set<Path> names) {
+		boolean changed = false;
+		Path dir = (Path)key.watchable();
+		for (WatchEvent<?> event : key.pollEvents()) {
+			if (event.context() instanceof Path && names.contains(dir.resolve((Path)event.context()))) {
+				changed = true;
+			}
+		}
+		key.reset();
+		return changed;
+	}
+
+	/**
+	 * 停止监视和后台加载，释放当前数据库。正在进行的查询结束后文件才会关闭。
+	 */
+	@Override
+	public void close() throws IOException {
+		synchronized (reloadLock) {
+			if (closed) {
+				return;
+			}
+			closed = true;
+		}
+		WatchService ws = watcher;
+		if (ws != null) {
+			ws.close();
+		}
+		ExecutorService ex;
+		synchronized (this) {
+			ex = reloader;
+		}
+		if (ex != null) {
+			ex.shutdown();
+		}
+		Ref<T> ref = current.getAndSet(null);
+		if (ref != null) {
+			ref.release();
+		}
+	}
+
+}
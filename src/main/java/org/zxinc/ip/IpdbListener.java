@@ -0,0 +1,33 @@
+package org.zxinc.ip;
+
+/**
+ * 查询的回调，在查询线程中同步调用，实现应尽快返回且不能抛出异常。
+ * 通过 {@link IpdbOptions#setListener(IpdbListener)} 设置后自动启用统计。
+ */
+public interface IpdbListener {
+
+	/**
+	 * 单个地址查找（query或lookup）完成。
+	 *
+	 * @param nanos 查找和生成结果的耗时
+	 */
+	default void onLookup(long nanos) {
+	}
+
+	/**
+	 * 单个地址查找的耗时不少于 {@link IpdbOptions#setSlowLookupNanos(long)}，在onLookup之后调用。
+	 *
+	 * @param pos 查到的索引位置
+	 */
+	default void onSlowLookup(IpAddress ip, int pos, long nanos) {
+	}
+
+	/**
+	 * 一次批量查找完成。
+	 *
+	 * @param count 地址数
+	 */
+	default void onBatch(int count, long nanos) {
+	}
+
+}
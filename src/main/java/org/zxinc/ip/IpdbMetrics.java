@@ -0,0 +1,214 @@
+package org.zxinc.ip;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * 一个数据库实例的查询统计，通过 {@link IpdbOptions#setMetrics(boolean)} 启用，见 {@link Ipdb#getMetrics()}。
+ * 计数器使用LongAdder，多个线程同时查询时不会争用同一个缓存行；未启用时查询路径上只多一次判断。
+ * 重新加载（见 {@link IpdbHandle}）得到的是新实例，统计从0开始。
+ */
+public class IpdbMetrics implements IpdbMetricsMXBean {
+	// 注册到JMX的名称及其所属的实例，重新加载时新实例替换旧实例，旧实例关闭时不会注销新实例
+	private static final Map<ObjectName, IpdbMetrics> registered = new ConcurrentHashMap<>();
+
+	private final Ipdb db;
+	private final IpdbListener listener;
+	private final long slowNanos;
+	final LongAdder lookups = new LongAdder();
+	final LongAdder slowLookups = new LongAdder();
+	final LongAdder batches = new LongAdder();
+	final LongAdder batchAddresses = new LongAdder();
+	final LongAdder recordReads = new LongAdder();
+	final LongAdder redirects = new LongAdder();
+	final LongAdder bytesRead = new LongAdder();
+	final LongAdder latencySum = new LongAdder();
+	private final LatencyHistogram latency = new LatencyHistogram();
+	private ObjectName jmxName;
+	private String name;
+
+	IpdbMetrics(Ipdb db, IpdbOptions options) {
+		this.db = db;
+		this.listener = options.getListener();
+		this.slowNanos = options.getSlowLookupNanos();
+	}
+
+	/**
+	 * 记录一次单个地址查找，返回是否超过慢查询阈值。
+	 */
+	boolean lookup(long nanos) {
+		lookups.increment();
+		latencySum.add(nanos);
+		latency.record(nanos);
+		if (listener != null) {
+			listener.onLookup(nanos);
+		}
+		return nanos >= slowNanos;
+	}
+
+	void slowLookup(IpAddress ip, int pos, long nanos) {
+		slowLookups.increment();
+		if (listener != null) {
+			listener.onSlowLookup(ip, pos, nanos);
+		}
+		SlowLookupEvent event = new SlowLookupEvent();
+		if (event.shouldCommit()) {
+			event.address = ip.toString();
+			event.position = pos;
+			event.lookupTime = nanos;
+			event.database = name != null ? name : db.getClass().getSimpleName();
+			event.commit();
+		}
+	}
+
+	void batch(int count, long nanos) {
+		batches.increment();
+		batchAddresses.add(count);
+		if (listener != null) {
+			listener.onBatch(count, nanos);
+		}
+	}
+
+	/**
+	 * @param db v4或v6，同一个名称下的IPv4和IPv6数据库分别注册
+	 */
+	void register(String name, String db) {
+		try {
+			ObjectName on = new ObjectName("org.zxinc.ip:type=Ipdb,name=" + ObjectName.quote(name) + ",db=" + db);
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			synchronized (registered) {
+				if (server.isRegistered(on)) {
+					server.unregisterMBean(on);
+				}
+				server.registerMBean(this, on);
+				registered.put(on, this);
+			}
+			jmxName = on;
+			this.name = name;
+		} catch (JMException e) {
+			throw new IllegalArgumentException("无法注册JMX: " + name, e);
+		}
+	}
+
+	void unregister() {
+		ObjectName on = jmxName;
+		if (on == null) {
+			return;
+		}
+		synchronized (registered) {
+			if (registered.remove(on, this)) {
+				try {
+					ManagementFactory.getPlatformMBeanServer().unregisterMBean(on);
+				} catch (JMException e) {
+					// 已经被注销
+				}
+			}
+		}
+	}
+
+	@Override
+	public long getLookups() {
+		return lookups.sum();
+	}
+
+	@Override
+	public long getSlowLookups() {
+		return slowLookups.sum();
+	}
+
+	@Override
+	public long getBatches() {
+		return batches.sum();
+	}
+
+	@Override
+	public long getBatchAddresses() {
+		return batchAddresses.sum();
+	}
+
+	@Override
+	public long getRecordReads() {
+		return recordReads.sum();
+	}
+
+	@Override
+	public long getRedirects() {
+		return redirects.sum();
+	}
+
+	@Override
+	public long getBytesRead() {
+		return bytesRead.sum();
+	}
+
+	@Override
+	public long getCacheHits() {
+		return db.getCacheHits();
+	}
+
+	@Override
+	public long getCacheMisses() {
+		return db.getCacheMisses();
+	}
+
+	@Override
+	public double getMeanLatencyNanos() {
+		long n = lookups.sum();
+		return n == 0 ? 0 : latencySum.sum() / (double)n;
+	}
+
+	@Override
+	public long getMaxLatencyNanos() {
+		return latency.max();
+	}
+
+	/**
+	 * 不超过q（0到1）比例的查找耗时，单位纳秒。
+	 */
+	public long getLatencyPercentileNanos(double q) {
+		return latency.percentile(q);
+	}
+
+	@Override
+	public long getLatencyP50Nanos() {
+		return latency.percentile(0.5);
+	}
+
+	@Override
+	public long getLatencyP90Nanos() {
+		return latency.percentile(0.9);
+	}
+
+	@Override
+	public long getLatencyP99Nanos() {
+		return latency.percentile(0.99);
+	}
+
+	@Override
+	public long getLatencyP999Nanos() {
+		return latency.percentile(0.999);
+	}
+
+	/**
+	 * 清零所有计数，查询缓存的计数不受影响。
+	 */
+	@Override
+	public void reset() {
+		lookups.reset();
+		slowLookups.reset();
+		batches.reset();
+		batchAddresses.reset();
+		recordReads.reset();
+		redirects.reset();
+		bytesRead.reset();
+		latencySum.reset();
+		latency.reset();
+	}
+
+}
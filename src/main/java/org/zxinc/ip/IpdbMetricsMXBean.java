@@ -0,0 +1,47 @@
+package org.zxinc.ip;
+
+/**
+ * 通过JMX查看的统计数据，注册名为 org.zxinc.ip:type=Ipdb,name=名称,db=v4或v6，见 {@link IpdbOptions#setJmxName(String)}。
+ * 延迟为单个地址查找的耗时，单位纳秒，百分位数的相对误差不超过1/8。
+ */
+public interface IpdbMetricsMXBean {
+
+	long getLookups();
+
+	long getSlowLookups();
+
+	long getBatches();
+
+	long getBatchAddresses();
+
+	/**
+	 * 从记录区解析地址记录的次数，启用地址记录缓存后只在第一次用到时解析。
+	 */
+	long getRecordReads();
+
+	/**
+	 * 解析地址记录时经过的重定向次数，除以getRecordReads即为平均重定向深度。
+	 */
+	long getRedirects();
+
+	long getBytesRead();
+
+	long getCacheHits();
+
+	long getCacheMisses();
+
+	double getMeanLatencyNanos();
+
+	long getMaxLatencyNanos();
+
+	long getLatencyP50Nanos();
+
+	long getLatencyP90Nanos();
+
+	long getLatencyP99Nanos();
+
+	long getLatencyP999Nanos();
+
+	void reset();
+
+}
@@ -0,0 +1,198 @@
+package org.zxinc.ip;
+
+/**
+ * 打开数据库时的选项。
+ */
+public class IpdbOptions {
+	/**
+	 * 地址记录缓存方式。
+	 */
+	public enum LocationCache {
+		/** 每次查询都从记录区解析 */
+		NONE,
+		/** 第一次查询到时解析并缓存 */
+		LAZY,
+		/** 打开时解析全部记录 */
+		EAGER
+	}
+
+	/**
+	 * 预加载索引的内存布局。
+	 */
+	public enum IndexLayout {
+		/** 有序数组，二分查找 */
+		SORTED,
+		/** Eytzinger（广度优先）顺序，无分支下降 */
+		EYTZINGER,
+		/** 每个节点占一条缓存行的静态B树 */
+		BTREE
+	}
+
+	private boolean mapped = false;
+	private boolean preload = false;
+	private LocationCache locationCache = LocationCache.NONE;
+	private int jumpTableBits = 0;
+	private int jumpTableSubBits = 0;
+	private IndexLayout indexLayout = IndexLayout.SORTED;
+	private int queryCacheSize = 0;
+	private boolean metrics = false;
+	private IpdbListener listener = null;
+	private long slowLookupNanos = 1000000;
+	private String jmxName = null;
+
+	public IpdbOptions() {
+	}
+
+	public IpdbOptions(IpdbOptions options) {
+		mapped = options.mapped;
+		preload = options.preload;
+		locationCache = options.locationCache;
+		jumpTableBits = options.jumpTableBits;
+		jumpTableSubBits = options.jumpTableSubBits;
+		indexLayout = options.indexLayout;
+		queryCacheSize = options.queryCacheSize;
+		metrics = options.metrics;
+		listener = options.listener;
+		slowLookupNanos = options.slowLookupNanos;
+		jmxName = options.jmxName;
+	}
+
+	/**
+	 * 使用内存映射方式读取数据库文件，查询时不再产生系统调用。
+	 */
+	public IpdbOptions setMapped(boolean mapped) {
+		this.mapped = mapped;
+		return this;
+	}
+
+	public boolean isMapped() {
+		return mapped;
+	}
+
+	/**
+	 * 打开时把索引区解码到内存中的数组，查询时不读取索引区，也不产生临时对象。
+	 */
+	public IpdbOptions setPreload(boolean preload) {
+		this.preload = preload;
+		return this;
+	}
+
+	public boolean isPreload() {
+		return preload;
+	}
+
+	/**
+	 * 缓存解析后的地址记录，包括完整的重定向链。同一条记录的查询结果共享同一组字符串。
+	 */
+	public IpdbOptions setLocationCache(LocationCache locationCache) {
+		this.locationCache = locationCache;
+		return this;
+	}
+
+	public LocationCache getLocationCache() {
+		return locationCache;
+	}
+
+	/**
+	 * 打开时按开始IP的高bits位建立跳转表，查找时先查表把范围缩小到同一前缀内再二分查找。
+	 * 0表示不使用。IPv4为1到24位，IPv6为1到28位（IPv6地址高64位中的最高几位），表占用 4*2^bits 字节。
+	 * 未预加载索引时同样可以减少读取索引区的次数。
+	 */
+	public IpdbOptions setJumpTableBits(int bits) {
+		this.jumpTableBits = bits;
+		return this;
+	}
+
+	public int getJumpTableBits() {
+		return jumpTableBits;
+	}
+
+	/**
+	 * 跳转表的第二级。第一级中包含较多索引的前缀，再按接下来的bits位建立一张子表，
+	 * 用于IPv6这类集中在少数前缀中的数据。0表示只用一级，最多16位，每张子表占用 4*2^bits 字节。
+	 * 以ipv6wry.db为例，16/12位时平均比较次数从18次降到约6次。
+	 */
+	public IpdbOptions setJumpTableSubBits(int bits) {
+		this.jumpTableSubBits = bits;
+		return this;
+	}
+
+	public int getJumpTableSubBits() {
+		return jumpTableSubBits;
+	}
+
+	/**
+	 * 单个地址查找时使用的索引布局，需要预加载索引，不能与跳转表同时使用。
+	 * 有序数组仍然保留，用于批量查找和读取开始IP，EYTZINGER与BTREE各自另外占用约1.5倍（IPv6）或3倍（IPv4）的索引内存。
+	 */
+	public IpdbOptions setIndexLayout(IndexLayout indexLayout) {
+		this.indexLayout = indexLayout;
+		return this;
+	}
+
+	public IndexLayout getIndexLayout() {
+		return indexLayout;
+	}
+
+	/**
+	 * 在单个地址查找前加一层缓存，最多保存size条结果，0表示不使用。
+	 * IPv6按高64位缓存，同一个/64内的地址总在同一条索引中；IPv4按/24缓存，只有落在缓存的索引范围内才算命中。
+	 * 缓存属于打开的数据库实例，重新加载后从空缓存开始。命中和未命中的次数见 getCacheHits/getCacheMisses。
+	 */
+	public IpdbOptions setQueryCacheSize(int size) {
+		this.queryCacheSize = size;
+		return this;
+	}
+
+	public int getQueryCacheSize() {
+		return queryCacheSize;
+	}
+
+	/**
+	 * 统计查询次数、延迟分布、解析的记录数和读取的字节数，见 {@link IpdbMetrics}。
+	 * 设置了listener或jmxName时自动启用。未启用时没有额外开销。
+	 */
+	public IpdbOptions setMetrics(boolean metrics) {
+		this.metrics = metrics;
+		return this;
+	}
+
+	public boolean isMetrics() {
+		return metrics || listener != null || jmxName != null;
+	}
+
+	public IpdbOptions setListener(IpdbListener listener) {
+		this.listener = listener;
+		return this;
+	}
+
+	public IpdbListener getListener() {
+		return listener;
+	}
+
+	/**
+	 * 单个地址查找的耗时不少于nanos纳秒时，调用 {@link IpdbListener#onSlowLookup} 并记录JFR事件 org.zxinc.ip.SlowLookup。默认为1毫秒。
+	 */
+	public IpdbOptions setSlowLookupNanos(long nanos) {
+		this.slowLookupNanos = nanos;
+		return this;
+	}
+
+	public long getSlowLookupNanos() {
+		return slowLookupNanos;
+	}
+
+	/**
+	 * 把统计注册到平台MBeanServer，名称为 org.zxinc.ip:type=Ipdb,name=jmxName,db=v4或v6，关闭数据库时注销。
+	 * Ipdbv6和它使用的Ipdbv4可以共用同一个选项，两者按db区分。已有同名的注册时替换，因此重新加载后名称不变。
+	 */
+	public IpdbOptions setJmxName(String jmxName) {
+		this.jmxName = jmxName;
+		return this;
+	}
+
+	public String getJmxName() {
+		return jmxName;
+	}
+
+}
@@ -0,0 +1,258 @@
+package org.zxinc.ip;
+
+import java.util.ArrayDeque;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 为地址流补充查询结果的Flow.Processor，输出的IpRecord与输入的地址一一对应，顺序相同。
+ * 只向上游请求下游需要的地址，已请求但还没有发出的不超过 batchSize * MAX_BATCHES 个。
+ * 收到的地址凑满一批，或者已请求的地址都已收到时，作为一批提交异步查询（见 {@link Ipdb#queryAsync(IpAddress)}），
+ * 同时进行的批次不超过MAX_BATCHES。任何一个地址查询失败时取消上游，向下游发出onError。只支持一个订阅者。
+ *
+ * <pre>
+ * IpdbProcessor enrich = db6.processor(256);
+ * addresses.subscribe(enrich);
+ * enrich.subscribe(subscriber);
+ * </pre>
+ */
+public final class IpdbProcessor implements Flow.Processor<IpAddress, IpRecord> {
+	static final int MAX_BATCHES = 4;
+
+	private static final class Batch {
+		final CompletableFuture<IpRecord[]> future;
+		int next;
+
+		Batch(CompletableFuture<IpRecord[]> future) {
+			this.future = future;
+		}
+	}
+
+	private final Ipdb db;
+	private final int batchSize;
+	private final AtomicBoolean subscribed = new AtomicBoolean();
+	private volatile Flow.Subscription upstream;
+	private volatile Flow.Subscriber<? super IpRecord> downstream;
+	private volatile boolean done;
+	private volatile Throwable error;
+	// 下游违反规范（请求数量不大于0），与上游的error不同，结束前要取消上游
+	private volatile Throwable violation;
+	private volatile boolean cancelled;
+
+	// 收到但还没有提交查询的地址
+	private final ConcurrentLinkedQueue<IpAddress> received = new ConcurrentLinkedQueue<>();
+	private final AtomicLong receivedTotal = new AtomicLong();
+	// 下游累计请求的数量，超过Long.MAX_VALUE时不再增加
+	private final AtomicLong demanded = new AtomicLong();
+	// 以下只在drain中访问，wip保证同一时间只有一个线程执行drain
+	private final AtomicInteger wip = new AtomicInteger();
+	private final ArrayDeque<Batch> batches = new ArrayDeque<>();
+	private long upstreamRequested;
+	private long submitted;
+	private long emitted;
+	private boolean terminated;
+
+	IpdbProcessor(Ipdb db, int batchSize) {
+		if (batchSize <= 0) {
+			throw new IllegalArgumentException("批量大小必须大于0: " + batchSize);
+		}
+		this.db = db;
+		this.batchSize = batchSize;
+	}
+
+	@Override
+	public void subscribe(Flow.Subscriber<? super IpRecord> subscriber) {
+		Objects.requireNonNull(subscriber);
+		if (!subscribed.compareAndSet(false, true)) {
+			subscriber.onSubscribe(new Flow.Subscription() {
+				@Override
+				public void request(long n) {
+				}
+
+				@Override
+				public void cancel() {
+				}
+			});
+			subscriber.onError(new IllegalStateException("只支持一个订阅者"));
+			return;
+		}
+		subscriber.onSubscribe(new Flow.Subscription() {
+			@Override
+			public void request(long n) {
+				if (n <= 0) {
+					violation = new IllegalArgumentException("请求数量必须大于0: " + n);
+					drain();
+					return;
+				}
+				demanded.getAndAccumulate(n, (a, b) -> a + b < 0 ? Long.MAX_VALUE : a + b);
+				drain();
+			}
+
+			@Override
+			public void cancel() {
+				cancelled = true;
+				drain();
+			}
+		});
+		downstream = subscriber;
+		drain();
+	}
+
+	@Override
+	public void onSubscribe(Flow.Subscription subscription) {
+		if (upstream != null || cancelled || violation != null) {
+			subscription.cancel();
+			return;
+		}
+		upstream = subscription;
+		drain();
+	}
+
+	@Override
+	public void onNext(IpAddress item) {
+		received.offer(Objects.requireNonNull(item));
+		receivedTotal.incrementAndGet();
+		drain();
+	}
+
+	@Override
+	public void onError(Throwable throwable) {
+		error = Objects.requireNonNull(throwable);
+		done = true;
+		drain();
+	}
+
+	@Override
+	public void onComplete() {
+		done = true;
+		drain();
+	}
+
+	private CompletableFuture<IpRecord[]> lookup(IpAddress[] ips) {
+		@SuppressWarnings({"unchecked", "rawtypes"})
+		CompletableFuture<IpRecord>[] futures = new CompletableFuture[ips.length];
+		for (int i = 0; i < ips.length; i++) {
+			futures[i] = db.queryAsync(ips[i]);
+		}
+		return CompletableFuture.allOf(futures).thenApply(v -> {
+			IpRecord[] records = new IpRecord[futures.length];
+			for (int i = 0; i < futures.length; i++) {
+				records[i] = futures[i].join();
+			}
+			return records;
+		});
+	}
+
+	private void drain() {
+		if (wip.getAndIncrement() != 0) {
+			return;
+		}
+		int missed = 1;
+		do {
+			if (!terminated) {
+				drainOnce();
+			}
+			missed = wip.addAndGet(-missed);
+		} while (missed != 0);
+	}
+
+	private void drainOnce() {
+		Flow.Subscriber<? super IpRecord> d = downstream;
+		Flow.Subscription up = upstream;
+		if (cancelled) {
+			terminate(up);
+			return;
+		}
+		if (d == null) {
+			return;
+		}
+		if (violation != null) {
+			terminate(up);
+			d.onError(violation);
+			return;
+		}
+		if (error != null) {
+			terminate(up);
+			d.onError(error);
+			return;
+		}
+
+		// 查询失败时不等下游请求，立即结束
+		for (Batch b : batches) {
+			if (b.future.isCompletedExceptionally()) {
+				Throwable e;
+				try {
+					b.future.join();
+					continue;
+				} catch (CompletionException x) {
+					e = x.getCause() != null ? x.getCause() : x;
+				} catch (RuntimeException x) {
+					e = x;
+				}
+				terminate(up);
+				d.onError(e);
+				return;
+			}
+		}
+
+		// 按顺序发出已经完成的结果
+		long demand = demanded.get();
+		while (emitted < demand && !batches.isEmpty()) {
+			Batch b = batches.peek();
+			if (!b.future.isDone()) {
+				break;
+			}
+			IpRecord[] records = b.future.join();
+			d.onNext(records[b.next++]);
+			emitted++;
+			if (b.next == records.length) {
+				batches.poll();
+			}
+		}
+
+		// 凑满一批，或者已请求的都已收到时提交查询
+		long total = receivedTotal.get();
+		long pending = total - submitted;
+		while (pending > 0 && batches.size() < MAX_BATCHES && (pending >= batchSize || total == upstreamRequested || done)) {
+			IpAddress[] ips = new IpAddress[(int)Math.min(pending, batchSize)];
+			for (int i = 0; i < ips.length; i++) {
+				ips[i] = received.poll();
+			}
+			submitted += ips.length;
+			pending -= ips.length;
+			Batch b = new Batch(lookup(ips));
+			batches.add(b);
+			b.future.whenComplete((r, e) -> drain());
+		}
+
+		if (up != null && !done) {
+			long limit = Math.min(demand, emitted + (long)batchSize * MAX_BATCHES);
+			long want = limit - upstreamRequested;
+			if (want > 0) {
+				upstreamRequested += want;
+				up.request(want);
+			}
+		}
+
+		if (done && submitted == receivedTotal.get() && batches.isEmpty()) {
+			terminated = true;
+			d.onComplete();
+		}
+	}
+
+	private void terminate(Flow.Subscription up) {
+		terminated = true;
+		if (up != null && !done) {
+			up.cancel();
+		}
+		received.clear();
+		batches.clear();
+	}
+
+}
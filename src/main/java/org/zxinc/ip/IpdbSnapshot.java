@@ -0,0 +1,256 @@
+package org.zxinc.ip;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32C;
+
+/**
+ * 预编译的数据库快照，打开时不需要解码索引，也不需要解析重定向。
+ * 所有数据为小端序，各段按8字节对齐：
+ * <pre>
+ * 文件头    128字节，见下面的HDR_*常量
+ * 开始IP    total个int（IPv4）或long（IPv6，高64位），符号位取反，与预加载的数组相同
+ * 记录编号  total个int，每条索引对应的地址记录编号
+ * 地址记录  locationCount条，每条为国家、地区在字符串表中的偏移和长度，共4个int
+ * 字符串表  去重后的UTF-8字符串
+ * </pre>
+ * 整个文件有CRC32C校验（计算时校验值字段为0），打开时还检查文件头中各段的位置和大小。
+ * 版本号不同的快照不能打开，需要重新编译。
+ *
+ * <pre>
+ * java org.zxinc.ip.IpdbSnapshot [-4] 数据库文件 快照文件
+ * </pre>
+ */
+public class IpdbSnapshot {
+	static final long MAGIC = 0x50414E5350495A58L; // "ZXIPSNAP"
+	// 版本2起校验整个文件，包括文件头
+	static final int VERSION = 2;
+	static final int HEADER_SIZE = 128;
+
+	private static final int HDR_MAGIC = 0;
+	private static final int HDR_VERSION = 8;
+	private static final int HDR_FAMILY = 12;
+	private static final int HDR_IPLEN = 16;
+	private static final int HDR_TOTAL = 20;
+	private static final int HDR_LOCATIONS = 24;
+	private static final int HDR_CRC = 28;
+	private static final int HDR_KEYS = 32;
+	private static final int HDR_IDS = 40;
+	private static final int HDR_LOCS = 48;
+	private static final int HDR_STRINGS = 56;
+	private static final int HDR_SIZE = 64;
+
+	final BufferStorage storage;
+	final int family;
+	final int iplen;
+	final int total;
+	final int locationCount;
+	private final ByteBuffer buf;
+	private final int keys;
+	private final int ids;
+	private final int locs;
+	private final int strings;
+
+	private IpdbSnapshot(ByteBuffer buf, Path path) throws IOException {
+		this.buf = buf.order(ByteOrder.LITTLE_ENDIAN);
+		this.storage = new BufferStorage(buf);
+		if (buf.limit() < HEADER_SIZE || buf.getLong(HDR_MAGIC) != MAGIC) {
+			throw new IOException(path + " 不是快照文件");
+		}
+		if (buf.getInt(HDR_VERSION) != VERSION) {
+			throw new IOException(path + " 快照版本不支持: " + buf.getInt(HDR_VERSION));
+		}
+		if (buf.getLong(HDR_SIZE) != buf.limit()) {
+			throw new IOException(path + " 快照文件不完整");
+		}
+		if (crc(buf) != buf.getInt(HDR_CRC)) {
+			throw new IOException(path + " 快照校验失败");
+		}
+		family = buf.getInt(HDR_FAMILY);
+		iplen = buf.getInt(HDR_IPLEN);
+		total = buf.getInt(HDR_TOTAL);
+		locationCount = buf.getInt(HDR_LOCATIONS);
+		long k = buf.getLong(HDR_KEYS), i = buf.getLong(HDR_IDS), l = buf.getLong(HDR_LOCS), s = buf.getLong(HDR_STRINGS);
+		if (!(family == 4 && iplen == 4 || family == 6 && iplen >= 1 && iplen <= 8)) {
+			throw new IOException(path + " 快照文件头错误: family=" + family + ", iplen=" + iplen);
+		}
+		// 各段依次排列，每段能放下total条索引或locationCount条地址记录
+		if (total <= 0 || locationCount <= 0 || k < HEADER_SIZE
+				|| i < k + (long)total * (family == 4 ? 4 : 8)
+				|| l < i + (long)total * 4
+				|| s < l + (long)locationCount * 16
+				|| s > buf.limit()) {
+			throw new IOException(path + " 快照文件头错误");
+		}
+		keys = (int)k;
+		ids = (int)i;
+		locs = (int)l;
+		strings = (int)s;
+		for (int id = 0; id < locationCount; id++) {
+			for (int p = locs + id * 16; p < locs + id * 16 + 16; p += 8) {
+				long off = buf.getInt(p), len = buf.getInt(p + 4);
+				if (off < 0 || len < 0 || strings + off + len > buf.limit()) {
+					throw new IOException(path + " 快照地址记录错误: " + id);
+				}
+			}
+		}
+	}
+
+	/*
+	 * 整个文件的CRC32C，校验值字段按0计算
+	 */
+	static int crc(ByteBuffer buf) {
+		CRC32C crc = new CRC32C();
+		crc.update(buf.duplicate().position(0).limit(HDR_CRC));
+		crc.update(new byte[4]);
+		crc.update(buf.duplicate().position(HDR_CRC + 4));
+		return (int)crc.getValue();
+	}
+
+	static IpdbSnapshot open(Path path) throws IOException {
+		if (Files.notExists(path)) {
+			throw new IOException(path + " does not exist, or is not readable");
+		}
+		try (FileChannel ch = FileChannel.open(path, StandardOpenOption.READ)) {
+			long size = ch.size();
+			if (size > Integer.MAX_VALUE) {
+				throw new IOException(path + " is too large to be mapped");
+			}
+			return new IpdbSnapshot(ch.map(FileChannel.MapMode.READ_ONLY, 0, size), path);
+		}
+	}
+
+	void readKeys(int[] dst) {
+		buf.duplicate().order(ByteOrder.LITTLE_ENDIAN).position(keys).asIntBuffer().get(dst, 0, total);
+	}
+
+	void readKeys(long[] dst) {
+		buf.duplicate().order(ByteOrder.LITTLE_ENDIAN).position(keys).asLongBuffer().get(dst, 0, total);
+	}
+
+	int[] readLocationIds() throws IOException {
+		int[] dst = new int[total];
+		buf.duplicate().order(ByteOrder.LITTLE_ENDIAN).position(ids).asIntBuffer().get(dst);
+		for (int id : dst) {
+			if (id < 0 || id >= locationCount) {
+				throw new IOException("快照记录编号错误: " + id);
+			}
+		}
+		return dst;
+	}
+
+	Location location(int id) {
+		int p = locs + id * 16;
+		return new Location(string(buf.getInt(p), buf.getInt(p + 4)), string(buf.getInt(p + 8), buf.getInt(p + 12)));
+	}
+
+	private String string(int off, int len) {
+		byte[] b = new byte[len];
+		buf.get(strings + off, b);
+		return new String(b, StandardCharsets.UTF_8);
+	}
+
+	private static int align(int n) {
+		return (n + 7) & ~7;
+	}
+
+	/**
+	 * 把已经打开的数据库写成快照，先写入临时文件再替换，正在使用旧快照的进程不受影响。
+	 */
+	static void write(Ipdb db, Path path) throws IOException {
+		int total = db.getTotal();
+		int[] locIds = new int[total];
+		Location[] locations = db.allLocations(locIds);
+
+		// 字符串去重
+		Map<String, Integer> offsets = new HashMap<>();
+		int[] refs = new int[locations.length * 4];
+		int stringsLen = 0;
+		for (int id = 0; id < locations.length; id++) {
+			String[] fields = {locations[id].country, locations[id].local};
+			for (int f = 0; f < 2; f++) {
+				int len = fields[f].getBytes(StandardCharsets.UTF_8).length;
+				Integer off = offsets.get(fields[f]);
+				if (off == null) {
+					off = stringsLen;
+					offsets.put(fields[f], off);
+					stringsLen += len;
+				}
+				refs[id * 4 + f * 2] = off;
+				refs[id * 4 + f * 2 + 1] = len;
+			}
+		}
+
+		boolean v4 = db instanceof Ipdbv4;
+		int keys = HEADER_SIZE;
+		int ids = align(keys + total * (v4 ? 4 : 8));
+		int locs = align(ids + total * 4);
+		int strings = align(locs + refs.length * 4);
+		long size = (long)strings + stringsLen;
+		if (size > Integer.MAX_VALUE) {
+			throw new IOException("快照过大");
+		}
+		ByteBuffer buf = ByteBuffer.allocate((int)size).order(ByteOrder.LITTLE_ENDIAN);
+		buf.putLong(HDR_MAGIC, MAGIC);
+		buf.putInt(HDR_VERSION, VERSION);
+		buf.putInt(HDR_FAMILY, v4 ? 4 : 6);
+		buf.putInt(HDR_IPLEN, db.iplen);
+		buf.putInt(HDR_TOTAL, total);
+		buf.putInt(HDR_LOCATIONS, locations.length);
+		buf.putLong(HDR_KEYS, keys);
+		buf.putLong(HDR_IDS, ids);
+		buf.putLong(HDR_LOCS, locs);
+		buf.putLong(HDR_STRINGS, strings);
+		buf.putLong(HDR_SIZE, size);
+		for (int pos = 0; pos < total; pos++) {
+			if (v4) {
+				buf.putInt(keys + pos * 4, ((Ipdbv4)db).getRangeStart(pos) ^ Integer.MIN_VALUE);
+			} else {
+				buf.putLong(keys + pos * 8, ((Ipdbv6)db).getRangeStart(pos) ^ Long.MIN_VALUE);
+			}
+			buf.putInt(ids + pos * 4, locIds[pos]);
+		}
+		for (int i = 0; i < refs.length; i++) {
+			buf.putInt(locs + i * 4, refs[i]);
+		}
+		for (Map.Entry<String, Integer> e : offsets.entrySet()) {
+			buf.put(strings + e.getValue(), e.getKey().getBytes(StandardCharsets.UTF_8));
+		}
+		buf.putInt(HDR_CRC, crc(buf));
+
+		Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+		Files.write(tmp, buf.array());
+		Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	private static void usage() {
+		System.err.println("用法: java org.zxinc.ip.IpdbSnapshot [-4] 数据库文件 快照文件");
+		System.exit(2);
+	}
+
+	public static void main(String[] args) throws IOException {
+		boolean v4 = args.length > 0 && args[0].equals("-4");
+		int i = v4 ? 1 : 0;
+		if (args.length - i != 2) {
+			usage();
+		}
+		IpdbOptions options = new IpdbOptions()
+			.setMapped(true)
+			.setPreload(true)
+			.setLocationCache(IpdbOptions.LocationCache.EAGER);
+		long start = System.nanoTime();
+		Ipdb db = v4 ? new Ipdbv4(args[i], options) : new Ipdbv6(args[i], options);
+		db.writeSnapshot(args[i + 1]);
+		System.err.printf("%d 条, %d 个地址记录, %.3f 秒%n", db.getTotal(), db.getLocationCount(), (System.nanoTime() - start) / 1e9);
+	}
+
+}
@@ -0,0 +1,79 @@
+package org.zxinc.ip;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * 数据库文件的底层读取接口，所有数据均为小端序。
+ * 实现不能依赖文件指针等可变状态，同一个实例会被多个线程同时使用。
+ */
+abstract class IpdbStorage implements Closeable {
+
+	abstract long size();
+
+	/**
+	 * 数据是否已经在内存中，读取时不会阻塞在文件I/O上。
+	 */
+	boolean isResident() {
+		return true;
+	}
+
+	abstract int read1(long offset) throws IOException;
+
+	abstract byte[] readRaw(byte[] b, long offset, int size) throws IOException;
+
+	byte[] readRaw(long offset, int size) throws IOException {
+		byte[] b = new byte[size];
+		return readRaw(b, offset, size);
+	}
+
+	long read8(long offset) throws IOException {
+		return read8(offset, 8);
+	}
+
+	long read8(long offset, int size) throws IOException {
+		byte[] b = new byte[8];
+		readRaw(b, offset, size);
+		ByteBuffer buffer = ByteBuffer.wrap(b);
+		buffer.order(ByteOrder.LITTLE_ENDIAN);
+		return buffer.getLong();
+	}
+
+	byte[] readStr(long offset) throws IOException {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		int ch = read1(offset);
+		while (ch != 0) {
+			baos.write(ch);
+			offset++;
+			ch = read1(offset);
+		}
+		return baos.toByteArray();
+	}
+
+	/**
+	 * 异步读取size字节，结果为小端序的缓冲区。默认在当前线程读取，返回已完成的future。
+	 */
+	CompletableFuture<ByteBuffer> readAsync(long offset, int size) {
+		try {
+			return CompletableFuture.completedFuture(ByteBuffer.wrap(readRaw(offset, size)).order(ByteOrder.LITTLE_ENDIAN));
+		} catch (IOException e) {
+			return CompletableFuture.failedFuture(e);
+		}
+	}
+
+	/**
+	 * 异步读取以0结尾的字符串，默认在当前线程读取。
+	 */
+	CompletableFuture<byte[]> readStrAsync(long offset) {
+		try {
+			return CompletableFuture.completedFuture(readStr(offset));
+		} catch (IOException e) {
+			return CompletableFuture.failedFuture(e);
+		}
+	}
+
+}
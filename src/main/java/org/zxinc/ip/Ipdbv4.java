@@ -1,182 +1,527 @@
 package org.zxinc.ip;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.RandomAccessFile;
+import java.io.InputStream;
+import java.net.Inet4Address;
+import java.net.InetAddress;
 import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
-import java.nio.charset.StandardCharsets;
-import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
 
-public class Ipdbv4 {
-	private RandomAccessFile file;
-	private int total;
-	private long index_start_offset;
-	//private long index_end_offset;
-	private int offlen;
-	private int iplen;
+public class Ipdbv4 extends Ipdb {
+	// 预加载的开始IP，符号位取反后存储，可以直接用有符号数比较
+	private int[] index_ips;
 
 	public Ipdbv4(String dbfile) throws IOException {
-		init(dbfile);
+		this(dbfile, new IpdbOptions());
 	}
 
-	private void init(String dbfile) throws IOException {
-		Path path = Path.of(dbfile);
-		if (Files.notExists(path)) {
-			throw new IOException(dbfile + " does not exist, or is not readable");
+	public Ipdbv4(String dbfile, IpdbOptions options) throws IOException {
+		this(open(dbfile, options), options);
+	}
+
+	private Ipdbv4(IpdbStorage file, IpdbOptions options) throws IOException {
+		super(file, options);
+		if (iplen != 4) {
+			throw new IOException("不支持的IP地址长度: " + iplen);
+		}
+		if (options.isPreload()) {
+			ByteBuffer index = preloadIndex();
+			int entlen = iplen + offlen;
+			index_ips = new int[total];
+			for (int i = 0, p = 0; i < total; i++, p += entlen) {
+				index_ips[i] = decodeKey(index, p) ^ Integer.MIN_VALUE;
+			}
+		}
+		if (options.getJumpTableBits() != 0) {
+			buildJumpTable(options.getJumpTableBits(), options.getJumpTableSubBits());
+		}
+		initCache(options);
+		initLayout(options, index_ips != null ? KeySearch.widen(index_ips) : null);
+		initLocations(options);
+		initMetrics(options, "v4");
+	}
+
+	private Ipdbv4(IpdbSnapshot snapshot) throws IOException {
+		super(snapshot);
+		if (snapshot.family != 4) {
+			throw new IOException("不是IPv4数据库的快照");
 		}
-		file = new RandomAccessFile(dbfile, "r");
-		index_start_offset = read8(16);
-		offlen = read1(6);
-		iplen = read1(7);
-		total = (int)read8(8);
-		//index_end_offset = index_start_offset + (iplen + offlen) * total;
+		index_ips = new int[total];
+		snapshot.readKeys(index_ips);
+	}
+
+	/**
+	 * 打开由 {@link #writeSnapshot(String)} 生成的快照文件，索引已经预加载，并启用地址记录缓存。
+	 */
+	public static Ipdbv4 openSnapshot(String file) throws IOException {
+		return new Ipdbv4(IpdbSnapshot.open(Path.of(file)));
+	}
+
+	/**
+	 * 从类路径中的资源一次读入内存，不需要临时文件，比如打包在jar中的数据库。
+	 *
+	 * @param name 相对于类路径根的路径
+	 */
+	public static Ipdbv4 fromResource(String name) throws IOException {
+		return fromResource(name, new IpdbOptions());
+	}
+
+	public static Ipdbv4 fromResource(String name, IpdbOptions options) throws IOException {
+		return new Ipdbv4(openResource(name), options);
 	}
 
+	/**
+	 * 一次读完输入流并在内存中打开，不关闭输入流。
+	 */
+	public static Ipdbv4 fromStream(InputStream in, IpdbOptions options) throws IOException {
+		return new Ipdbv4(openStream(in), options);
+	}
+
+	/**
+	 * 在内存中打开，不复制数组，打开后不能再修改data。
+	 */
+	public static Ipdbv4 fromBytes(byte[] data, IpdbOptions options) throws IOException {
+		return new Ipdbv4(openBuffer(ByteBuffer.wrap(data)), options);
+	}
+
+	/**
+	 * 在内存中打开buf的position到limit之间的内容，不复制，也不改变buf的position。
+	 */
+	public static Ipdbv4 fromBuffer(ByteBuffer buf, IpdbOptions options) throws IOException {
+		return new Ipdbv4(openBuffer(buf), options);
+	}
+
+	@Override
 	public IpRecord query(String strIp) throws IOException {
 		IpAddress ip = new IpAddress(strIp);
 		return query(ip);
 	}
 
+	@Override
 	public IpRecord query(IpAddress ip) throws IOException {
 		if (!ip.isValid()) {
 			throw new IllegalArgumentException("错误或不完整的IP地址");
 		} else if (ip.isIpv4()) {
-			int ip_find = find(ip, 0, total);
-			long ip_offset = index_start_offset + ip_find * (iplen + offlen);
-			long ip_offset2 = ip_offset + iplen + offlen;
-			byte[] b_ip_start = readRaw(ip_offset, iplen);
-			IpAddress ip_start = IpAddress.fromBytesV4LE(b_ip_start);
-			IpAddress ip_end;
-			try {
-				byte[] b_ip_end = readRaw(ip_offset2, iplen);
-				ip_end = IpAddress.fromBytesV4LE(b_ip_end);
-				ip_end.subOne();
-			} catch (IOException e) {
-				ip_end = new IpAddress("255.255.255.255");
-			}
-			long ip_record_offset = read8(ip_offset + iplen, offlen);
-			String[] ip_addr = readRecord(ip_record_offset);
-			String ip_addr_disp = ip_addr[0] + " " + ip_addr[1];
-
-			IpRecord rec = new IpRecord();
-			rec.ipAddress = ip;
-			rec.ipRange = new IpRange(ip_start, ip_end);
-			rec.country = ip_addr[0];
-			rec.local = ip_addr[1];
-			rec.display = ip_addr_disp;
+			if (metrics == null) {
+				return record(ip, find(ip.intValue()));
+			}
+			long start = System.nanoTime();
+			int pos = find(ip.intValue());
+			IpRecord rec = record(ip, pos);
+			long nanos = System.nanoTime() - start;
+			if (metrics.lookup(nanos)) {
+				metrics.slowLookup(ip, pos, nanos);
+			}
 			return rec;
 		} else {
 			throw new IllegalArgumentException("不支持的IP地址类型");
 		}
 	}
 
+	/**
+	 * 以下直接传入IPv4地址，不经过字符串。字节数组和缓冲区中为网络字节序的4字节地址，读取时不复制。
+	 *
+	 * @param ip IPv4地址，按无符号数处理
+	 */
+	public IpRecord query(int ip) throws IOException {
+		return query(IpAddress.fromInt(ip));
+	}
+
+	public IpRecord query(byte[] b, int off) throws IOException {
+		return query(IpAddress.readInt(b, off));
+	}
+
+	/**
+	 * @param index 地址在缓冲区中的绝对位置，不改变缓冲区的position
+	 */
+	public IpRecord query(ByteBuffer buf, int index) throws IOException {
+		return query(IpAddress.readInt(buf, index));
+	}
+
+	/**
+	 * 只支持Inet4Address，InetAddress只能取得地址的副本。
+	 */
+	public IpRecord query(InetAddress addr) throws IOException {
+		return query(inet4(addr));
+	}
+
+	public int lookup(byte[] b, int off) throws IOException {
+		return lookup(IpAddress.readInt(b, off));
+	}
+
+	public int lookup(ByteBuffer buf, int index) throws IOException {
+		return lookup(IpAddress.readInt(buf, index));
+	}
+
+	public int lookup(InetAddress addr) throws IOException {
+		return lookup(inet4(addr));
+	}
+
+	private static int inet4(InetAddress addr) {
+		if (!(addr instanceof Inet4Address)) {
+			throw new IllegalArgumentException("不支持的IP地址类型");
+		}
+		return IpAddress.readInt(addr.getAddress(), 0);
+	}
+
+	@Override
+	IpRecord entry(int pos) throws IOException {
+		return record(IpAddress.fromInt(getRangeStart(pos)), pos);
+	}
+
+	@Override
+	IpRange range(int from, int to) throws IOException {
+		return IpRange.ofV4(getRangeStart(from), getRangeEnd(to));
+	}
+
+	IpRecord record(IpAddress ip, int ip_find) throws IOException {
+		return record(ip, range(ip_find, ip_find), locationAt(ip_find));
+	}
+
+	@Override
+	public CompletableFuture<IpRecord> queryAsync(IpAddress ip) {
+		if (storage.isResident() || !ip.isValid() || !ip.isIpv4()) {
+			return queryInline(ip);
+		}
+		long start = metrics != null ? System.nanoTime() : 0;
+		if (index_ips != null) {
+			// 预加载的索引在内存中，查找不会读文件
+			CompletableFuture<Integer> pos;
+			try {
+				pos = CompletableFuture.completedFuture(find(ip.intValue()));
+			} catch (IOException e) {
+				pos = CompletableFuture.failedFuture(e);
+			}
+			return recordAsync(ip, pos, start);
+		}
+		long lr = jump != null ? jumpRange(ip.intValue()) : total;
+		return recordAsync(ip, searchAsync(ip.intValue() & 0xFFFFFFFFL, 0, (int)(lr >>> 32), (int)lr), start);
+	}
+
+	@Override
+	CompletableFuture<IpRange> rangeAsync(int pos) {
+		if (index_ips != null) {
+			int end = pos + 1 < total ? (index_ips[pos + 1] ^ Integer.MIN_VALUE) - 1 : -1;
+			return CompletableFuture.completedFuture(IpRange.ofV4(index_ips[pos] ^ Integer.MIN_VALUE, end));
+		}
+		return readKeysAsync(pos).thenApply(k -> IpRange.ofV4((int)k[0], k.length > 1 ? (int)k[1] - 1 : -1));
+	}
+
+	@Override
 	public String getVersion() throws IOException {
 		return query("255.255.255.255").display;
 	}
 
-	private int find(IpAddress ip, int L, int R) throws IOException {
-		if (L + 1 >= R) {
-			return L;
+	/**
+	 * 查找IP地址所在的索引位置，不产生临时对象。
+	 * 结果可以传给 getRangeStart/getRangeEnd/getCountry/getLocal/getDisplay/getLocationId。
+	 *
+	 * @param ip IPv4地址，按无符号数比较
+	 */
+	public int lookup(int ip) throws IOException {
+		if (metrics == null) {
+			return find(ip);
 		}
-		int M = (L + R) / 2;
-		byte[] mip = readRaw(index_start_offset + M * (iplen + offlen), iplen);
-		IpAddress aip = IpAddress.fromBytesV4LE(mip);
-		if (ip.compareTo(aip) < 0) {
-			return find(ip, L, M);
-		} else {
-			return find(ip, M, R);
+		long start = System.nanoTime();
+		int pos = find(ip);
+		long nanos = System.nanoTime() - start;
+		if (metrics.lookup(nanos)) {
+			metrics.slowLookup(IpAddress.fromInt(ip), pos, nanos);
 		}
+		return pos;
+	}
+
+	public int getRangeStart(int pos) throws IOException {
+		return keyAt(pos);
+	}
 
+	public int getRangeEnd(int pos) throws IOException {
+		if (pos + 1 < total) {
+			return keyAt(pos + 1) - 1;
+		}
+		return -1;
 	}
 
-	private String[] readRecord(long offset) throws IOException {
-		String[] record = new String[2];
-		byte[] rec0, rec1;
-		int flag = read1(offset);
-		if (flag == 1) {
-			long location_offset = read8(offset + 1, offlen);
-			return readRecord(location_offset);
+	/**
+	 * 批量查找，out[i]为ips[i]所在的索引位置，结果与逐个调用lookup相同。
+	 * 预加载索引时：已经有序的地址与索引做一次归并；否则每4个地址交替进行无分支的二分查找，重叠各自的缓存未命中。
+	 * 未预加载索引时：地址较多则先基数排序，再分块顺序读取索引区做一次归并，地址较少则逐个查找。
+	 *
+	 * @param ips IP地址
+	 */
+	public void lookupBatch(int[] ips, int[] out) throws IOException {
+		lookupBatch(ips, out, ips.length);
+	}
+
+	public void lookupBatch(int[] ips, int[] out, int n) throws IOException {
+		if (metrics == null) {
+			batch(ips, out, n);
+			return;
+		}
+		long start = System.nanoTime();
+		batch(ips, out, n);
+		metrics.batch(n, System.nanoTime() - start);
+	}
+
+	/**
+	 * 按地址记录分组计数，见 {@link IpAggregator}。构造时读取全部索引和地址记录。
+	 */
+	public IpAggregator aggregator(IpAggregator.Key key) throws IOException {
+		return new IpAggregator(null, this, key);
+	}
+
+	private void batch(int[] ips, int[] out, int n) throws IOException {
+		boolean scan = index_ips == null && n >= BATCH_SCAN_THRESHOLD && n >= total / BATCH_SCAN_DENSITY;
+		if (index_ips == null && !scan) {
+			for (int i = 0; i < n; i++) {
+				out[i] = find(ips[i]);
+			}
+			return;
+		}
+		int[] keys = new int[n];
+		boolean sorted = true;
+		for (int i = 0; i < n; i++) {
+			keys[i] = ips[i] ^ Integer.MIN_VALUE;
+			if (i > 0 && keys[i - 1] > keys[i]) {
+				sorted = false;
+			}
+		}
+		if (scan) {
+			int[] idx = null;
+			if (!sorted) {
+				idx = new int[n];
+				for (int i = 0; i < n; i++) {
+					idx[i] = i;
+				}
+				RadixSort.sort(keys, idx, n);
+			}
+			scanBatch(keys, idx, out, n);
+		} else if (sorted) {
+			mergeBatch(keys, out, n);
 		} else {
-			rec0 = readLocation(offset);
-			if (flag == 2) {
-				rec1 = readLocation(offset + offlen + 1);
-			} else {
-				rec1 = readLocation(offset + rec0.length + 1);
+			interleavedBatch(keys, out, n);
+		}
+	}
+
+	/*
+	 * 索引未预加载，keys已经升序：分块顺序读取整个索引区，与keys做一次归并，结果按idx写回原来的位置
+	 */
+	private void scanBatch(int[] keys, int[] idx, int[] out, int n) throws IOException {
+		int entlen = iplen + offlen;
+		ByteBuffer chunk = null;
+		int chunk_start = 0, chunk_end = 0;
+		int p = 0, next = 1;
+		for (int i = 0; i < n; i++) {
+			int key = keys[i];
+			while (next < total) {
+				if (next >= chunk_end) {
+					chunk_start = next;
+					chunk_end = Math.min(total, next + SCAN_CHUNK);
+					chunk = readIndex(chunk_start, chunk_end - chunk_start);
+				}
+				if (key < (decodeKey(chunk, (next - chunk_start) * entlen) ^ Integer.MIN_VALUE)) {
+					break;
+				}
+				p = next++;
 			}
+			out[idx != null ? idx[i] : i] = p;
 		}
-		record[0] = new String(rec0, StandardCharsets.UTF_8);
-		record[1] = new String(rec1, StandardCharsets.UTF_8);
-		return record;
 	}
 
-	private byte[] readLocation(long offset) throws IOException {
-		if (offset == 0) {
-			return new byte[0];
+	/*
+	 * keys已经升序，与预加载的索引做一次归并
+	 */
+	private void mergeBatch(int[] keys, int[] out, int n) {
+		int[] starts = index_ips;
+		int p = 0;
+		for (int i = 0; i < n; i++) {
+			int key = keys[i];
+			if (p + 1 < total && key >= starts[p + 1]) {
+				// 从上一个结果开始指数搜索，再在最后一段内二分
+				int L = p + 1, R = L + 1, step = 1;
+				while (R < total && key >= starts[R]) {
+					L = R;
+					step <<= 1;
+					R = L + step;
+				}
+				if (R > total) {
+					R = total;
+				}
+				while (L + 1 < R) {
+					int M = (L + R) >>> 1;
+					if (key < starts[M]) {
+						R = M;
+					} else {
+						L = M;
+					}
+				}
+				p = L;
+			}
+			out[i] = p;
 		}
-		int flag = read1(offset);
-		// 出错
-		if (flag == 0) {
-			return new byte[0];
+	}
+
+	private void interleavedBatch(int[] keys, int[] out, int n) {
+		int[] starts = index_ips;
+		int i = 0;
+		for (; i + 4 <= n; i += 4) {
+			int k0 = keys[i], k1 = keys[i + 1], k2 = keys[i + 2], k3 = keys[i + 3];
+			int b0 = 0, b1 = 0, b2 = 0, b3 = 0;
+			int len = total;
+			while (len > 1) {
+				int half = len >>> 1;
+				b0 = k0 >= starts[b0 + half] ? b0 + half : b0;
+				b1 = k1 >= starts[b1 + half] ? b1 + half : b1;
+				b2 = k2 >= starts[b2 + half] ? b2 + half : b2;
+				b3 = k3 >= starts[b3 + half] ? b3 + half : b3;
+				len -= half;
+			}
+			out[i] = b0;
+			out[i + 1] = b1;
+			out[i + 2] = b2;
+			out[i + 3] = b3;
 		}
-		// 仍然为重定向
-		if (flag == 2) {
-			offset = read8(offset + 1, offlen);
-			return readLocation(offset);
+		for (; i < n; i++) {
+			int k = keys[i];
+			int b = 0;
+			for (int len = total; len > 1; ) {
+				int half = len >>> 1;
+				b = k >= starts[b + half] ? b + half : b;
+				len -= half;
+			}
+			out[i] = b;
 		}
-		byte[] location = readStr(offset);
-		return location;
 	}
 
-	private byte[] readRaw(byte[] b, long offset, int size) throws IOException {
-		if (offset >= 0) {
-			file.seek(offset);
-		}
-		file.read(b, 0, size);
-		return b;
+	private int decodeKey(ByteBuffer index, int p) {
+		return index.getInt(p);
 	}
 
-	private byte[] readRaw(long offset, int size) throws IOException {
-		byte[] b = new byte[size];
-		return readRaw(b, offset, size);
+	private void buildJumpTable(int bits, int subBits) throws IOException {
+		if (bits < 1 || bits > 24 || subBits < 0 || subBits > 16 || bits + subBits > 32) {
+			throw new IllegalArgumentException("跳转表位数超出范围: " + bits + "/" + subBits);
+		}
+		// 未预加载时一次读入索引区
+		ByteBuffer index = index_ips == null ? readIndex() : null;
+		int n = 1 << bits;
+		int[] table = new int[n + 1];
+		fillJump(table, 0, n, 0, 32 - bits, 0, index);
+		table[n] = total - 1;
+		int[] sub_index = null, sub = null;
+		if (subBits > 0) {
+			int m = 1 << subBits;
+			sub_index = new int[n];
+			int count = 0;
+			for (int b = 0; b < n; b++) {
+				sub_index[b] = table[b + 1] - table[b] >= JUMP_SUB_MIN ? count++ * (m + 1) : -1;
+			}
+			sub = new int[count * (m + 1)];
+			for (int b = 0; b < n; b++) {
+				int s = sub_index[b];
+				if (s >= 0) {
+					fillJump(sub, s, m, b << (32 - bits), 32 - bits - subBits, table[b], index);
+					sub[s + m] = table[b + 1];
+				}
+			}
+		}
+		jump_bits = bits;
+		jump_sub_bits = subBits;
+		jump_sub_index = sub_index;
+		jump_sub = sub;
+		jump = table;
+		long[] ranges = new long[total];
+		for (int pos = 0; pos < total; pos++) {
+			ranges[pos] = jumpRange(jumpKey(index, pos));
+		}
+		jumpStats(ranges);
 	}
 
-	private int read1(long offset) throws IOException {
-		if (offset >= 0) {
-			file.seek(offset);
+	/*
+	 * table[off + i] 为开始IP不大于 base + (i << shift) 的最后一条索引，从pos开始向后查找
+	 */
+	private void fillJump(int[] table, int off, int n, int base, int shift, int pos, ByteBuffer index) {
+		for (int i = 0; i < n; i++) {
+			int start = base + (i << shift);
+			while (pos + 1 < total && Integer.compareUnsigned(jumpKey(index, pos + 1), start) <= 0) {
+				pos++;
+			}
+			table[off + i] = pos;
 		}
-		return file.read();
 	}
 
-	//private long read4(long offset) throws IOException {
-	//	byte[] b = readRaw(offset, 4);
-	//	ByteBuffer buffer = ByteBuffer.wrap(b);
-	//	buffer.order(ByteOrder.LITTLE_ENDIAN);
-	//	return buffer.getInt() & 0xFFFFFFFFL;
-	//}
+	private int jumpKey(ByteBuffer index, int pos) {
+		return index != null ? decodeKey(index, pos * (iplen + offlen)) : index_ips[pos] ^ Integer.MIN_VALUE;
+	}
+
+	/*
+	 * 跳转表中包含ip的一段索引 [L, R)，返回 (L << 32) | R
+	 */
+	private long jumpRange(int ip) {
+		int b = ip >>> (32 - jump_bits);
+		int[] t = jump;
+		int i = b;
+		if (jump_sub_index != null && jump_sub_index[b] >= 0) {
+			t = jump_sub;
+			i = jump_sub_index[b] + ((ip << jump_bits) >>> (32 - jump_sub_bits));
+		}
+		return ((long)t[i] << 32) | (t[i + 1] + 1);
+	}
 
-	private long read8(long offset) throws IOException {
-		return read8(offset, 8);
+	private int keyAt(int pos) throws IOException {
+		if (index_ips != null) {
+			return index_ips[pos] ^ Integer.MIN_VALUE;
+		}
+		return (int)storage.read8(indexOffset(pos), iplen);
 	}
 
-	private long read8(long offset, int size) throws IOException {
-		byte[] b = new byte[8];
-		readRaw(b, offset, size);
-		ByteBuffer buffer = ByteBuffer.wrap(b);
-		buffer.order(ByteOrder.LITTLE_ENDIAN);
-		return buffer.getLong();
+	private int find(int ip) throws IOException {
+		if (cache == null) {
+			return search(ip);
+		}
+		// 按/24缓存，同一个/24可能分属几条索引，地址落在缓存的索引范围内才算命中
+		long prefix = ip >>> 8;
+		long key = ip ^ Integer.MIN_VALUE;
+		int pos = cache.get(prefix, key);
+		if (pos < 0) {
+			pos = search(ip);
+			cache.put(prefix, getRangeStart(pos) ^ Integer.MIN_VALUE, getRangeEnd(pos) ^ Integer.MIN_VALUE, pos);
+		}
+		return pos;
 	}
 
-	private byte[] readStr(long offset) throws IOException {
-		ByteArrayOutputStream baos = new ByteArrayOutputStream();
-		int ch = read1(offset);
-		while (ch != 0) {
-			baos.write(ch);
-			offset++;
-			ch = read1(offset);
+	private int search(int ip) throws IOException {
+		if (layout != null) {
+			return layout.find(ip ^ Integer.MIN_VALUE);
+		}
+		int L = 0, R = total;
+		if (jump != null) {
+			long lr = jumpRange(ip);
+			L = (int)(lr >>> 32);
+			R = (int)lr;
+		}
+		if (index_ips != null) {
+			int[] ips = index_ips;
+			int key = ip ^ Integer.MIN_VALUE;
+			while (L + 1 < R) {
+				int M = (L + R) >>> 1;
+				if (key < ips[M]) {
+					R = M;
+				} else {
+					L = M;
+				}
+			}
+			return L;
+		}
+		while (L + 1 < R) {
+			int M = (L + R) >>> 1;
+			if (Integer.compareUnsigned(ip, keyAt(M)) < 0) {
+				R = M;
+			} else {
+				L = M;
+			}
 		}
-		return baos.toByteArray();
+		return L;
 	}
 
 }
@@ -0,0 +1,33 @@
+package org.zxinc.ip;
+
+/**
+ * 预加载索引的另一种内存布局，查找结果与在有序数组上二分查找相同。
+ * 键为符号位取反后的开始IP，IPv4的键扩展为long，仍按有符号数比较。
+ */
+abstract class KeySearch {
+
+	/**
+	 * 返回开始IP不大于key的最后一条索引的位置，key小于所有开始IP时返回0。
+	 */
+	abstract int find(long key);
+
+	static KeySearch of(IpdbOptions.IndexLayout layout, long[] sorted) {
+		switch (layout) {
+			case EYTZINGER:
+				return new EytzingerSearch(sorted);
+			case BTREE:
+				return new BTreeSearch(sorted);
+			default:
+				return null;
+		}
+	}
+
+	static long[] widen(int[] keys) {
+		long[] wide = new long[keys.length];
+		for (int i = 0; i < keys.length; i++) {
+			wide[i] = keys[i];
+		}
+		return wide;
+	}
+
+}
@@ -0,0 +1,97 @@
+package org.zxinc.ip;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+
+/**
+ * 对数线性的延迟直方图：每个2的幂区间再等分为8个桶，相对误差不超过1/8，共约500个桶。
+ * 记录只是一次原子加，不分配对象。按线程把计数分到多组桶中，多线程同时记录时不争用同一个计数，读取时再加起来。
+ */
+final class LatencyHistogram {
+	private static final int SUB_BITS = 3;
+	private static final int SUB = 1 << SUB_BITS;
+	private static final int BUCKETS = (64 - SUB_BITS + 1) * SUB;
+	// 不小于CPU数的2的幂，最多64组
+	private static final int STRIPES = Math.min(64, Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors() * 2 - 1)));
+
+	private final AtomicLongArray[] counts = new AtomicLongArray[STRIPES];
+	private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+	LatencyHistogram() {
+		for (int s = 0; s < STRIPES; s++) {
+			counts[s] = new AtomicLongArray(BUCKETS);
+		}
+	}
+
+	static int bucket(long v) {
+		if (v < SUB) {
+			return (int)Math.max(v, 0);
+		}
+		int e = 63 - Long.numberOfLeadingZeros(v);
+		return (e - SUB_BITS + 1) * SUB + (int)((v >>> (e - SUB_BITS)) & (SUB - 1));
+	}
+
+	/**
+	 * 桶中的最大值。
+	 */
+	static long upper(int bucket) {
+		if (bucket < SUB) {
+			return bucket;
+		}
+		int e = bucket / SUB + SUB_BITS - 1;
+		long low = (long)(SUB + bucket % SUB) << (e - SUB_BITS);
+		return low + (1L << (e - SUB_BITS)) - 1;
+	}
+
+	private static int stripe() {
+		long h = Thread.currentThread().getId() * 0x9E3779B97F4A7C15L;
+		return (int)(h >>> 58) & (STRIPES - 1);
+	}
+
+	void record(long nanos) {
+		counts[stripe()].incrementAndGet(bucket(nanos));
+		max.accumulate(nanos);
+	}
+
+	long max() {
+		return max.get();
+	}
+
+	/**
+	 * 不超过q（0到1）比例的记录所在桶的上界，没有记录时为0。
+	 */
+	long percentile(double q) {
+		long[] c = new long[BUCKETS];
+		long n = 0;
+		for (AtomicLongArray a : counts) {
+			for (int i = 0; i < BUCKETS; i++) {
+				c[i] += a.get(i);
+			}
+		}
+		for (int i = 0; i < BUCKETS; i++) {
+			n += c[i];
+		}
+		if (n == 0) {
+			return 0;
+		}
+		long rank = Math.max(1, (long)Math.ceil(q * n));
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += c[i];
+			if (seen >= rank) {
+				return Math.min(upper(i), max());
+			}
+		}
+		return max();
+	}
+
+	void reset() {
+		for (AtomicLongArray a : counts) {
+			for (int i = 0; i < BUCKETS; i++) {
+				a.set(i, 0);
+			}
+		}
+		max.reset();
+	}
+
+}
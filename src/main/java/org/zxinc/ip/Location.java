@@ -0,0 +1,18 @@
+package org.zxinc.ip;
+
+/**
+ * 记录区中的一条地址记录，重定向已经解析完毕。
+ * 不可变，同一条记录的所有查询结果共享同一组字符串。
+ */
+final class Location {
+	final String country;
+	final String local;
+	final String display;
+
+	Location(String country, String local) {
+		this.country = country;
+		this.local = local;
+		this.display = country + " " + local;
+	}
+
+}
@@ -0,0 +1,112 @@
+package org.zxinc.ip;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * 地址记录到索引位置的倒排索引。
+ * 每个地址记录对应按升序排列的索引位置；国家和地区按空白拆分成词，每个词对应包含它的地址记录。
+ */
+final class LocationIndex {
+	// 地址记录编号id的索引位置为 positions[starts[id]..starts[id+1])
+	private final int[] starts;
+	private final int[] positions;
+	// 按字典序排列的词，以及每个词出现在哪些地址记录中
+	private final String[] tokens;
+	private final int[][] tokenLocs;
+	private final int total;
+
+	/**
+	 * @param ids 每个索引位置的地址记录编号
+	 * @param locs 地址记录编号对应的地址记录
+	 */
+	LocationIndex(int[] ids, Location[] locs) {
+		total = ids.length;
+		starts = new int[locs.length + 1];
+		for (int id : ids) {
+			starts[id + 1]++;
+		}
+		for (int id = 0; id < locs.length; id++) {
+			starts[id + 1] += starts[id];
+		}
+		positions = new int[total];
+		int[] fill = Arrays.copyOf(starts, locs.length);
+		for (int pos = 0; pos < total; pos++) {
+			positions[fill[ids[pos]]++] = pos;
+		}
+
+		Map<String, BitSet> map = new HashMap<>();
+		for (int id = 0; id < locs.length; id++) {
+			for (String field : new String[] {locs[id].country, locs[id].local}) {
+				for (String token : tokenize(field)) {
+					map.computeIfAbsent(token, k -> new BitSet()).set(id);
+				}
+			}
+		}
+		tokens = map.keySet().toArray(new String[0]);
+		Arrays.sort(tokens);
+		tokenLocs = new int[tokens.length][];
+		for (int i = 0; i < tokens.length; i++) {
+			tokenLocs[i] = map.get(tokens[i]).stream().toArray();
+		}
+	}
+
+	static List<String> tokenize(String s) {
+		List<String> list = new ArrayList<>();
+		for (String token : s.strip().split("\\s+")) {
+			if (!token.isEmpty()) {
+				list.add(token.toLowerCase(Locale.ROOT));
+			}
+		}
+		return list;
+	}
+
+	int locationCount() {
+		return starts.length - 1;
+	}
+
+	/**
+	 * 地址记录编号对应的索引位置，按升序排列。
+	 */
+	int[] positionsOf(int id) {
+		return Arrays.copyOfRange(positions, starts[id], starts[id + 1]);
+	}
+
+	/**
+	 * 查找国家或地区中包含query里所有词的地址记录，词的比较不区分大小写，只需是某个词的一部分。
+	 * 结果为这些地址记录的全部索引位置，按升序排列。
+	 */
+	BitSet match(String query) {
+		BitSet locs = null;
+		for (String term : tokenize(query)) {
+			BitSet hit = new BitSet(locationCount());
+			for (int i = 0; i < tokens.length; i++) {
+				if (tokens[i].contains(term)) {
+					for (int id : tokenLocs[i]) {
+						hit.set(id);
+					}
+				}
+			}
+			if (locs == null) {
+				locs = hit;
+			} else {
+				locs.and(hit);
+			}
+		}
+		BitSet result = new BitSet(total);
+		if (locs != null) {
+			for (int id = locs.nextSetBit(0); id >= 0; id = locs.nextSetBit(id + 1)) {
+				for (int k = starts[id]; k < starts[id + 1]; k++) {
+					result.set(positions[k]);
+				}
+			}
+		}
+		return result;
+	}
+
+}
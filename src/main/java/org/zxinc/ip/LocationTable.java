@@ -0,0 +1,69 @@
+package org.zxinc.ip;
+
+import java.util.Arrays;
+
+/**
+ * 记录偏移到地址记录的映射表。
+ * 索引区中所有不同的记录偏移按升序排列，数组下标即为地址记录的编号。
+ * 地址记录可以在打开时全部解析，也可以在第一次用到时解析。
+ */
+final class LocationTable {
+	private final long[] offsets;
+	private final Location[] locations;
+
+	LocationTable(long[] offsets) {
+		this.offsets = offsets;
+		this.locations = new Location[offsets.length];
+	}
+
+	/**
+	 * 从未排序、可能重复的记录偏移构造。
+	 */
+	static LocationTable of(long[] offs) {
+		long[] sorted = offs.clone();
+		Arrays.sort(sorted);
+		int n = 0;
+		for (int i = 0; i < sorted.length; i++) {
+			if (n == 0 || sorted[i] != sorted[n - 1]) {
+				sorted[n++] = sorted[i];
+			}
+		}
+		return new LocationTable(Arrays.copyOf(sorted, n));
+	}
+
+	/**
+	 * 记录偏移与编号相同的映射表，用于快照。
+	 */
+	static LocationTable identity(int n) {
+		long[] offs = new long[n];
+		for (int i = 0; i < n; i++) {
+			offs[i] = i;
+		}
+		return new LocationTable(offs);
+	}
+
+	int size() {
+		return offsets.length;
+	}
+
+	int idOf(long offset) {
+		int id = Arrays.binarySearch(offsets, offset);
+		return id >= 0 ? id : -1;
+	}
+
+	long offset(int id) {
+		return offsets[id];
+	}
+
+	Location get(int id) {
+		return locations[id];
+	}
+
+	/*
+	 * Location的字段都是final的，多个线程同时写入同一位置是安全的，最多重复解析一次。
+	 */
+	void set(int id, Location location) {
+		locations[id] = location;
+	}
+
+}
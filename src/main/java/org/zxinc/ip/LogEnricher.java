@@ -0,0 +1,389 @@
+package org.zxinc.ip;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * 给文本/CSV/TSV格式的访问日志逐行加上IP地址的国家和地区。
+ * 读取、解析、查询、写出分别在各自的线程中进行，线程之间通过有界队列按批传递，内存占用与输入大小无关。
+ *
+ * <pre>
+ * java org.zxinc.ip.LogEnricher -6 ipv6wry.db [-4 qqwry.db] [-f 列号] [-d 分隔符] [-o 输出文件] [输入文件|-]
+ * </pre>
+ * 输入文件以 .gz 结尾时自动解压，不指定或为 - 时读取标准输入。列号从1开始，默认为1。
+ * 分隔符可以是单个字符或 tab、space、csv，默认为空格。
+ * 没有IPv4数据库时，IPv4地址和IPv4映射地址的结果与 {@link Ipdbv6#query(String)} 相同；无法解析的地址两列为空。
+ */
+public class LogEnricher {
+	static final int BATCH_SIZE = 1024;
+	static final int QUEUE_SIZE = 16;
+
+	private static final Batch END = new Batch();
+
+	private final Ipdbv6 db6;
+	private final Ipdbv4 db4;
+	private final int column;
+	private final char delimiter;
+	private final boolean quoted;
+	private volatile Throwable failure;
+
+	/**
+	 * @param db6 IPv6数据库，可以为null
+	 * @param db4 IPv4数据库，可以为null
+	 * @param column IP地址所在的列，从0开始
+	 * @param delimiter 列分隔符，为','时支持双引号括起的列
+	 */
+	public LogEnricher(Ipdbv6 db6, Ipdbv4 db4, int column, char delimiter) {
+		this.db6 = db6;
+		this.db4 = db4;
+		this.column = column;
+		this.delimiter = delimiter;
+		this.quoted = delimiter == ',';
+	}
+
+	private static final class Batch {
+		final String[] lines = new String[BATCH_SIZE];
+		final int[] family = new int[BATCH_SIZE];
+		final long[] hi = new long[BATCH_SIZE];
+		final long[] lo = new long[BATCH_SIZE];
+		final String[] country = new String[BATCH_SIZE];
+		final String[] local = new String[BATCH_SIZE];
+		int size;
+	}
+
+	/**
+	 * 处理所有输入行，返回处理的行数。
+	 */
+	public long run(BufferedReader in, Writer out) throws IOException {
+		failure = null;
+		BlockingQueue<Batch> parsed = new ArrayBlockingQueue<>(QUEUE_SIZE);
+		BlockingQueue<Batch> read = new ArrayBlockingQueue<>(QUEUE_SIZE);
+		BlockingQueue<Batch> looked = new ArrayBlockingQueue<>(QUEUE_SIZE);
+		// 所有批次在各阶段之间循环使用
+		BlockingQueue<Batch> free = new ArrayBlockingQueue<>(QUEUE_SIZE * 3 + 3);
+		for (int i = 0; i < QUEUE_SIZE * 3 + 3; i++) {
+			free.add(new Batch());
+		}
+		Thread[] stages = {
+			stage("enrich-parse", () -> {
+				for (Batch b = take(read); b != END; b = take(read)) {
+					parse(b);
+					put(parsed, b);
+				}
+				put(parsed, END);
+			}),
+			stage("enrich-lookup", () -> {
+				for (Batch b = take(parsed); b != END; b = take(parsed)) {
+					lookup(b);
+					put(looked, b);
+				}
+				put(looked, END);
+			}),
+			stage("enrich-write", () -> {
+				for (Batch b = take(looked); b != END; b = take(looked)) {
+					write(b, out);
+					put(free, b);
+				}
+				out.flush();
+			})
+		};
+		long lines = 0;
+		try {
+			while (true) {
+				Batch b = take(free);
+				if (b == END) {
+					break;
+				}
+				b.size = 0;
+				String line;
+				while (b.size < BATCH_SIZE && (line = in.readLine()) != null) {
+					b.lines[b.size++] = line;
+				}
+				lines += b.size;
+				if (b.size > 0) {
+					put(read, b);
+				}
+				if (b.size < BATCH_SIZE) {
+					break;
+				}
+			}
+			put(read, END);
+		} catch (IOException | RuntimeException e) {
+			fail(e);
+		}
+		for (Thread t : stages) {
+			try {
+				t.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				fail(e);
+			}
+		}
+		Throwable e = failure;
+		if (e instanceof IOException) {
+			throw (IOException)e;
+		} else if (e instanceof RuntimeException) {
+			throw (RuntimeException)e;
+		} else if (e != null) {
+			throw new IOException(e);
+		}
+		return lines;
+	}
+
+	private interface Stage {
+		void run() throws IOException;
+	}
+
+	private Thread stage(String name, Stage body) {
+		Thread t = new Thread(() -> {
+			try {
+				body.run();
+			} catch (Throwable e) {
+				fail(e);
+			}
+		}, name);
+		t.setDaemon(true);
+		t.start();
+		return t;
+	}
+
+	private void fail(Throwable e) {
+		if (failure == null) {
+			failure = e;
+		}
+	}
+
+	/*
+	 * 其他阶段出错时不再等待，避免上下游互相阻塞
+	 */
+	private Batch take(BlockingQueue<Batch> q) throws IOException {
+		try {
+			while (failure == null) {
+				Batch b = q.poll(100, TimeUnit.MILLISECONDS);
+				if (b != null) {
+					return b;
+				}
+			}
+			return END;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException(e);
+		}
+	}
+
+	private void put(BlockingQueue<Batch> q, Batch b) throws IOException {
+		try {
+			while (failure == null && !q.offer(b, 100, TimeUnit.MILLISECONDS)) {
+				// 等待下游
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException(e);
+		}
+	}
+
+	private void parse(Batch b) {
+		long[] v = new long[2];
+		for (int i = 0; i < b.size; i++) {
+			String line = b.lines[i];
+			int start = fieldStart(line);
+			int family = 0;
+			if (start >= 0) {
+				int end = fieldEnd(line, start);
+				if (quoted && end - start >= 2 && line.charAt(start) == '"' && line.charAt(end - 1) == '"') {
+					start++;
+					end--;
+				}
+				family = IpAddress.parse(line, start, end, v);
+			}
+			if (family == 6 && v[0] == 0 && (v[1] >>> 32) == 0xffffL) {
+				// IPv4映射地址
+				family = 4;
+				v[0] = v[1] & 0xFFFFFFFFL;
+			}
+			b.family[i] = family;
+			b.hi[i] = v[0];
+			b.lo[i] = v[1];
+		}
+	}
+
+	private int fieldStart(String line) {
+		int pos = 0;
+		for (int c = 0; c < column; c++) {
+			pos = fieldEnd(line, pos);
+			if (pos >= line.length()) {
+				return -1;
+			}
+			pos++;
+		}
+		return pos;
+	}
+
+	private int fieldEnd(String line, int pos) {
+		boolean inQuote = false;
+		int len = line.length();
+		for (; pos < len; pos++) {
+			char c = line.charAt(pos);
+			if (quoted && c == '"') {
+				inQuote = !inQuote;
+			} else if (c == delimiter && !inQuote) {
+				break;
+			}
+		}
+		return pos;
+	}
+
+	private void lookup(Batch b) throws IOException {
+		int n6 = 0, n4 = 0;
+		for (int i = 0; i < b.size; i++) {
+			if (b.family[i] == 6) {
+				n6++;
+			} else if (b.family[i] == 4) {
+				n4++;
+			}
+		}
+		int[] pos6 = new int[n6];
+		int[] pos4 = new int[n4];
+		if (n6 > 0 && db6 != null) {
+			long[] keys = new long[n6];
+			for (int i = 0, k = 0; i < b.size; i++) {
+				if (b.family[i] == 6) {
+					keys[k++] = b.hi[i];
+				}
+			}
+			db6.lookupBatch(keys, pos6);
+		}
+		if (n4 > 0 && db4 != null) {
+			int[] keys = new int[n4];
+			for (int i = 0, k = 0; i < b.size; i++) {
+				if (b.family[i] == 4) {
+					keys[k++] = (int)b.hi[i];
+				}
+			}
+			db4.lookupBatch(keys, pos4);
+		}
+		for (int i = 0, k6 = 0, k4 = 0; i < b.size; i++) {
+			if (b.family[i] == 6 && db6 != null) {
+				int pos = pos6[k6++];
+				b.country[i] = db6.getCountry(pos);
+				b.local[i] = db6.getLocal(pos);
+			} else if (b.family[i] == 4 && db4 != null) {
+				int pos = pos4[k4++];
+				b.country[i] = db4.getCountry(pos);
+				b.local[i] = db4.getLocal(pos);
+			} else if (b.family[i] == 4 && db6 != null) {
+				// 与Ipdbv6.query()相同
+				b.country[i] = Ipdbv6.IPV4_FALLBACK;
+				b.local[i] = "";
+			} else {
+				b.country[i] = "";
+				b.local[i] = "";
+			}
+		}
+	}
+
+	private void write(Batch b, Writer out) throws IOException {
+		for (int i = 0; i < b.size; i++) {
+			out.write(b.lines[i]);
+			out.write(delimiter);
+			writeField(out, b.country[i]);
+			out.write(delimiter);
+			writeField(out, b.local[i]);
+			out.write('\n');
+			b.lines[i] = null;
+		}
+	}
+
+	private void writeField(Writer out, String s) throws IOException {
+		if (quoted && (s.indexOf(',') >= 0 || s.indexOf('"') >= 0)) {
+			out.write('"');
+			out.write(s.replace("\"", "\"\""));
+			out.write('"');
+		} else {
+			out.write(s);
+		}
+	}
+
+	private static void usage() {
+		System.err.println("用法: java org.zxinc.ip.LogEnricher -6 ipv6wry.db [-4 qqwry.db] [-f 列号] [-d 分隔符] [-o 输出文件] [输入文件|-]");
+		System.exit(2);
+	}
+
+	public static void main(String[] args) throws IOException {
+		String db6file = null, db4file = null, output = null, input = null;
+		int column = 1;
+		char delimiter = ' ';
+		for (int i = 0; i < args.length; i++) {
+			String a = args[i];
+			if (a.equals("-6") || a.equals("-4") || a.equals("-f") || a.equals("-d") || a.equals("-o")) {
+				if (i + 1 >= args.length) {
+					usage();
+				}
+				String v = args[++i];
+				switch (a) {
+					case "-6": db6file = v; break;
+					case "-4": db4file = v; break;
+					case "-f": column = Integer.parseInt(v); break;
+					case "-d": delimiter = parseDelimiter(v); break;
+					default: output = v; break;
+				}
+			} else if (input == null) {
+				input = a;
+			} else {
+				usage();
+			}
+		}
+		if ((db6file == null && db4file == null) || column < 1) {
+			usage();
+		}
+
+		IpdbOptions options = new IpdbOptions()
+			.setMapped(true)
+			.setPreload(true)
+			.setLocationCache(IpdbOptions.LocationCache.EAGER);
+		Ipdbv4 db4 = db4file != null ? new Ipdbv4(db4file, options) : null;
+		Ipdbv6 db6 = db6file != null ? new Ipdbv6(db6file, db4, options) : null;
+		LogEnricher enricher = new LogEnricher(db6, db4, column - 1, delimiter);
+
+		InputStream is = input == null || input.equals("-") ? System.in : Files.newInputStream(Path.of(input));
+		if (input != null && input.endsWith(".gz")) {
+			is = new GZIPInputStream(is, 1 << 16);
+		}
+		OutputStream os = output == null || output.equals("-") ? System.out : Files.newOutputStream(Path.of(output));
+		long start = System.nanoTime();
+		long lines;
+		try (BufferedReader in = new BufferedReader(new InputStreamReader(is, StandardCharsets.UTF_8), 1 << 16);
+			 Writer out = new BufferedWriter(new OutputStreamWriter(os, StandardCharsets.UTF_8), 1 << 16)) {
+			lines = enricher.run(in, out);
+		}
+		double secs = (System.nanoTime() - start) / 1e9;
+		System.err.printf("%d 行, %.3f 秒, %.0f 行/秒%n", lines, secs, secs > 0 ? lines / secs : 0);
+	}
+
+	private static char parseDelimiter(String v) {
+		switch (v) {
+			case "tab": case "\\t": return '\t';
+			case "space": return ' ';
+			case "csv": return ',';
+			default:
+				if (v.length() != 1) {
+					usage();
+				}
+				return v.charAt(0);
+		}
+	}
+
+}
@@ -0,0 +1,101 @@
+package org.zxinc.ip;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 查找结果缓存，按地址前缀保存索引位置。
+ * 每个前缀散列到一组4个槽，组内按CLOCK淘汰：命中时置访问位，插入时跳过并清除访问位已置的槽。
+ * 槽中的条目不可变，读写都不加锁；并发插入可能互相覆盖，只会少缓存一条，不会返回错误的结果。
+ */
+final class PrefixCache {
+	private static final int WAYS = 4;
+
+	private static final class Entry {
+		final long prefix;
+		// 索引范围的开始和结束地址，符号位取反，地址在范围内才算命中
+		final long lo;
+		final long hi;
+		final int pos;
+		// CLOCK访问位，多个线程同时读写也无妨
+		boolean used;
+
+		Entry(long prefix, long lo, long hi, int pos) {
+			this.prefix = prefix;
+			this.lo = lo;
+			this.hi = hi;
+			this.pos = pos;
+		}
+	}
+
+	private final AtomicReferenceArray<Entry> slots;
+	private final int[] hands;
+	private final int mask;
+	final LongAdder hits = new LongAdder();
+	final LongAdder misses = new LongAdder();
+
+	/**
+	 * @param capacity 最多缓存的条数，向上取整到4的2的幂倍
+	 */
+	PrefixCache(int capacity) {
+		int n = (capacity + WAYS - 1) / WAYS;
+		int sets = n <= 1 ? 1 : Integer.highestOneBit(n - 1) << 1;
+		slots = new AtomicReferenceArray<>(sets * WAYS);
+		hands = new int[sets];
+		mask = sets - 1;
+	}
+
+	private int set(long prefix) {
+		long h = prefix * 0x9E3779B97F4A7C15L;
+		return (int)(h ^ (h >>> 32)) & mask;
+	}
+
+	/**
+	 * 返回缓存的索引位置，没有缓存或key不在缓存的范围内时返回-1。
+	 *
+	 * @param key 符号位取反的地址
+	 */
+	int get(long prefix, long key) {
+		int base = set(prefix) * WAYS;
+		for (int i = 0; i < WAYS; i++) {
+			Entry e = slots.get(base + i);
+			if (e != null && e.prefix == prefix && e.lo <= key && key <= e.hi) {
+				if (!e.used) {
+					e.used = true;
+				}
+				hits.increment();
+				return e.pos;
+			}
+		}
+		misses.increment();
+		return -1;
+	}
+
+	void put(long prefix, long lo, long hi, int pos) {
+		int s = set(prefix);
+		int base = s * WAYS;
+		Entry e = new Entry(prefix, lo, hi, pos);
+		for (int i = 0; i < WAYS; i++) {
+			Entry old = slots.get(base + i);
+			if (old == null || old.prefix == prefix) {
+				slots.set(base + i, e);
+				return;
+			}
+		}
+		int hand = hands[s];
+		for (int n = 0; n < WAYS; n++, hand = (hand + 1) & (WAYS - 1)) {
+			Entry old = slots.get(base + hand);
+			if (!old.used) {
+				break;
+			}
+			old.used = false;
+		}
+		slots.set(base + hand, e);
+		hands[s] = (hand + 1) & (WAYS - 1);
+	}
+
+	int capacity() {
+		return slots.length();
+	}
+
+}
@@ -0,0 +1,435 @@
+package org.zxinc.ip;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 按IPv6前缀（/32到/64）统计地址的个数，不需要数据库，用于找出访问最多的网段。
+ * 计数保存在以前缀为键的开放寻址哈希表中，不产生对象，只在生成报告时格式化前缀。
+ *
+ * <p>指定capacity时使用Space-Saving算法，最多保留capacity个前缀，内存占用固定：
+ * 表满时新的前缀替换计数最小的一个，并继承它的计数作为误差。报告中的计数不小于真实值，
+ * 计数减去误差不大于真实值；真实计数超过 总数/capacity 的前缀一定在报告中。
+ *
+ * <p>不是线程安全的，每个线程各自一个，最后用merge合并。IPv4地址和IPv4映射地址计入getSkipped()。
+ */
+public final class PrefixCounter {
+	private static final int MIN_TABLE = 16;
+
+	/**
+	 * 报告中的一个前缀。
+	 */
+	public static final class Entry {
+		private final IpRange prefix;
+		private final int bits;
+		private final long count;
+		private final long error;
+
+		Entry(long key, int bits, long count, long error) {
+			this.prefix = IpRange.ofV6(key, 0, key | ~mask(bits), -1L);
+			this.bits = bits;
+			this.count = count;
+			this.error = error;
+		}
+
+		public IpRange getPrefix() {
+			return prefix;
+		}
+
+		/**
+		 * 前缀的高64位，可以传给 {@link PrefixCounter#getCount(long)}。
+		 */
+		public long getHighBits() {
+			return prefix.startHi;
+		}
+
+		/**
+		 * 计数，使用Space-Saving算法时可能偏大，偏大的部分不超过getError()。
+		 */
+		public long getCount() {
+			return count;
+		}
+
+		public long getError() {
+			return error;
+		}
+
+		@Override
+		public String toString() {
+			StringBuilder sb = new StringBuilder(48);
+			IpAddress.formatV6(prefix.startHi, 0, sb).append('/').append(bits).append('\t').append(count);
+			return error != 0 ? sb.append(" ±").append(error).toString() : sb.toString();
+		}
+	}
+
+	private final int bits;
+	private final long mask;
+	// 0表示不限制前缀个数
+	private final int capacity;
+	// 前缀、计数和误差，下标即条目编号；Space-Saving时按计数组成最小堆
+	private long[] keys;
+	private long[] counts;
+	private long[] errors;
+	private int size;
+	// 哈希表，保存条目编号+1，0表示空；heapSlot为条目在哈希表中的位置，移动堆中的条目时同步更新
+	private int[] table;
+	private int[] heapSlot;
+	private long total;
+	private long skipped;
+	private final long[] parsed = new long[2];
+
+	/**
+	 * 精确计数，前缀个数不限。
+	 *
+	 * @param bits 前缀长度，32到64
+	 */
+	public PrefixCounter(int bits) {
+		this(bits, 0);
+	}
+
+	/**
+	 * 使用Space-Saving算法，最多保留capacity个前缀。
+	 *
+	 * @param bits 前缀长度，32到64
+	 * @param capacity 保留的前缀个数，0表示不限制
+	 */
+	public PrefixCounter(int bits, int capacity) {
+		if (bits < 32 || bits > 64) {
+			throw new IllegalArgumentException("前缀长度必须在32到64之间: " + bits);
+		}
+		if (capacity < 0 || capacity > 1 << 28) {
+			throw new IllegalArgumentException("容量错误: " + capacity);
+		}
+		this.bits = bits;
+		this.mask = mask(bits);
+		this.capacity = capacity;
+		int n = capacity > 0 ? capacity : MIN_TABLE;
+		keys = new long[n];
+		counts = new long[n];
+		errors = capacity > 0 ? new long[n] : null;
+		heapSlot = capacity > 0 ? new int[n] : null;
+		table = new int[tableSize(n)];
+	}
+
+	private static long mask(int bits) {
+		return -1L << (64 - bits);
+	}
+
+	// 装载因子不超过1/2
+	private static int tableSize(int n) {
+		return Integer.highestOneBit(Math.max(n, MIN_TABLE) * 2 - 1) * 2;
+	}
+
+	private static int hash(long key) {
+		long h = key * 0x9E3779B97F4A7C15L;
+		return (int)(h ^ h >>> 32);
+	}
+
+	public int getBits() {
+		return bits;
+	}
+
+	public int getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * 已统计的IPv6地址个数，不含getSkipped()。
+	 */
+	public long getTotal() {
+		return total;
+	}
+
+	/**
+	 * IPv4地址、IPv4映射地址和非法地址的个数。
+	 */
+	public long getSkipped() {
+		return skipped;
+	}
+
+	/**
+	 * 当前保留的前缀个数。
+	 */
+	public int size() {
+		return size;
+	}
+
+	public void add(long hi, long lo) {
+		if (IpAddress.isMapped(hi, lo)) {
+			skipped++;
+			return;
+		}
+		total++;
+		increment(hi & mask, 1, 0);
+	}
+
+	public void add(CharSequence ip) {
+		addParsed(IpAddress.parse(ip, parsed));
+	}
+
+	/**
+	 * 统计ASCII编码的地址文本，比如日志缓冲区中的一段。
+	 */
+	public void add(byte[] b, int start, int end) {
+		addParsed(IpAddress.parse(b, start, end, parsed));
+	}
+
+	private void addParsed(int family) {
+		if (family == 6) {
+			add(parsed[0], parsed[1]);
+		} else {
+			skipped++;
+		}
+	}
+
+	public void addAll(long[] his, long[] los, int n) {
+		for (int i = 0; i < n; i++) {
+			add(his[i], los[i]);
+		}
+	}
+
+	/*
+	 * 哈希表中key所在的位置，不存在时为插入位置（取反）
+	 */
+	private int slot(long key) {
+		int m = table.length - 1;
+		for (int i = hash(key) & m; ; i = (i + 1) & m) {
+			int e = table[i];
+			if (e == 0) {
+				return ~i;
+			} else if (keys[e - 1] == key) {
+				return i;
+			}
+		}
+	}
+
+	private void increment(long key, long n, long err) {
+		int s = slot(key);
+		if (s >= 0) {
+			int e = table[s] - 1;
+			counts[e] += n;
+			errors(e, err);
+			if (capacity > 0) {
+				siftDown(e);
+			}
+		} else if (capacity == 0) {
+			if (size == keys.length) {
+				grow();
+				s = slot(key);
+			}
+			keys[size] = key;
+			counts[size] = n;
+			table[~s] = ++size;
+		} else if (size < capacity) {
+			int e = size++;
+			keys[e] = key;
+			counts[e] = n;
+			errors[e] = err;
+			table[~s] = e + 1;
+			heapSlot[e] = ~s;
+			siftUp(e);
+		} else {
+			// 替换计数最小的前缀，新前缀的计数至少是被替换前缀的计数
+			remove(heapSlot[0]);
+			long min = counts[0];
+			keys[0] = key;
+			counts[0] = min + n;
+			errors[0] = min + err;
+			int t = ~slot(key);
+			table[t] = 1;
+			heapSlot[0] = t;
+			siftDown(0);
+		}
+	}
+
+	private void errors(int e, long err) {
+		if (errors != null) {
+			errors[e] += err;
+		}
+	}
+
+	private void grow() {
+		int n = keys.length * 2;
+		keys = Arrays.copyOf(keys, n);
+		counts = Arrays.copyOf(counts, n);
+		table = new int[tableSize(n)];
+		int m = table.length - 1;
+		for (int e = 0; e < size; e++) {
+			int i = hash(keys[e]) & m;
+			while (table[i] != 0) {
+				i = (i + 1) & m;
+			}
+			table[i] = e + 1;
+		}
+	}
+
+	/*
+	 * 线性探测的删除：把后面同一探测序列中的条目前移，不留删除标记
+	 */
+	private void remove(int s) {
+		int m = table.length - 1;
+		table[s] = 0;
+		for (int i = (s + 1) & m; table[i] != 0; i = (i + 1) & m) {
+			int e = table[i] - 1;
+			int home = hash(keys[e]) & m;
+			// home不在(s, i]之间时可以移到s
+			if (((i - home) & m) >= ((i - s) & m)) {
+				table[s] = e + 1;
+				heapSlot[e] = s;
+				table[i] = 0;
+				s = i;
+			}
+		}
+	}
+
+	private void siftUp(int e) {
+		while (e > 0) {
+			int p = (e - 1) >>> 1;
+			if (counts[p] <= counts[e]) {
+				break;
+			}
+			swap(p, e);
+			e = p;
+		}
+	}
+
+	private void siftDown(int e) {
+		for (;;) {
+			int c = 2 * e + 1;
+			if (c >= size) {
+				break;
+			}
+			if (c + 1 < size && counts[c + 1] < counts[c]) {
+				c++;
+			}
+			if (counts[e] <= counts[c]) {
+				break;
+			}
+			swap(e, c);
+			e = c;
+		}
+	}
+
+	private void swap(int a, int b) {
+		long k = keys[a];
+		keys[a] = keys[b];
+		keys[b] = k;
+		long c = counts[a];
+		counts[a] = counts[b];
+		counts[b] = c;
+		long x = errors[a];
+		errors[a] = errors[b];
+		errors[b] = x;
+		int sa = heapSlot[a], sb = heapSlot[b];
+		heapSlot[a] = sb;
+		heapSlot[b] = sa;
+		table[sa] = b + 1;
+		table[sb] = a + 1;
+	}
+
+	/**
+	 * 把另一个计数器的结果加到这个计数器，两者的前缀长度和容量必须相同。
+	 * Space-Saving时，一方没有的前缀按该方的最小计数补上计数和误差（该方未满时为0），再保留计数最大的capacity个，
+	 * 合并后计数仍不小于真实值，计数减去误差仍不大于真实值。
+	 *
+	 * @return this
+	 */
+	public PrefixCounter merge(PrefixCounter other) {
+		if (other.bits != bits || other.capacity != capacity) {
+			throw new IllegalArgumentException("前缀长度或容量不同，不能合并");
+		}
+		total += other.total;
+		skipped += other.skipped;
+		if (capacity == 0) {
+			for (int e = 0; e < other.size; e++) {
+				increment(other.keys[e], other.counts[e], 0);
+			}
+			return this;
+		}
+		long min1 = size == capacity ? counts[0] : 0;
+		long min2 = other.size == capacity ? other.counts[0] : 0;
+		int n = size + other.size;
+		long[] k = new long[n], c = new long[n], x = new long[n];
+		int m = 0;
+		for (int e = 0; e < size; e++) {
+			int s = other.slot(keys[e]);
+			k[m] = keys[e];
+			if (s >= 0) {
+				int o = other.table[s] - 1;
+				c[m] = counts[e] + other.counts[o];
+				x[m] = errors[e] + other.errors[o];
+			} else {
+				c[m] = counts[e] + min2;
+				x[m] = errors[e] + min2;
+			}
+			m++;
+		}
+		for (int o = 0; o < other.size; o++) {
+			if (slot(other.keys[o]) < 0) {
+				k[m] = other.keys[o];
+				c[m] = other.counts[o] + min1;
+				x[m] = other.errors[o] + min1;
+				m++;
+			}
+		}
+		Integer[] order = new Integer[m];
+		for (int i = 0; i < m; i++) {
+			order[i] = i;
+		}
+		Arrays.sort(order, (a, b) -> Long.compare(c[b], c[a]));
+		Arrays.fill(table, 0);
+		size = 0;
+		for (int i = 0; i < m && i < capacity; i++) {
+			int j = order[i];
+			int e = size++;
+			keys[e] = k[j];
+			counts[e] = c[j];
+			errors[e] = x[j];
+			int t = ~slot(k[j]);
+			table[t] = e + 1;
+			heapSlot[e] = t;
+		}
+		// 按计数从大到小放入，反转后即为最小堆
+		for (int i = 0, j = size - 1; i < j; i++, j--) {
+			swap(i, j);
+		}
+		return this;
+	}
+
+	/**
+	 * 地址hi所在前缀的计数，不在表中时返回0。
+	 */
+	public long getCount(long hi) {
+		int s = slot(hi & mask);
+		return s >= 0 ? counts[table[s] - 1] : 0;
+	}
+
+	/**
+	 * 所有保留的前缀，按计数从大到小排列。
+	 */
+	public List<Entry> report() {
+		return top(Integer.MAX_VALUE);
+	}
+
+	/**
+	 * 计数最大的n个前缀，计数相同时按前缀排列。
+	 */
+	public List<Entry> top(int n) {
+		Integer[] order = new Integer[size];
+		for (int i = 0; i < size; i++) {
+			order[i] = i;
+		}
+		Arrays.sort(order, (a, b) -> {
+			int c = Long.compare(counts[b], counts[a]);
+			return c != 0 ? c : Long.compareUnsigned(keys[a], keys[b]);
+		});
+		List<Entry> list = new ArrayList<>(Math.min(n, size));
+		for (int i = 0; i < size && i < n; i++) {
+			int e = order[i];
+			list.add(new Entry(keys[e], bits, counts[e], errors != null ? errors[e] : 0));
+		}
+		return list;
+	}
+
+}
@@ -0,0 +1,99 @@
+package org.zxinc.ip;
+
+import java.util.Arrays;
+
+/**
+ * 带下标的LSD基数排序，用于批量查询前对地址排序。按有符号值排序，最高一趟翻转符号位。
+ * 每趟处理11位，计数表可以放进L1缓存；所有元素该位都相同的趟会被跳过。
+ */
+final class RadixSort {
+	private static final int BITS = 11;
+	private static final int RADIX = 1 << BITS;
+	private static final int MASK = RADIX - 1;
+
+	private RadixSort() {
+	}
+
+	/**
+	 * 对keys[0..n)升序排序，idx随之重排。排序是稳定的。
+	 */
+	static void sort(long[] keys, int[] idx, int n) {
+		long[] srck = keys, dstk = new long[n];
+		int[] srci = idx, dsti = new int[n];
+		int[] count = new int[RADIX];
+		for (int shift = 0; shift < 64; shift += BITS) {
+			Arrays.fill(count, 0);
+			for (int i = 0; i < n; i++) {
+				count[(int)((srck[i] ^ Long.MIN_VALUE) >>> shift) & MASK]++;
+			}
+			if (!prefixSum(count, n)) {
+				continue;
+			}
+			for (int i = 0; i < n; i++) {
+				int p = count[(int)((srck[i] ^ Long.MIN_VALUE) >>> shift) & MASK]++;
+				dstk[p] = srck[i];
+				dsti[p] = srci[i];
+			}
+			long[] tk = srck;
+			srck = dstk;
+			dstk = tk;
+			int[] ti = srci;
+			srci = dsti;
+			dsti = ti;
+		}
+		if (srck != keys) {
+			System.arraycopy(srck, 0, keys, 0, n);
+			System.arraycopy(srci, 0, idx, 0, n);
+		}
+	}
+
+	/**
+	 * 对keys[0..n)升序排序，idx随之重排。排序是稳定的。
+	 */
+	static void sort(int[] keys, int[] idx, int n) {
+		int[] srck = keys, dstk = new int[n];
+		int[] srci = idx, dsti = new int[n];
+		int[] count = new int[RADIX];
+		for (int shift = 0; shift < 32; shift += BITS) {
+			Arrays.fill(count, 0);
+			for (int i = 0; i < n; i++) {
+				count[((srck[i] ^ Integer.MIN_VALUE) >>> shift) & MASK]++;
+			}
+			if (!prefixSum(count, n)) {
+				continue;
+			}
+			for (int i = 0; i < n; i++) {
+				int p = count[((srck[i] ^ Integer.MIN_VALUE) >>> shift) & MASK]++;
+				dstk[p] = srck[i];
+				dsti[p] = srci[i];
+			}
+			int[] tk = srck;
+			srck = dstk;
+			dstk = tk;
+			int[] ti = srci;
+			srci = dsti;
+			dsti = ti;
+		}
+		if (srck != keys) {
+			System.arraycopy(srck, 0, keys, 0, n);
+			System.arraycopy(srci, 0, idx, 0, n);
+		}
+	}
+
+	/*
+	 * 把计数转换为起始位置。所有元素落在同一个桶时返回false，这一趟可以跳过。
+	 */
+	private static boolean prefixSum(int[] count, int n) {
+		int sum = 0;
+		for (int d = 0; d < RADIX; d++) {
+			int c = count[d];
+			if (c == n) {
+				return false;
+			}
+			count[d] = sum;
+			sum += c;
+		}
+		return true;
+	}
+
+}
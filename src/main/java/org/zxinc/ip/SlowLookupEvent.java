@@ -0,0 +1,32 @@
+package org.zxinc.ip;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * 耗时超过阈值的单个地址查找，记录在JDK Flight Recorder中。
+ */
+@Name("org.zxinc.ip.SlowLookup")
+@Label("Slow IP Lookup")
+@Category("ZX IPDB")
+@Description("耗时超过阈值的IP地址查找")
+@StackTrace(false)
+final class SlowLookupEvent extends Event {
+	@Label("Address")
+	String address;
+
+	@Label("Index Position")
+	int position;
+
+	@Label("Lookup Time")
+	@Timespan(Timespan.NANOSECONDS)
+	long lookupTime;
+
+	@Label("Database")
+	String database;
+}
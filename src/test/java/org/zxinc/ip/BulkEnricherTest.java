@@ -0,0 +1,73 @@
+package org.zxinc.ip;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+class BulkEnricherTest {
+	static Ipdbv6 db;
+	static List<String> ips;
+	static List<String> expected;
+
+	@BeforeAll
+	static void open() throws IOException {
+		db = new Ipdbv6(Ipdbv6SearchTest.DB, new IpdbOptions().setMapped(true));
+		// 不足一块的尾部也要覆盖
+		ips = LogEnricherTest.addresses(3, BulkEnricher.CHUNK * 20 + 5).stream()
+				.filter(ip -> !ip.startsWith("bad"))
+				.collect(Collectors.toList());
+		expected = new ArrayList<>();
+		for (String ip : ips) {
+			expected.add(db.query(ip).toString());
+		}
+	}
+
+	@AfterAll
+	static void close() throws IOException {
+		db.close();
+	}
+
+	private static void check(List<IpRecord> records) {
+		assertEquals(expected.size(), records.size());
+		for (int i = 0; i < records.size(); i++) {
+			assertEquals(expected.get(i), records.get(i).toString(), ips.get(i));
+		}
+	}
+
+	@Test
+	void sequentialStream() {
+		check(new BulkEnricher(db).enrich(ips.stream()).collect(Collectors.toList()));
+	}
+
+	@Test
+	void parallelStream() {
+		check(new BulkEnricher(db).enrich(ips.parallelStream()).collect(Collectors.toList()));
+	}
+
+	@Test
+	void executor() throws IOException {
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			check(new BulkEnricher(db).enrich(ips, executor));
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	void invalidAddressFails() {
+		List<String> bad = List.of("2001:db8::1", "not-an-ip");
+		assertThrows(IllegalArgumentException.class, () -> new BulkEnricher(db).enrich(bad.stream()).collect(Collectors.toList()));
+	}
+
+}
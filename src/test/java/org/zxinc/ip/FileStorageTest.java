@@ -0,0 +1,91 @@
+package org.zxinc.ip;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.jupiter.api.Test;
+
+class FileStorageTest {
+	static final Path DB = Path.of(Ipdbv6SearchTest.DB);
+
+	@Test
+	void concurrentReadsMatchFile() throws Exception {
+		byte[] data = Files.readAllBytes(DB);
+		AtomicReference<Throwable> failure = new AtomicReference<>();
+		try (FileStorage storage = new FileStorage(DB)) {
+			Thread[] threads = new Thread[8];
+			for (int t = 0; t < threads.length; t++) {
+				long seed = t;
+				threads[t] = new Thread(() -> {
+					Random r = new Random(seed);
+					try {
+						for (int i = 0; i < 20000; i++) {
+							int size = 1 + r.nextInt(8);
+							int off = r.nextInt(data.length - size);
+							byte[] b = storage.readRaw(off, size);
+							assertArrayEquals(Arrays.copyOfRange(data, off, off + size), b);
+							long expected = ByteBuffer.wrap(Arrays.copyOf(Arrays.copyOfRange(data, off, off + size), 8))
+									.order(ByteOrder.LITTLE_ENDIAN).getLong();
+							assertEquals(expected, storage.read8(off, size));
+						}
+					} catch (Throwable e) {
+						failure.compareAndSet(null, e);
+					}
+				});
+				threads[t].start();
+			}
+			for (Thread t : threads) {
+				t.join();
+			}
+		}
+		if (failure.get() != null) {
+			throw new AssertionError(failure.get());
+		}
+	}
+
+	@Test
+	void recoversAfterInterruptedRead() throws Exception {
+		byte[] data = Files.readAllBytes(DB);
+		try (FileStorage storage = new FileStorage(DB)) {
+			AtomicReference<Throwable> thrown = new AtomicReference<>();
+			// 被中断的线程读取时FileChannel会被关闭
+			Thread t = new Thread(() -> {
+				Thread.currentThread().interrupt();
+				try {
+					storage.readRaw(0, 16);
+				} catch (Throwable e) {
+					thrown.set(e);
+				}
+			});
+			t.start();
+			t.join();
+			assertTrue(thrown.get() instanceof ClosedByInterruptException, String.valueOf(thrown.get()));
+			// 其他线程重新打开后照常读取
+			assertArrayEquals(Arrays.copyOfRange(data, 100, 140), storage.readRaw(100, 40));
+			assertEquals(data[data.length - 1] & 0xFF, storage.read1(data.length - 1));
+			assertThrows(EOFException.class, () -> storage.readRaw(data.length - 4, 8));
+		}
+	}
+
+	@Test
+	void rejectsReadsAfterClose() throws IOException {
+		FileStorage storage = new FileStorage(DB);
+		storage.close();
+		assertThrows(ClosedChannelException.class, () -> storage.readRaw(0, 4));
+	}
+
+}
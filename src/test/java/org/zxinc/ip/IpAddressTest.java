@@ -0,0 +1,117 @@
+package org.zxinc.ip;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+class IpAddressTest {
+
+	private static String format(String ip) {
+		return new IpAddress(ip).toString();
+	}
+
+	@Test
+	void formatsV6PerRfc5952() {
+		// 小写，去掉前导0
+		assertEquals("2001:db8::1", format("2001:0DB8:0000:0000:0000:0000:0000:0001"));
+		// 单个0组不压缩
+		assertEquals("2001:db8:0:1:1:1:1:1", format("2001:db8:0:1:1:1:1:1"));
+		// 压缩最长的一段，长度相同时压缩第一段
+		assertEquals("2001:0:0:1::1", format("2001:0:0:1:0:0:0:1"));
+		assertEquals("2001:db8::1:0:0:1", format("2001:db8:0:0:1:0:0:1"));
+		assertEquals("::", format("0:0:0:0:0:0:0:0"));
+		assertEquals("::1", format("0:0:0:0:0:0:0:1"));
+		assertEquals("1::", format("1:0:0:0:0:0:0:0"));
+		assertEquals("1:2:3:4:5:6:7:8", format("1:2:3:4:5:6:7:8"));
+		assertEquals("fe80::1:0", format("fe80:0:0:0:0:0:1:0"));
+	}
+
+	@Test
+	void formatsMappedAndV4() {
+		assertEquals("1.2.3.4", format("1.2.3.4"));
+		assertEquals("255.255.255.255", format("255.255.255.255"));
+		assertEquals("0.0.0.0", format("0.0.0.0"));
+		StringBuilder sb = new StringBuilder();
+		IpAddress.formatV6(0, 0xFFFF01020304L, sb);
+		assertEquals("::ffff:1.2.3.4", sb.toString());
+	}
+
+	@Test
+	void byteFormatMatchesStringFormat() {
+		Random r = new Random(1);
+		byte[] buf = new byte[64];
+		for (int i = 0; i < 10000; i++) {
+			// 随机清零一些16位组，产生各种压缩位置
+			long hi = r.nextLong() & mask(r), lo = r.nextLong() & mask(r);
+			String s = IpAddress.formatV6(hi, lo, new StringBuilder()).toString();
+			int n = IpAddress.formatV6(hi, lo, buf, 0);
+			assertEquals(s, new String(buf, 0, n, StandardCharsets.US_ASCII));
+			long[] out = new long[2];
+			assertEquals(6, IpAddress.parse(s, out));
+			assertEquals(hi, out[0]);
+			assertEquals(lo, out[1]);
+		}
+	}
+
+	private static long mask(Random r) {
+		long m = 0;
+		for (int g = 0; g < 4; g++) {
+			if (r.nextBoolean()) {
+				m |= 0xFFFFL << (g * 16);
+			}
+		}
+		return m;
+	}
+
+	@Test
+	void parsesFamilies() {
+		long[] out = new long[2];
+		assertEquals(4, IpAddress.parse("1.2.3.4", out));
+		assertEquals(0x01020304L, out[0]);
+		assertEquals(4, IpAddress.parse("255.255.255.255", out));
+		assertEquals(0xFFFFFFFFL, out[0]);
+		assertEquals(6, IpAddress.parse("2001:db8::1", out));
+		assertEquals(0x20010DB800000000L, out[0]);
+		assertEquals(1L, out[1]);
+		// 映射地址按IPv6返回
+		assertEquals(6, IpAddress.parse("::ffff:1.2.3.4", out));
+		assertEquals(0L, out[0]);
+		assertEquals(0xFFFF01020304L, out[1]);
+		// 作用域被忽略
+		assertEquals(6, IpAddress.parse("fe80::1%eth0", out));
+		assertEquals(0xFE80000000000000L, out[0]);
+	}
+
+	@Test
+	void rejectsInvalid() {
+		long[] out = new long[2];
+		for (String s : new String[] {"", "256.1.1.1", "1..2.3", "1.2.3.4.5", "2001:db8:::1", "12345::", "1:2:3:4:5:6:7:8:9",
+				":1", "1:", "::ffff:1.2.3.256", "fe80::1%", "x", "1.2.3.-4"}) {
+			assertEquals(0, IpAddress.parse(s, out), s);
+			assertThrows(IllegalArgumentException.class, () -> new IpAddress(s), s);
+		}
+	}
+
+	@Test
+	void byteParseMatchesStringParse() {
+		String[] inputs = {"1.2.3.4", "10.0.0.255", "2001:db8::1", "::ffff:8.8.8.8", "::", "bad", "1.2.3.256"};
+		for (String s : inputs) {
+			long[] a = new long[2], b = new long[2];
+			byte[] text = ("xx" + s + "yy").getBytes(StandardCharsets.US_ASCII);
+			assertEquals(IpAddress.parse(s, a), IpAddress.parse(text, 2, 2 + s.length(), b), s);
+			assertArrayEquals(a, b);
+		}
+	}
+
+	@Test
+	void parsesUnicodeDigits() {
+		assertArrayEquals(new IpAddress("1.2.3.4").getBytes(), new IpAddress("１.２.３.４").getBytes());
+		assertArrayEquals(new IpAddress("2001:db8::1").getBytes(), new IpAddress("２００１:ｄｂ８::１").getBytes());
+	}
+
+}
@@ -0,0 +1,189 @@
+package org.zxinc.ip;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+class IpRangeSetTest {
+	// 靠近64位边界的值，范围的开始和结束取自这些值的组合，检查低64位进位到高64位的情况
+	private static final long[] EDGES = {0, 1, 2, Long.MAX_VALUE - 1, Long.MAX_VALUE, Long.MIN_VALUE, Long.MIN_VALUE + 1, -2, -1};
+
+	@Test
+	void mergesAcrossWordBoundary() {
+		IpRangeSet s = IpRangeSet.of(IpRange.ofV6(1, 0, 1, -1L), IpRange.ofV6(2, 0, 2, 5));
+		assertEquals(1, s.rangeCount());
+		IpRange r = s.ranges().get(0);
+		assertEquals(1L, r.startHi);
+		assertEquals(0L, r.startLo);
+		assertEquals(2L, r.endHi);
+		assertEquals(5L, r.endLo);
+		// 相差1个地址时不合并
+		assertEquals(2, IpRangeSet.of(IpRange.ofV6(1, 0, 1, -2L), IpRange.ofV6(2, 0, 2, 5)).rangeCount());
+	}
+
+	@Test
+	void differenceSplitsAtWordBoundary() {
+		IpRangeSet all = IpRangeSet.of(IpRange.ofV6(1, 0, 3, -1L));
+		IpRangeSet d = all.difference(IpRangeSet.of(IpRange.ofV6(1, -1L, 2, 0)));
+		List<IpRange> r = d.ranges();
+		assertEquals(2, r.size());
+		assertEquals(1L, r.get(0).endHi);
+		assertEquals(-2L, r.get(0).endLo);
+		assertEquals(2L, r.get(1).startHi);
+		assertEquals(1L, r.get(1).startLo);
+		assertFalse(d.contains(1, -1L));
+		assertFalse(d.contains(2, 0));
+		assertTrue(d.contains(1, -2L));
+		assertTrue(d.contains(2, 1));
+	}
+
+	@Test
+	void fullSpaceOperations() {
+		IpRangeSet all6 = IpRangeSet.of(IpRange.ofV6(0, 0, -1L, -1L));
+		IpRangeSet all4 = IpRangeSet.of(IpRange.ofV4(0, -1));
+		assertTrue(all6.contains(-1L, -1L));
+		assertTrue(all4.contains(-1));
+		assertTrue(all6.difference(all6).isEmpty());
+		assertEquals(all6, all6.union(IpRangeSet.of(IpRange.ofV6(5, 5, 6, 6))));
+		IpRangeSet hole = all4.difference(IpRangeSet.of(IpRange.ofV4(0x7FFFFFFF, 0x80000000)));
+		assertEquals(2, hole.rangeCount());
+		assertFalse(hole.contains(0x80000000));
+		assertTrue(hole.contains(0x80000001));
+		assertTrue(hole.contains(0));
+	}
+
+	@Test
+	void parsesTextRanges() {
+		IpRangeSet s = IpRangeSet.builder().add("10.0.0.0/8").add("2001:db8::/32").build();
+		assertTrue(s.contains("10.255.255.255"));
+		assertFalse(s.contains("11.0.0.0"));
+		assertTrue(s.contains("2001:db8:ffff::1"));
+		assertFalse(s.contains("2001:db9::"));
+	}
+
+	@Test
+	void v6OperationsMatchBruteForce() {
+		List<long[]> points = new ArrayList<>();
+		for (long hi : EDGES) {
+			for (long lo : EDGES) {
+				points.add(new long[] {hi, lo});
+			}
+		}
+		points.sort((a, b) -> compare(a[0], a[1], b[0], b[1]));
+		Random r = new Random(7);
+		for (int round = 0; round < 300; round++) {
+			long[][] a = randomV6(points, r), b = randomV6(points, r);
+			IpRangeSet sa = v6Set(a), sb = v6Set(b);
+			IpRangeSet u = sa.union(sb), x = sa.intersect(sb), d = sa.difference(sb);
+			checkCanonical(u);
+			checkCanonical(x);
+			checkCanonical(d);
+			for (long[] p : points) {
+				for (long delta = -1; delta <= 1; delta++) {
+					long lo = p[1] + delta;
+					long hi = p[0] + (delta > 0 && lo == 0 ? 1 : delta < 0 && lo == -1L ? -1 : 0);
+					boolean ia = in(a, hi, lo), ib = in(b, hi, lo);
+					assertEquals(ia, sa.contains(hi, lo));
+					assertEquals(ia || ib, u.contains(hi, lo));
+					assertEquals(ia && ib, x.contains(hi, lo));
+					assertEquals(ia && !ib, d.contains(hi, lo));
+				}
+			}
+		}
+	}
+
+	@Test
+	void v4OperationsMatchBruteForce() {
+		int[] edges = {0, 1, 2, 0x7FFFFFFE, 0x7FFFFFFF, 0x80000000, 0x80000001, -2, -1, 1000, 1001};
+		Random r = new Random(11);
+		for (int round = 0; round < 300; round++) {
+			int[][] a = randomV4(edges, r), b = randomV4(edges, r);
+			IpRangeSet sa = v4Set(a), sb = v4Set(b);
+			IpRangeSet u = sa.union(sb), x = sa.intersect(sb), d = sa.difference(sb);
+			for (int e : edges) {
+				for (int delta = -1; delta <= 1; delta++) {
+					int ip = e + delta;
+					boolean ia = in(a, ip), ib = in(b, ip);
+					assertEquals(ia || ib, u.contains(ip));
+					assertEquals(ia && ib, x.contains(ip));
+					assertEquals(ia && !ib, d.contains(ip));
+				}
+			}
+			assertEquals(u, sb.union(sa));
+			assertEquals(x, sb.intersect(sa));
+		}
+	}
+
+	private static long[][] randomV6(List<long[]> points, Random r) {
+		long[][] ranges = new long[1 + r.nextInt(5)][];
+		for (int i = 0; i < ranges.length; i++) {
+			long[] p = points.get(r.nextInt(points.size())), q = points.get(r.nextInt(points.size()));
+			if (compare(p[0], p[1], q[0], q[1]) > 0) {
+				long[] t = p;
+				p = q;
+				q = t;
+			}
+			ranges[i] = new long[] {p[0], p[1], q[0], q[1]};
+		}
+		return ranges;
+	}
+
+	private static IpRangeSet v6Set(long[][] ranges) {
+		IpRangeSet.Builder b = IpRangeSet.builder();
+		for (long[] x : ranges) {
+			b.addV6(x[0], x[1], x[2], x[3]);
+		}
+		return b.build();
+	}
+
+	private static boolean in(long[][] ranges, long hi, long lo) {
+		return Arrays.stream(ranges).anyMatch(x -> compare(x[0], x[1], hi, lo) <= 0 && compare(hi, lo, x[2], x[3]) <= 0);
+	}
+
+	private static int[][] randomV4(int[] edges, Random r) {
+		int[][] ranges = new int[1 + r.nextInt(5)][];
+		for (int i = 0; i < ranges.length; i++) {
+			int p = edges[r.nextInt(edges.length)], q = edges[r.nextInt(edges.length)];
+			ranges[i] = Integer.compareUnsigned(p, q) <= 0 ? new int[] {p, q} : new int[] {q, p};
+		}
+		return ranges;
+	}
+
+	private static IpRangeSet v4Set(int[][] ranges) {
+		IpRangeSet.Builder b = IpRangeSet.builder();
+		for (int[] x : ranges) {
+			b.addV4(x[0], x[1]);
+		}
+		return b.build();
+	}
+
+	private static boolean in(int[][] ranges, int ip) {
+		return Arrays.stream(ranges).anyMatch(x -> Integer.compareUnsigned(x[0], ip) <= 0 && Integer.compareUnsigned(ip, x[1]) <= 0);
+	}
+
+	/*
+	 * 合并后的范围按升序排列，互不重叠也不相邻
+	 */
+	private static void checkCanonical(IpRangeSet s) {
+		List<IpRange> list = s.ranges();
+		for (int i = 1; i < list.size(); i++) {
+			IpRange p = list.get(i - 1), q = list.get(i);
+			long nextLo = p.endLo + 1;
+			long nextHi = nextLo == 0 ? p.endHi + 1 : p.endHi;
+			assertTrue(compare(nextHi, nextLo, q.startHi, q.startLo) < 0, () -> p + " / " + q);
+		}
+	}
+
+	private static int compare(long hi1, long lo1, long hi2, long lo2) {
+		int c = Long.compareUnsigned(hi1, hi2);
+		return c != 0 ? c : Long.compareUnsigned(lo1, lo2);
+	}
+
+}
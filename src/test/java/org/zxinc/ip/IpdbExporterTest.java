@@ -0,0 +1,78 @@
+package org.zxinc.ip;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.Test;
+
+class IpdbExporterTest {
+
+	@Test
+	void entriesMatchIndex() throws IOException {
+		try (Ipdbv6 db = new Ipdbv6(Ipdbv6SearchTest.DB, new IpdbOptions().setPreload(true))) {
+			List<String> sequential = new ArrayList<>();
+			Iterator<IpRecord> it = db.iterator();
+			for (int pos = 0; pos < db.getTotal(); pos++) {
+				assertTrue(it.hasNext());
+				IpRecord rec = it.next();
+				assertEquals(db.getRangeStart(pos), rec.getIpAddress().highBits());
+				assertEquals(db.getRangeStart(pos), rec.getIpRange().getIpStart().highBits());
+				assertEquals(db.getRangeEnd(pos), rec.getIpRange().getIpEnd().highBits());
+				assertEquals(db.getCountry(pos), rec.getCountry());
+				assertEquals(db.getLocal(pos), rec.getLocal());
+				sequential.add(rec.getIpRange() + " " + rec);
+			}
+			assertFalse(it.hasNext());
+			List<String> parallel = db.entries().parallel().map(rec -> rec.getIpRange() + " " + rec).collect(Collectors.toList());
+			assertEquals(sequential, parallel);
+		}
+	}
+
+	private static byte[] export(IpdbOptions options, IpdbExporter.Format format) throws IOException {
+		try (Ipdbv6 db = new Ipdbv6(Ipdbv6SearchTest.DB, options)) {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			assertEquals(db.getTotal(), db.export(out, format));
+			return out.toByteArray();
+		}
+	}
+
+	@Test
+	void txtMatchesIndex() throws IOException {
+		String[] lines = new String(export(new IpdbOptions(), IpdbExporter.Format.TXT), StandardCharsets.UTF_8).split("\n", -1);
+		try (Ipdbv6 db = new Ipdbv6(Ipdbv6SearchTest.DB)) {
+			assertEquals(db.getTotal() + 1, lines.length);
+			assertEquals("", lines[db.getTotal()]);
+			for (int pos = 0; pos < db.getTotal(); pos++) {
+				String start = IpAddress.formatV6(db.getRangeStart(pos), 0, new StringBuilder()).toString();
+				String end = IpAddress.formatV6(db.getRangeEnd(pos), -1L, new StringBuilder()).toString();
+				assertEquals(start + "\t" + end + "\t" + db.getCountry(pos) + "\t" + db.getLocal(pos), lines[pos]);
+			}
+		}
+	}
+
+	@Test
+	void locationCacheDoesNotChangeOutput() throws IOException {
+		for (IpdbExporter.Format format : IpdbExporter.Format.values()) {
+			byte[] plain = export(new IpdbOptions(), format);
+			byte[] cached = export(new IpdbOptions().setPreload(true).setLocationCache(IpdbOptions.LocationCache.EAGER), format);
+			assertArrayEquals(plain, cached);
+		}
+	}
+
+	@Test
+	void jsonlLineFormat() throws IOException {
+		String first = new String(export(new IpdbOptions().setMapped(true), IpdbExporter.Format.JSONL), StandardCharsets.UTF_8).split("\n")[0];
+		assertTrue(first.matches("\\{\"start\":\"::\",\"end\":\"[0-9a-f:]+\",\"country\":\".*\",\"local\":\".*\"}"), first);
+	}
+
+}
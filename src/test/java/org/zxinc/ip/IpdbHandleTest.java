@@ -0,0 +1,180 @@
+package org.zxinc.ip;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.jupiter.api.Test;
+
+class IpdbHandleTest {
+
+	/*
+	 * 记录是否已经关闭
+	 */
+	static final class TrackedDb extends Ipdbv6 {
+		volatile boolean closed;
+
+		TrackedDb() throws IOException {
+			super(Ipdbv6SearchTest.DB, new IpdbOptions().setPreload(true));
+		}
+
+		@Override
+		public void close() throws IOException {
+			closed = true;
+			super.close();
+		}
+	}
+
+	private static final class Loads implements IpdbHandle.Loader<TrackedDb> {
+		final List<TrackedDb> loaded = new CopyOnWriteArrayList<>();
+		volatile boolean fail;
+
+		@Override
+		public TrackedDb load() throws IOException {
+			if (fail) {
+				throw new IOException("加载失败");
+			}
+			TrackedDb db = new TrackedDb();
+			loaded.add(db);
+			return db;
+		}
+	}
+
+	@Test
+	void reloadReleasesOldAfterLastLease() throws IOException {
+		Loads loads = new Loads();
+		try (IpdbHandle<TrackedDb> handle = new IpdbHandle<>(loads)) {
+			IpdbHandle.Lease<TrackedDb> lease = handle.acquire();
+			TrackedDb first = lease.get();
+			handle.reload();
+			assertEquals(2, loads.loaded.size());
+			try (IpdbHandle.Lease<TrackedDb> next = handle.acquire()) {
+				assertSame(loads.loaded.get(1), next.get());
+			}
+			// 借出的旧实例在归还前仍然可用
+			assertFalse(first.closed);
+			assertNotNull(first.query("2001:db8::1"));
+			lease.close();
+			assertTrue(first.closed);
+			// 重复关闭Lease不会多释放一次
+			lease.close();
+			assertFalse(loads.loaded.get(1).closed);
+		}
+		assertTrue(loads.loaded.get(1).closed);
+	}
+
+	@Test
+	void failedReloadKeepsCurrent() throws IOException {
+		Loads loads = new Loads();
+		try (IpdbHandle<TrackedDb> handle = new IpdbHandle<>(loads)) {
+			loads.fail = true;
+			assertThrows(IOException.class, handle::reload);
+			assertNotNull(handle.getLastFailure());
+			CompletionException e = assertThrows(CompletionException.class, () -> handle.reloadAsync().join());
+			assertTrue(e.getCause() instanceof IOException);
+			try (IpdbHandle.Lease<TrackedDb> lease = handle.acquire()) {
+				assertSame(loads.loaded.get(0), lease.get());
+			}
+			loads.fail = false;
+			handle.reloadAsync().join();
+			assertNull(handle.getLastFailure());
+			assertTrue(loads.loaded.get(0).closed);
+		}
+	}
+
+	@Test
+	void closedHandleRejectsUse() throws IOException {
+		Loads loads = new Loads();
+		IpdbHandle<TrackedDb> handle = new IpdbHandle<>(loads);
+		handle.reloadAsync().join();
+		handle.close();
+		handle.close();
+		assertTrue(loads.loaded.stream().allMatch(db -> db.closed));
+		assertThrows(IllegalStateException.class, handle::acquire);
+		assertThrows(IllegalStateException.class, handle::reload);
+		CompletionException e = assertThrows(CompletionException.class, () -> handle.reloadAsync().join());
+		assertTrue(e.getCause() instanceof IllegalStateException);
+		e = assertThrows(CompletionException.class, () -> handle.queryAsync("2001:db8::1").join());
+		assertTrue(e.getCause() instanceof IllegalStateException);
+	}
+
+	@Test
+	void queriesDuringReloads() throws Exception {
+		Loads loads = new Loads();
+		String expected;
+		AtomicBoolean stop = new AtomicBoolean();
+		AtomicReference<Throwable> failure = new AtomicReference<>();
+		try (IpdbHandle<TrackedDb> handle = new IpdbHandle<>(loads)) {
+			expected = handle.query("240e::1").toString();
+			Thread[] threads = new Thread[4];
+			for (int t = 0; t < threads.length; t++) {
+				threads[t] = new Thread(() -> {
+					try {
+						while (!stop.get()) {
+							assertEquals(expected, handle.query("240e::1").toString());
+						}
+					} catch (Throwable x) {
+						failure.compareAndSet(null, x);
+					}
+				});
+				threads[t].start();
+			}
+			for (int i = 0; i < 20; i++) {
+				handle.reload();
+			}
+			stop.set(true);
+			for (Thread t : threads) {
+				t.join();
+			}
+		}
+		if (failure.get() != null) {
+			throw new AssertionError(failure.get());
+		}
+		assertEquals(21, loads.loaded.size());
+		assertTrue(loads.loaded.stream().allMatch(db -> db.closed));
+	}
+
+	@Test
+	void watchReloadsReplacedFile() throws Exception {
+		Path dir = Files.createTempDirectory("ipdb-watch");
+		Path file = dir.resolve("ipv6wry.db");
+		Files.copy(Path.of(Ipdbv6SearchTest.DB), file);
+		try (IpdbHandle<Ipdbv6> handle = IpdbHandle.ofV6(file.toString(), null, new IpdbOptions())) {
+			Ipdbv6 first;
+			try (IpdbHandle.Lease<Ipdbv6> lease = handle.acquire()) {
+				first = lease.get();
+			}
+			handle.watch();
+			Path tmp = dir.resolve("ipv6wry.db.tmp");
+			Files.copy(Path.of(Ipdbv6SearchTest.DB), tmp);
+			Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			long deadline = System.nanoTime() + 20_000_000_000L;
+			Ipdbv6 current = first;
+			while (current == first && System.nanoTime() < deadline) {
+				Thread.sleep(50);
+				try (IpdbHandle.Lease<Ipdbv6> lease = handle.acquire()) {
+					current = lease.get();
+				}
+			}
+			assertTrue(current != first, "文件替换后没有重新加载");
+		} finally {
+			Files.deleteIfExists(file);
+			Files.delete(dir);
+		}
+	}
+
+}
@@ -0,0 +1,54 @@
+package org.zxinc.ip;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.jupiter.api.Test;
+
+class IpdbMetricsTest {
+
+	@Test
+	void registersWithFamilyKey() throws IOException, JMException {
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		ObjectName v6 = new ObjectName("org.zxinc.ip:type=Ipdb,name=\"metrics-test\",db=v6");
+		try (Ipdbv6 db = new Ipdbv6(Ipdbv6SearchTest.DB, new IpdbOptions().setJmxName("metrics-test"))) {
+			db.query("2001:db8::1");
+			assertTrue(server.isRegistered(v6));
+			assertEquals(1L, server.getAttribute(v6, "Lookups"));
+		}
+		assertFalse(server.isRegistered(v6));
+	}
+
+	@Test
+	void histogramSumsAllThreads() throws InterruptedException {
+		LatencyHistogram h = new LatencyHistogram();
+		Thread[] threads = new Thread[8];
+		for (int t = 0; t < threads.length; t++) {
+			long v = t == 0 ? 1000000 : 100;
+			threads[t] = new Thread(() -> {
+				for (int i = 0; i < 10000; i++) {
+					h.record(v);
+				}
+			});
+			threads[t].start();
+		}
+		for (Thread t : threads) {
+			t.join();
+		}
+		// 7/8的记录为100，其余为1000000
+		assertEquals(LatencyHistogram.upper(LatencyHistogram.bucket(100)), h.percentile(0.875));
+		assertEquals(1000000, h.percentile(0.876));
+		assertEquals(1000000, h.max());
+		h.reset();
+		assertEquals(0, h.percentile(0.5));
+	}
+
+}
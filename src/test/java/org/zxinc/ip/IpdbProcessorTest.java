@@ -0,0 +1,246 @@
+package org.zxinc.ip;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+class IpdbProcessorTest {
+	static final int BATCH = 16;
+
+	static Ipdbv6 db;
+	static List<IpAddress> addresses;
+
+	@BeforeAll
+	static void open() throws IOException {
+		// 读文件时queryAsync在其他线程完成，批次会真正并发
+		db = new Ipdbv6(Ipdbv6SearchTest.DB);
+		Random r = new Random(9);
+		addresses = new ArrayList<>();
+		for (int i = 0; i < 2000; i++) {
+			addresses.add(IpAddress.fromLongs(0x2000000000000000L | r.nextLong() >>> 4, r.nextLong()));
+		}
+	}
+
+	@AfterAll
+	static void close() throws IOException {
+		db.close();
+	}
+
+	/*
+	 * 按请求同步发出地址，记录请求总数、是否被取消；failAt之后发出onError
+	 */
+	static final class Source implements Flow.Publisher<IpAddress> {
+		final List<IpAddress> items;
+		final int failAt;
+		final AtomicLong requested = new AtomicLong();
+		volatile boolean cancelled;
+		volatile long maxOutstanding;
+		Sink sink;
+		private int next;
+		private boolean emitting;
+		private long demand;
+
+		Source(List<IpAddress> items, int failAt) {
+			this.items = items;
+			this.failAt = failAt;
+		}
+
+		@Override
+		public void subscribe(Flow.Subscriber<? super IpAddress> s) {
+			s.onSubscribe(new Flow.Subscription() {
+				@Override
+				public synchronized void request(long n) {
+					long total = requested.addAndGet(n);
+					if (sink != null) {
+						maxOutstanding = Math.max(maxOutstanding, total - sink.records.size());
+					}
+					demand += n;
+					if (emitting) {
+						return;
+					}
+					emitting = true;
+					while (demand > 0 && !cancelled && next <= items.size()) {
+						if (next == failAt) {
+							next = Integer.MAX_VALUE;
+							s.onError(new IOException("上游失败"));
+							break;
+						}
+						if (next == items.size()) {
+							next++;
+							s.onComplete();
+							break;
+						}
+						demand--;
+						s.onNext(items.get(next++));
+					}
+					emitting = false;
+				}
+
+				@Override
+				public void cancel() {
+					cancelled = true;
+				}
+			});
+		}
+	}
+
+	/*
+	 * 每次请求step个，收到这么多后再请求；step为0时一开始请求request个
+	 */
+	static final class Sink implements Flow.Subscriber<IpRecord> {
+		final List<IpRecord> records = new CopyOnWriteArrayList<>();
+		final CountDownLatch finished = new CountDownLatch(1);
+		final int step;
+		final long request;
+		volatile Throwable error;
+		volatile boolean completed;
+		Flow.Subscription subscription;
+
+		Sink(int step, long request) {
+			this.step = step;
+			this.request = request;
+		}
+
+		@Override
+		public void onSubscribe(Flow.Subscription s) {
+			subscription = s;
+			s.request(step > 0 ? step : request);
+		}
+
+		@Override
+		public void onNext(IpRecord item) {
+			records.add(item);
+			if (step > 0 && records.size() % step == 0) {
+				subscription.request(step);
+			}
+		}
+
+		@Override
+		public void onError(Throwable e) {
+			error = e;
+			finished.countDown();
+		}
+
+		@Override
+		public void onComplete() {
+			completed = true;
+			finished.countDown();
+		}
+
+		void await() throws InterruptedException {
+			assertTrue(finished.await(30, TimeUnit.SECONDS), "没有结束");
+		}
+	}
+
+	private static Source run(Ipdb ipdb, List<IpAddress> items, int failAt, Sink sink) {
+		Source source = new Source(items, failAt);
+		source.sink = sink;
+		IpdbProcessor p = ipdb.processor(BATCH);
+		p.subscribe(sink);
+		source.subscribe(p);
+		return source;
+	}
+
+	@Test
+	void preservesOrder() throws Exception {
+		for (int step : new int[] {1, 7, 1000}) {
+			Sink sink = new Sink(step, 0);
+			run(db, addresses, -1, sink);
+			sink.await();
+			assertNull(sink.error);
+			assertTrue(sink.completed);
+			assertEquals(addresses.size(), sink.records.size());
+			for (int i = 0; i < addresses.size(); i++) {
+				assertEquals(db.query(addresses.get(i)).toString(), sink.records.get(i).toString());
+			}
+		}
+	}
+
+	@Test
+	void boundsOutstandingRequests() throws Exception {
+		Sink sink = new Sink(0, Long.MAX_VALUE);
+		Source source = run(db, addresses, -1, sink);
+		sink.await();
+		assertTrue(sink.completed);
+		assertTrue(source.maxOutstanding <= (long)BATCH * IpdbProcessor.MAX_BATCHES, () -> "outstanding " + source.maxOutstanding);
+		// 下游只请求一部分时上游也只发出这么多
+		Sink partial = new Sink(0, 50);
+		Source limited = run(db, addresses, -1, partial);
+		long deadline = System.nanoTime() + 10_000_000_000L;
+		while (partial.records.size() < 50 && System.nanoTime() < deadline) {
+			Thread.sleep(10);
+		}
+		assertEquals(50, partial.records.size());
+		assertEquals(50, limited.requested.get());
+		partial.subscription.cancel();
+		assertTrue(limited.cancelled);
+	}
+
+	@Test
+	void upstreamErrorMidStream() throws Exception {
+		Sink sink = new Sink(0, Long.MAX_VALUE);
+		Source source = run(db, addresses, 500, sink);
+		sink.await();
+		assertTrue(sink.error instanceof IOException);
+		assertFalse(sink.completed);
+		assertTrue(sink.records.size() <= 500);
+		// 上游已经结束，不需要取消
+		assertFalse(source.cancelled);
+	}
+
+	@Test
+	void lookupFailureCancelsUpstream() throws Exception {
+		IOException failure = new IOException("查询失败");
+		IpAddress bad = addresses.get(300);
+		Ipdbv6 failing = new Ipdbv6(Ipdbv6SearchTest.DB, new IpdbOptions().setPreload(true)) {
+			@Override
+			public CompletableFuture<IpRecord> queryAsync(IpAddress ip) {
+				return ip == bad ? CompletableFuture.failedFuture(failure) : super.queryAsync(ip);
+			}
+		};
+		try {
+			Sink sink = new Sink(0, Long.MAX_VALUE);
+			Source source = run(failing, addresses, -1, sink);
+			sink.await();
+			assertSame(failure, sink.error);
+			assertTrue(sink.records.size() <= 300);
+			assertTrue(source.cancelled);
+		} finally {
+			failing.close();
+		}
+	}
+
+	@Test
+	void nonPositiveRequestCancelsUpstream() throws Exception {
+		for (long n : new long[] {0, -1}) {
+			Sink sink = new Sink(0, 10);
+			Source source = run(db, addresses, -1, sink);
+			long deadline = System.nanoTime() + 10_000_000_000L;
+			while (sink.records.size() < 10 && System.nanoTime() < deadline) {
+				Thread.sleep(10);
+			}
+			sink.subscription.request(n);
+			sink.await();
+			assertTrue(sink.error instanceof IllegalArgumentException);
+			assertTrue(source.cancelled, "上游没有被取消");
+		}
+	}
+
+}
@@ -0,0 +1,116 @@
+package org.zxinc.ip;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.function.Consumer;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+class IpdbSnapshotTest {
+	static Path dir;
+	static Path snapshot;
+	static Ipdbv6 db;
+
+	@BeforeAll
+	static void write() throws IOException {
+		dir = Files.createTempDirectory("ipdb-snapshot");
+		snapshot = dir.resolve("ipv6wry.snap");
+		db = new Ipdbv6(Ipdbv6SearchTest.DB, new IpdbOptions().setPreload(true).setLocationCache(IpdbOptions.LocationCache.EAGER));
+		db.writeSnapshot(snapshot.toString());
+	}
+
+	@AfterAll
+	static void close() throws IOException {
+		db.close();
+		try (var files = Files.list(dir)) {
+			for (Path p : (Iterable<Path>)files::iterator) {
+				Files.delete(p);
+			}
+		}
+		Files.delete(dir);
+	}
+
+	@Test
+	void roundTrip() throws IOException {
+		try (Ipdbv6 snap = Ipdbv6.openSnapshot(snapshot.toString())) {
+			assertEquals(db.getTotal(), snap.getTotal());
+			assertEquals(db.getLocationCount(), snap.getLocationCount());
+			for (int pos = 0; pos < db.getTotal(); pos++) {
+				assertEquals(db.getRangeStart(pos), snap.getRangeStart(pos));
+				assertEquals(db.getRangeEnd(pos), snap.getRangeEnd(pos));
+				assertEquals(db.getCountry(pos), snap.getCountry(pos));
+				assertEquals(db.getLocal(pos), snap.getLocal(pos));
+			}
+			Random r = new Random(5);
+			for (int i = 0; i < 10000; i++) {
+				long hi = r.nextLong();
+				assertEquals(db.lookup(hi, 0), snap.lookup(hi, 0));
+				String ip = IpAddress.formatV6(hi, 1, new StringBuilder()).toString();
+				assertEquals(db.query(ip).toString(), snap.query(ip).toString());
+			}
+		}
+	}
+
+	/*
+	 * 修改快照的副本后打开，resign时重新计算校验值，用来检查文件头的范围检查
+	 */
+	private static void assertRejected(Consumer<ByteBuffer> change, boolean resign) throws IOException {
+		ByteBuffer buf = ByteBuffer.wrap(Files.readAllBytes(snapshot)).order(ByteOrder.LITTLE_ENDIAN);
+		change.accept(buf);
+		if (resign) {
+			buf.putInt(28, IpdbSnapshot.crc(buf));
+		}
+		Path bad = dir.resolve("bad.snap");
+		Files.write(bad, buf.array());
+		assertThrows(IOException.class, () -> Ipdbv6.openSnapshot(bad.toString()).close());
+	}
+
+	@Test
+	void rejectsCorruption() throws IOException {
+		// 文件头和内容的改动都能被校验发现
+		assertRejected(b -> b.putLong(48, b.getLong(48) + 8), false);
+		assertRejected(b -> b.putInt(20, b.getInt(20) + 1000), false);
+		assertRejected(b -> b.put(b.limit() / 2, (byte)(b.get(b.limit() / 2) ^ 1)), false);
+		assertRejected(b -> b.putInt(8, IpdbSnapshot.VERSION - 1), false);
+		assertRejected(b -> b.putLong(0, 0), false);
+	}
+
+	@Test
+	void rejectsInconsistentHeader() throws IOException {
+		// 校验值正确但文件头不合理
+		assertRejected(b -> b.putInt(20, b.getInt(20) + 1000), true);
+		assertRejected(b -> b.putInt(24, b.getInt(24) + 1000), true);
+		assertRejected(b -> b.putLong(40, b.getLong(32)), true);
+		assertRejected(b -> b.putLong(56, b.limit() + 8L), true);
+		assertRejected(b -> b.putInt(16, 9), true);
+		assertRejected(b -> b.putInt(12, 4), true);
+		assertRejected(b -> b.putInt(b.getInt(48) + 4, 1 << 30), true);
+		assertRejected(b -> b.putInt((int)b.getLong(40), -1), true);
+	}
+
+	@Test
+	void resignedCopyOpens() throws IOException {
+		ByteBuffer buf = ByteBuffer.wrap(Files.readAllBytes(snapshot)).order(ByteOrder.LITTLE_ENDIAN);
+		buf.putInt(28, 0).putInt(28, IpdbSnapshot.crc(buf));
+		Path copy = dir.resolve("copy.snap");
+		Files.write(copy, buf.array());
+		try (Ipdbv6 snap = Ipdbv6.openSnapshot(copy.toString())) {
+			assertEquals(db.getTotal(), snap.getTotal());
+		}
+	}
+
+	@Test
+	void rejectsWrongFamily() {
+		assertThrows(IOException.class, () -> Ipdbv4.openSnapshot(snapshot.toString()).close());
+	}
+
+}
@@ -0,0 +1,148 @@
+package org.zxinc.ip;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+/**
+ * 各种索引布局、跳转表和缓存的查找结果都要和直接读文件的二分查找相同。
+ */
+class Ipdbv6SearchTest {
+	static final String DB = "src/main/resources/ipv6wry.db";
+
+	static Ipdbv6 reference;
+	static long[] keys;
+	static int[] expected;
+
+	@BeforeAll
+	static void open() throws IOException {
+		reference = new Ipdbv6(DB, new IpdbOptions());
+		int total = reference.getTotal();
+		Random r = new Random(3);
+		keys = new long[total * 6 + 10000];
+		int k = 0;
+		for (int pos = 0; pos < total; pos++) {
+			long start = reference.getRangeStart(pos), end = reference.getRangeEnd(pos);
+			keys[k++] = start;
+			keys[k++] = end;
+			keys[k++] = start - 1;
+			keys[k++] = end + 1;
+			keys[k++] = start + 1;
+			keys[k++] = end - 1;
+		}
+		while (k < keys.length) {
+			keys[k++] = r.nextLong();
+		}
+		expected = new int[keys.length];
+		for (int i = 0; i < keys.length; i++) {
+			expected[i] = reference.lookup(keys[i], 0);
+		}
+	}
+
+	@AfterAll
+	static void close() throws IOException {
+		reference.close();
+	}
+
+	private static void check(IpdbOptions options) throws IOException {
+		try (Ipdbv6 db = new Ipdbv6(DB, options)) {
+			check(db);
+		}
+	}
+
+	private static void check(Ipdbv6 db) throws IOException {
+		assertEquals(reference.getTotal(), db.getTotal());
+		for (int i = 0; i < keys.length; i++) {
+			long key = keys[i];
+			assertEquals(expected[i], db.lookup(key, 0), () -> Long.toHexString(key));
+		}
+		int[] actual = new int[keys.length];
+		db.lookupBatch(keys, actual);
+		for (int i = 0; i < keys.length; i++) {
+			assertEquals(expected[i], actual[i]);
+		}
+		for (int i = 0; i < keys.length; i += 97) {
+			String ip = IpAddress.formatV6(keys[i], 1, new StringBuilder()).toString();
+			assertEquals(reference.query(ip).getDisplay(), db.query(ip).getDisplay(), ip);
+		}
+	}
+
+	@Test
+	void mapped() throws IOException {
+		check(new IpdbOptions().setMapped(true));
+	}
+
+	@Test
+	void preload() throws IOException {
+		check(new IpdbOptions().setPreload(true));
+		check(new IpdbOptions().setMapped(true).setPreload(true).setLocationCache(IpdbOptions.LocationCache.EAGER));
+	}
+
+	@Test
+	void indexLayouts() throws IOException {
+		for (IpdbOptions.IndexLayout layout : IpdbOptions.IndexLayout.values()) {
+			check(new IpdbOptions().setPreload(true).setIndexLayout(layout));
+		}
+	}
+
+	@Test
+	void jumpTables() throws IOException {
+		check(new IpdbOptions().setPreload(true).setJumpTableBits(8));
+		check(new IpdbOptions().setPreload(true).setJumpTableBits(16));
+		check(new IpdbOptions().setPreload(true).setJumpTableBits(16).setJumpTableSubBits(12));
+	}
+
+	@Test
+	void caches() throws IOException {
+		check(new IpdbOptions().setQueryCacheSize(1024).setLocationCache(IpdbOptions.LocationCache.LAZY));
+		check(new IpdbOptions().setPreload(true).setMetrics(true));
+	}
+
+	@Test
+	void factories() throws IOException {
+		try (Ipdbv6 db = Ipdbv6.fromResource("ipv6wry.db")) {
+			check(db);
+		}
+		try (Ipdbv6 db = Ipdbv6.fromResource("/ipv6wry.db", null, new IpdbOptions().setPreload(true))) {
+			check(db);
+		}
+		try (InputStream in = Files.newInputStream(Path.of(DB)); Ipdbv6 db = Ipdbv6.fromStream(in, null, new IpdbOptions())) {
+			check(db);
+		}
+		byte[] data = Files.readAllBytes(Path.of(DB));
+		try (Ipdbv6 db = Ipdbv6.fromBytes(data, null, new IpdbOptions().setQueryCacheSize(1024))) {
+			check(db);
+		}
+		// 只使用position到limit之间的内容
+		ByteBuffer buf = ByteBuffer.allocateDirect(data.length + 24);
+		buf.position(16);
+		buf.put(data);
+		buf.position(16).limit(16 + data.length);
+		try (Ipdbv6 db = Ipdbv6.fromBuffer(buf, null, new IpdbOptions().setPreload(true))) {
+			check(db);
+		}
+		assertEquals(16, buf.position());
+	}
+
+	@Test
+	void missingResource() {
+		assertThrows(IOException.class, () -> Ipdbv6.fromResource("no-such.db"));
+	}
+
+	@Test
+	void rejectsLayoutWithJumpTable() {
+		assertThrows(IllegalArgumentException.class, () -> new Ipdbv6(DB, new IpdbOptions().setPreload(true)
+				.setIndexLayout(IpdbOptions.IndexLayout.EYTZINGER).setJumpTableBits(16)));
+	}
+
+}
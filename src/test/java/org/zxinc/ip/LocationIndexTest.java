@@ -0,0 +1,96 @@
+package org.zxinc.ip;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+class LocationIndexTest {
+	static Ipdbv6 db;
+
+	@BeforeAll
+	static void open() throws IOException {
+		db = new Ipdbv6(Ipdbv6SearchTest.DB, new IpdbOptions().setPreload(true).setLocationCache(IpdbOptions.LocationCache.EAGER));
+	}
+
+	@AfterAll
+	static void close() throws IOException {
+		db.close();
+	}
+
+	/*
+	 * 逐条检查：每个查询词都是国家或地区中某个词的一部分
+	 */
+	private static int[] bruteForce(String query) throws IOException {
+		List<String> terms = LocationIndex.tokenize(query);
+		return IntStream.range(0, db.getTotal()).filter(pos -> {
+			try {
+				List<String> tokens = LocationIndex.tokenize(db.getCountry(pos) + " " + db.getLocal(pos));
+				return !terms.isEmpty() && terms.stream().allMatch(t -> tokens.stream().anyMatch(k -> k.contains(t)));
+			} catch (IOException e) {
+				throw new AssertionError(e);
+			}
+		}).toArray();
+	}
+
+	@Test
+	void findPositionsMatchesBruteForce() throws IOException {
+		for (String query : new String[] {"北京", "北京 联通", "cernet", "CERNET2", "  中国\t电信 ", "不存在的地名", ""}) {
+			int[] expected = bruteForce(query);
+			assertArrayEquals(expected, db.findPositions(query), query);
+		}
+		assertTrue(db.findPositions("北京").length > 0);
+	}
+
+	@Test
+	void rangesCoverMatchedPositions() throws IOException {
+		int[] positions = db.findPositions("联通");
+		List<IpRange> ranges = db.findRanges("联通");
+		IpRangeSet set = db.findRangeSet("联通");
+		assertEquals(ranges.size(), set.rangeCount());
+		boolean[] matched = new boolean[db.getTotal()];
+		for (int pos : positions) {
+			matched[pos] = true;
+		}
+		for (int pos = 0; pos < db.getTotal(); pos++) {
+			assertEquals(matched[pos], set.contains(db.getRangeStart(pos), 0));
+			assertEquals(matched[pos], set.contains(db.getRangeEnd(pos), -1L));
+		}
+		// 相邻的IP段已经合并
+		for (int i = 1; i < ranges.size(); i++) {
+			assertFalse(ranges.get(i - 1).endHi + 1 == ranges.get(i).startHi && ranges.get(i - 1).endLo == -1L);
+		}
+	}
+
+	@Test
+	void positionsOfLocation() throws IOException {
+		for (int pos = 0; pos < db.getTotal(); pos += 101) {
+			int id = db.getLocationId(pos);
+			int[] positions = db.getPositions(id);
+			assertTrue(Arrays.binarySearch(positions, pos) >= 0);
+			for (int i = 0; i < positions.length; i++) {
+				assertEquals(id, db.getLocationId(positions[i]));
+				assertTrue(i == 0 || positions[i - 1] < positions[i]);
+			}
+		}
+	}
+
+	@Test
+	void positionsNeedLocationCache() throws IOException {
+		try (Ipdbv6 plain = new Ipdbv6(Ipdbv6SearchTest.DB)) {
+			assertThrows(IllegalStateException.class, () -> plain.getPositions(0));
+			assertArrayEquals(db.findPositions("北京 联通"), plain.findPositions("北京 联通"));
+		}
+	}
+
+}
@@ -0,0 +1,108 @@
+package org.zxinc.ip;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+class LogEnricherTest {
+	static Ipdbv6 db;
+
+	@BeforeAll
+	static void open() throws IOException {
+		db = new Ipdbv6(Ipdbv6SearchTest.DB, new IpdbOptions().setPreload(true));
+	}
+
+	@AfterAll
+	static void close() throws IOException {
+		db.close();
+	}
+
+	/**
+	 * IPv6、IPv4、IPv4映射和非法地址混合，数量跨越多个批次。
+	 */
+	static List<String> addresses(long seed, int n) {
+		Random r = new Random(seed);
+		List<String> ips = new ArrayList<>(n);
+		for (int i = 0; i < n; i++) {
+			switch (r.nextInt(8)) {
+			case 0:
+				ips.add(IpAddress.formatV4(r.nextInt(), new StringBuilder()).toString());
+				break;
+			case 1:
+				ips.add("::ffff:" + IpAddress.formatV4(r.nextInt(), new StringBuilder()));
+				break;
+			case 2:
+				ips.add("bad-" + i);
+				break;
+			default:
+				ips.add(IpAddress.formatV6(0x2000000000000000L | r.nextLong() >>> 4, r.nextLong(), new StringBuilder()).toString());
+			}
+		}
+		return ips;
+	}
+
+	private static String[] expected(String ip) throws IOException {
+		try {
+			IpRecord rec = db.query(ip);
+			return new String[] {rec.getCountry(), rec.getLocal()};
+		} catch (IllegalArgumentException e) {
+			return new String[] {"", ""};
+		}
+	}
+
+	@Test
+	void matchesQuery() throws IOException {
+		List<String> ips = addresses(1, LogEnricher.BATCH_SIZE * 3 + 17);
+		StringBuilder in = new StringBuilder();
+		for (String ip : ips) {
+			in.append(ip).append(" - - \"GET / HTTP/1.1\" 200\n");
+		}
+		StringWriter out = new StringWriter();
+		long n = new LogEnricher(db, null, 0, ' ').run(new BufferedReader(new StringReader(in.toString())), out);
+		assertEquals(ips.size(), n);
+		String[] lines = out.toString().split("\n", -1);
+		assertEquals(ips.size() + 1, lines.length);
+		for (int i = 0; i < ips.size(); i++) {
+			String[] e = expected(ips.get(i));
+			assertEquals(ips.get(i) + " - - \"GET / HTTP/1.1\" 200 " + e[0] + " " + e[1], lines[i]);
+		}
+	}
+
+	@Test
+	void quotedCsvColumn() throws IOException {
+		List<String> ips = addresses(2, 500);
+		StringBuilder in = new StringBuilder();
+		for (String ip : ips) {
+			in.append("\"a,b\",").append(ip).append(",x\n");
+		}
+		StringWriter out = new StringWriter();
+		new LogEnricher(db, null, 1, ',').run(new BufferedReader(new StringReader(in.toString())), out);
+		String[] lines = out.toString().split("\n");
+		for (int i = 0; i < ips.size(); i++) {
+			String[] e = expected(ips.get(i));
+			assertEquals("\"a,b\"," + ips.get(i) + ",x," + csv(e[0]) + "," + csv(e[1]), lines[i]);
+		}
+	}
+
+	private static String csv(String s) {
+		return s.indexOf(',') >= 0 || s.indexOf('"') >= 0 ? "\"" + s.replace("\"", "\"\"") + "\"" : s;
+	}
+
+	@Test
+	void emptyInput() throws IOException {
+		StringWriter out = new StringWriter();
+		assertEquals(0, new LogEnricher(db, null, 0, ' ').run(new BufferedReader(new StringReader("")), out));
+		assertEquals("", out.toString());
+	}
+
+}
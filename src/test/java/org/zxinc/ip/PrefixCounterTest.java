@@ -0,0 +1,119 @@
+package org.zxinc.ip;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+
+class PrefixCounterTest {
+	static final int N = 200000;
+	static final int CAPACITY = 100;
+
+	// 前缀按幂律分布，少数前缀占多数地址
+	private static long[] addresses(long seed) {
+		Random r = new Random(seed);
+		long[] his = new long[N];
+		for (int i = 0; i < N; i++) {
+			long z = Math.min(20000, (long)(1 / Math.pow(r.nextDouble(), 1.2)));
+			his[i] = 0x2001000000000000L | z << 24 | r.nextInt(1 << 24);
+		}
+		return his;
+	}
+
+	private static Map<Long, Long> exact(long[] his, int bits) {
+		Map<Long, Long> m = new HashMap<>();
+		long mask = -1L << (64 - bits);
+		for (long hi : his) {
+			m.merge(hi & mask, 1L, Long::sum);
+		}
+		return m;
+	}
+
+	@Test
+	void exactCountsMatchHashMap() {
+		long[] his = addresses(1);
+		for (int bits : new int[] {32, 40, 48, 64}) {
+			PrefixCounter a = new PrefixCounter(bits), b = new PrefixCounter(bits);
+			for (int i = 0; i < N; i++) {
+				(i % 2 == 0 ? a : b).add(his[i], i);
+			}
+			a.merge(b);
+			Map<Long, Long> ref = exact(his, bits);
+			assertEquals(ref.size(), a.size());
+			assertEquals(N, a.getTotal());
+			for (Map.Entry<Long, Long> e : ref.entrySet()) {
+				assertEquals((long)e.getValue(), a.getCount(e.getKey()));
+			}
+			List<PrefixCounter.Entry> top = a.top(10);
+			for (int i = 1; i < top.size(); i++) {
+				assertTrue(top.get(i - 1).getCount() >= top.get(i).getCount());
+			}
+		}
+	}
+
+	@Test
+	void spaceSavingBoundsHoldAfterMerge() {
+		long[] his = addresses(2);
+		for (int bits : new int[] {40, 48}) {
+			Map<Long, Long> ref = exact(his, bits);
+			PrefixCounter single = new PrefixCounter(bits, CAPACITY);
+			PrefixCounter[] parts = new PrefixCounter[4];
+			for (int p = 0; p < parts.length; p++) {
+				parts[p] = new PrefixCounter(bits, CAPACITY);
+			}
+			for (int i = 0; i < N; i++) {
+				single.add(his[i], 1);
+				parts[i % parts.length].add(his[i], 1);
+			}
+			PrefixCounter merged = parts[0];
+			for (int p = 1; p < parts.length; p++) {
+				merged.merge(parts[p]);
+			}
+			for (PrefixCounter c : new PrefixCounter[] {single, merged}) {
+				assertTrue(c.size() <= CAPACITY);
+				assertEquals(N, c.getTotal());
+				Set<Long> seen = new HashSet<>();
+				for (PrefixCounter.Entry e : c.report()) {
+					long truth = ref.getOrDefault(e.getHighBits(), 0L);
+					seen.add(e.getHighBits());
+					// 计数不小于真实值，减去误差后不大于真实值
+					assertTrue(e.getCount() >= truth, e::toString);
+					assertTrue(e.getCount() - e.getError() <= truth, e::toString);
+				}
+				for (Map.Entry<Long, Long> e : ref.entrySet()) {
+					if (e.getValue() > N / CAPACITY) {
+						assertTrue(seen.contains(e.getKey()), () -> Long.toHexString(e.getKey()));
+					}
+				}
+			}
+		}
+	}
+
+	@Test
+	void skipsV4AndInvalid() {
+		PrefixCounter c = new PrefixCounter(32);
+		c.add("1.2.3.4");
+		c.add("::ffff:1.2.3.4");
+		c.add("bad");
+		c.add("2001:db8::1");
+		assertEquals(3, c.getSkipped());
+		assertEquals(1, c.getTotal());
+		assertEquals("2001:db8::/32\t1", c.report().get(0).toString());
+	}
+
+	@Test
+	void rejectsMismatchedMerge() {
+		assertThrows(IllegalArgumentException.class, () -> new PrefixCounter(32).merge(new PrefixCounter(48)));
+		assertThrows(IllegalArgumentException.class, () -> new PrefixCounter(32, 10).merge(new PrefixCounter(32)));
+		assertThrows(IllegalArgumentException.class, () -> new PrefixCounter(65));
+	}
+
+}
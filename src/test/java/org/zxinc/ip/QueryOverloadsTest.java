@@ -0,0 +1,97 @@
+package org.zxinc.ip;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+/**
+ * 直接传入地址的重载与query(String)的结果相同。
+ */
+class QueryOverloadsTest {
+	static Ipdbv6 db;
+
+	@BeforeAll
+	static void open() throws IOException {
+		db = new Ipdbv6(Ipdbv6SearchTest.DB, new IpdbOptions().setPreload(true));
+	}
+
+	@AfterAll
+	static void close() throws IOException {
+		db.close();
+	}
+
+	private static String v6(long hi, long lo) {
+		return IpAddress.fromLongs(hi, lo).toString();
+	}
+
+	@Test
+	void ipv6() throws IOException {
+		Random r = new Random(5);
+		byte[] b = new byte[3 + 16];
+		ByteBuffer big = ByteBuffer.allocate(3 + 16);
+		ByteBuffer little = ByteBuffer.allocateDirect(3 + 16).order(ByteOrder.LITTLE_ENDIAN);
+		for (int i = 0; i < 5000; i++) {
+			long hi = 0x2000000000000000L | r.nextLong() >>> 3, lo = r.nextLong();
+			String expected = db.query(v6(hi, lo)).toString();
+			ByteBuffer.wrap(b, 3, 16).putLong(hi).putLong(lo);
+			big.putLong(3, hi).putLong(11, lo);
+			little.put(3, b, 3, 16);
+			assertEquals(expected, db.query(hi, lo).toString());
+			assertEquals(expected, db.query(b, 3, 16).toString());
+			assertEquals(expected, db.query(big, 3, 16).toString());
+			assertEquals(expected, db.query(little, 3, 16).toString());
+			assertEquals(expected, db.query(InetAddress.getByAddress(Arrays.copyOfRange(b, 3, 19))).toString());
+			int pos = db.lookup(hi, lo);
+			assertEquals(pos, db.lookup(b, 3));
+			assertEquals(pos, db.lookup(big, 3));
+			assertEquals(pos, db.lookup(little, 3));
+			// 读取时不改变position
+			assertEquals(0, big.position());
+			assertEquals(0, little.position());
+		}
+	}
+
+	@Test
+	void ipv4AndMapped() throws IOException {
+		Random r = new Random(6);
+		byte[] b = new byte[16];
+		for (int i = 0; i < 1000; i++) {
+			int v = r.nextInt();
+			String s = (v >>> 24) + "." + (v >>> 16 & 0xFF) + "." + (v >>> 8 & 0xFF) + "." + (v & 0xFF);
+			String expected = db.query(s).toString();
+			ByteBuffer.wrap(b).putInt(v);
+			assertEquals(expected, db.query(v).toString());
+			assertEquals(expected, db.query(b, 0, 4).toString());
+			assertEquals(expected, db.query(ByteBuffer.wrap(b), 0, 4).toString());
+			assertEquals(expected, db.query(InetAddress.getByAddress(Arrays.copyOf(b, 4))).toString());
+			// IPv4映射地址同样转为IPv4查询，与字符串形式相同
+			String mapped = db.query("::ffff:" + s).toString();
+			ByteBuffer.wrap(b).putLong(0).putInt(0xFFFF).putInt(v);
+			assertEquals(mapped, db.query(0, 0xFFFF00000000L | v & 0xFFFFFFFFL).toString());
+			assertEquals(mapped, db.query(b, 0, 16).toString());
+			assertEquals(mapped, db.query(ByteBuffer.wrap(b), 0, 16).toString());
+		}
+	}
+
+	@Test
+	void rejectsBadLength() {
+		byte[] b = new byte[16];
+		for (int len : new int[] {0, 3, 8, 15, 17}) {
+			assertThrows(IllegalArgumentException.class, () -> db.query(b, 0, len));
+			assertThrows(IllegalArgumentException.class, () -> db.query(ByteBuffer.wrap(b), 0, len));
+		}
+		assertThrows(IndexOutOfBoundsException.class, () -> db.query(b, 4, 16));
+		assertThrows(IndexOutOfBoundsException.class, () -> db.lookup(ByteBuffer.wrap(b), 1));
+	}
+
+}